@@ -0,0 +1,178 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.kenyaemr;
+
+import org.openmrs.GlobalProperty;
+import org.openmrs.Location;
+import org.openmrs.LocationAttribute;
+import org.openmrs.LocationAttributeType;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.api.ConfigurationRequiredException;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Snapshot of the facility configuration, i.e. the default location and its MFL code, so that these can be read
+ * without loading the global property and location attributes each time. The snapshot is discarded when the default
+ * location global property changes or a location is saved.
+ */
+@Component
+public class FacilityConfiguration implements GlobalPropertyListener {
+
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Incremented on each invalidation so that a snapshot fetched during an invalidation isn't cached
+	 */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	/**
+	 * Discards the snapshot
+	 */
+	public void refresh() {
+		invalidate();
+	}
+
+	/**
+	 * Discards the snapshot, e.g. because the default location or its attributes have changed
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+		snapshot = null;
+	}
+
+	/**
+	 * Gets the id of the default location
+	 * @return the location id
+	 * @throws ConfigurationRequiredException if the default location isn't set
+	 */
+	public Integer getDefaultLocationId() {
+		Snapshot current = getSnapshot();
+		if (current.defaultLocationId == null) {
+			throw new ConfigurationRequiredException("Global Property: " + KenyaEmrConstants.GP_DEFAULT_LOCATION);
+		}
+		return current.defaultLocationId;
+	}
+
+	/**
+	 * Gets the MFL code of the default location
+	 * @return the MFL code
+	 * @throws ConfigurationRequiredException if the default location isn't set or doesn't have an MFL code
+	 */
+	public String getDefaultLocationMflCode() {
+		Snapshot current = getSnapshot();
+		if (current.defaultLocationId == null) {
+			throw new ConfigurationRequiredException("Global Property: " + KenyaEmrConstants.GP_DEFAULT_LOCATION);
+		}
+		if (current.mflCode == null) {
+			throw new ConfigurationRequiredException("Default location (" + current.defaultLocationName + ") does not have an " + current.mflCodeAttributeTypeName);
+		}
+		return current.mflCode;
+	}
+
+	/**
+	 * @see GlobalPropertyListener#supportsPropertyName(String)
+	 */
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return KenyaEmrConstants.GP_DEFAULT_LOCATION.equals(propertyName);
+	}
+
+	/**
+	 * @see GlobalPropertyListener#globalPropertyChanged(org.openmrs.GlobalProperty)
+	 */
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		invalidate();
+	}
+
+	/**
+	 * @see GlobalPropertyListener#globalPropertyDeleted(String)
+	 */
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		invalidate();
+	}
+
+	/**
+	 * Gets the snapshot, fetching it if it isn't cached
+	 * @return the snapshot
+	 */
+	protected Snapshot getSnapshot() {
+		Snapshot current = snapshot;
+		if (current == null) {
+			int fetchedGeneration = generation.get();
+			current = fetchSnapshot();
+
+			if (generation.get() == fetchedGeneration) {
+				snapshot = current;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Fetches the snapshot from the database
+	 * @return the snapshot
+	 */
+	protected Snapshot fetchSnapshot() {
+		Snapshot fetched = new Snapshot();
+
+		try {
+			Context.addProxyPrivilege(PrivilegeConstants.VIEW_LOCATIONS);
+			Context.addProxyPrivilege(PrivilegeConstants.VIEW_LOCATION_ATTRIBUTE_TYPES);
+			Context.addProxyPrivilege(PrivilegeConstants.VIEW_GLOBAL_PROPERTIES);
+
+			GlobalProperty gp = Context.getAdministrationService().getGlobalPropertyObject(KenyaEmrConstants.GP_DEFAULT_LOCATION);
+			Location location = gp != null ? (Location) gp.getValue() : null;
+			if (location == null) {
+				return fetched;
+			}
+
+			LocationAttributeType mflCodeAttrType = Metadata.getLocationAttributeType(Metadata.MASTER_FACILITY_CODE_LOCATION_ATTRIBUTE_TYPE);
+			List<LocationAttribute> mflCodes = location.getActiveAttributes(mflCodeAttrType);
+
+			fetched.defaultLocationId = location.getLocationId();
+			fetched.defaultLocationName = location.getName();
+			fetched.mflCodeAttributeTypeName = mflCodeAttrType.getName();
+			fetched.mflCode = mflCodes.size() > 0 ? (String) mflCodes.get(0).getValue() : null;
+			return fetched;
+		}
+		finally {
+			Context.removeProxyPrivilege(PrivilegeConstants.VIEW_LOCATIONS);
+			Context.removeProxyPrivilege(PrivilegeConstants.VIEW_LOCATION_ATTRIBUTE_TYPES);
+			Context.removeProxyPrivilege(PrivilegeConstants.VIEW_GLOBAL_PROPERTIES);
+		}
+	}
+
+	/**
+	 * Facility configuration values, which aren't changed once cached
+	 */
+	protected static class Snapshot {
+
+		private Integer defaultLocationId;
+
+		private String defaultLocationName;
+
+		private String mflCodeAttributeTypeName;
+
+		private String mflCode;
+	}
+}
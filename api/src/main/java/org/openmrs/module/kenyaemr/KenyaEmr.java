@@ -14,18 +14,26 @@
 
 package org.openmrs.module.kenyaemr;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.ModuleFactory;
 import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.calculation.CalculationManager;
+import org.openmrs.module.kenyaemr.chart.RecentlyViewedPatients;
+import org.openmrs.module.kenyaemr.form.FilledFormsCache;
 import org.openmrs.module.kenyaemr.form.FormManager;
+import org.openmrs.module.kenyaemr.form.HtmlFormCache;
 import org.openmrs.module.kenyaemr.identifier.IdentifierManager;
 import org.openmrs.module.kenyaemr.lab.LabManager;
 import org.openmrs.module.kenyaemr.regimen.RegimenManager;
 import org.openmrs.module.kenyaemr.reporting.ReportManager;
+import org.openmrs.module.kenyaemr.search.LocationSearchIndex;
+import org.openmrs.module.kenyaemr.search.PatientSearchIndex;
 import org.openmrs.module.kenyaemr.util.BuildProperties;
+import org.openmrs.module.kenyaemr.visit.ActiveVisitIndex;
+import org.openmrs.module.kenyaemr.visit.DailySchedule;
 import org.openmrs.ui.framework.UiContextRefreshedCallback;
 import org.openmrs.ui.framework.fragment.FragmentFactory;
 import org.openmrs.ui.framework.page.PageFactory;
@@ -33,6 +41,7 @@ import org.openmrs.ui.framework.resource.ResourceFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.io.InputStream;
 import java.util.List;
 
 /**
@@ -49,6 +58,9 @@ public class KenyaEmr implements UiContextRefreshedCallback {
 	@Autowired
 	private IdentifierManager identifierManager;
 
+	@Autowired
+	private FacilityConfiguration facilityConfiguration;
+
 	@Autowired
 	private RegimenManager regimenManager;
 
@@ -64,6 +76,27 @@ public class KenyaEmr implements UiContextRefreshedCallback {
 	@Autowired
 	private LabManager labManager;
 
+	@Autowired
+	private ActiveVisitIndex activeVisitIndex;
+
+	@Autowired
+	private PatientSearchIndex patientSearchIndex;
+
+	@Autowired
+	private LocationSearchIndex locationSearchIndex;
+
+	@Autowired
+	private DailySchedule dailySchedule;
+
+	@Autowired
+	private FilledFormsCache filledFormsCache;
+
+	@Autowired
+	private RecentlyViewedPatients recentlyViewedPatients;
+
+	@Autowired
+	private HtmlFormCache htmlFormCache;
+
 	/**
 	 * Gets the module version
 	 * @return the version
@@ -96,6 +129,14 @@ public class KenyaEmr implements UiContextRefreshedCallback {
 		return identifierManager;
 	}
 
+	/**
+	 * Gets the facility configuration
+	 * @return the facility configuration
+	 */
+	public FacilityConfiguration getFacilityConfiguration() {
+		return facilityConfiguration;
+	}
+
 	/**
 	 * Gets the regimen manager
 	 * @return the regimen manager
@@ -136,6 +177,87 @@ public class KenyaEmr implements UiContextRefreshedCallback {
 		return labManager;
 	}
 
+	/**
+	 * Gets the active visit index
+	 * @return the active visit index
+	 */
+	public ActiveVisitIndex getActiveVisitIndex() {
+		return activeVisitIndex;
+	}
+
+	/**
+	 * Gets the patient search index
+	 * @return the patient search index
+	 */
+	public PatientSearchIndex getPatientSearchIndex() {
+		return patientSearchIndex;
+	}
+
+	/**
+	 * Gets the location search index
+	 * @return the location search index
+	 */
+	public LocationSearchIndex getLocationSearchIndex() {
+		return locationSearchIndex;
+	}
+
+	/**
+	 * Gets the daily schedule
+	 * @return the daily schedule
+	 */
+	public DailySchedule getDailySchedule() {
+		return dailySchedule;
+	}
+
+	/**
+	 * Gets the filled forms cache
+	 * @return the filled forms cache
+	 */
+	public FilledFormsCache getFilledFormsCache() {
+		return filledFormsCache;
+	}
+
+	/**
+	 * Gets the recently viewed patients
+	 * @return the recently viewed patients
+	 */
+	public RecentlyViewedPatients getRecentlyViewedPatients() {
+		return recentlyViewedPatients;
+	}
+
+	/**
+	 * Gets the HTML form cache
+	 * @return the HTML form cache
+	 */
+	public HtmlFormCache getHtmlFormCache() {
+		return htmlFormCache;
+	}
+
+	/**
+	 * Replaces the regimen and lab test catalogues with freshly parsed copies of their XML definitions. If either
+	 * fails to parse or validate then the current definitions of that catalogue stay in place.
+	 * @throws Exception if either couldn't be reloaded
+	 */
+	public void reloadRegimensAndLabTests() throws Exception {
+		InputStream stream = KenyaEmrActivator.openConfigurationResource(KenyaEmrActivator.REGIMENS_FILENAME);
+		try {
+			regimenManager.reloadDefinitionsFromXML(stream);
+		}
+		finally {
+			IOUtils.closeQuietly(stream);
+		}
+
+		stream = KenyaEmrActivator.openConfigurationResource(KenyaEmrActivator.LABTESTS_FILENAME);
+		try {
+			labManager.reloadTestsFromXML(stream);
+		}
+		finally {
+			IOUtils.closeQuietly(stream);
+		}
+
+		log.info("Reloaded regimens (version " + regimenManager.getVersion() + ") and lab tests (version " + labManager.getVersion() + ")");
+	}
+
 	/**
 	 * Gets the EMR service
 	 * @return the service
@@ -158,9 +280,33 @@ public class KenyaEmr implements UiContextRefreshedCallback {
 	 */
 	public void afterContextRefreshed(PageFactory pageFactory, FragmentFactory fragmentFactory, ResourceFactory resourceFactory) {
 		try {
+			long start = System.currentTimeMillis();
+
 			calculationManager.refresh();
+
+			log.info("Refreshed calculation manager in " + KenyaEmrActivator.elapsedSince(start));
+			start = System.currentTimeMillis();
+
+			facilityConfiguration.refresh();
+
+			// A failure here shouldn't prevent the remaining components from being refreshed
+			try {
+				identifierManager.refresh();
+			}
+			catch (Exception ex) {
+				log.error("Error refreshing identifier manager", ex);
+			}
+
 			formManager.refresh();
+			htmlFormCache.refresh();
 			reportManager.refresh();
+			activeVisitIndex.refresh();
+			patientSearchIndex.refresh();
+			locationSearchIndex.refresh();
+			dailySchedule.refresh();
+			filledFormsCache.refresh();
+
+			log.info("Refreshed managers and caches in " + KenyaEmrActivator.elapsedSince(start));
 		}
 		catch (Exception ex) {
 			log.error("Error during Kenya EMR context refresh", ex);
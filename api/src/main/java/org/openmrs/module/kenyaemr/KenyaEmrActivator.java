@@ -14,6 +14,7 @@
 
 package org.openmrs.module.kenyaemr;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.Level;
@@ -25,7 +26,12 @@ import org.openmrs.module.ModuleActivator;
 import org.openmrs.module.ModuleFactory;
 import org.openmrs.module.kenyaemr.datatype.LocationDatatype;
 import org.openmrs.module.kenyaemr.util.KenyaEmrUtils;
+import org.openmrs.util.OpenmrsUtil;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -37,9 +43,11 @@ public class KenyaEmrActivator implements ModuleActivator {
 
 	private static final String PACKAGES_FILENAME = "packages.xml";
 
-	private static final String REGIMENS_FILENAME = "regimens.xml";
+	protected static final String REGIMENS_FILENAME = "regimens.xml";
 
-	private static final String LABTESTS_FILENAME = "lab.xml";
+	protected static final String LABTESTS_FILENAME = "lab.xml";
+
+	protected static final String CONFIGURATION_DIRECTORY = "kenyaemr";
 
 	static {
 		// Possibly bad practice but we really want to see the log messages
@@ -73,21 +81,25 @@ public class KenyaEmrActivator implements ModuleActivator {
 	 */
 	public void started() {
 		try {
+			long start = System.currentTimeMillis();
+
 			checkRequirements();
 
 			log.info("Setup core global properties");
 
 			boolean metadataUpdated = setupStandardMetadata();
 
-			log.info("Setup core metadata (" + (metadataUpdated ? "imported packages" : "already up-to-date") + ")");
+			log.info("Setup core metadata (" + (metadataUpdated ? "imported packages" : "already up-to-date") + ") in " + elapsedSince(start));
+			start = System.currentTimeMillis();
 
 			setupStandardRegimens();
 
-			log.info("Setup core regimens");
+			log.info("Setup core regimens in " + elapsedSince(start));
+			start = System.currentTimeMillis();
 
 			setupStandardLabTests();
 
-			log.info("Setup core lab tests");
+			log.info("Setup core lab tests in " + elapsedSince(start));
 
 		} catch (Exception ex) {
 			log.error("Cancelling module startup due to error");
@@ -152,22 +164,63 @@ public class KenyaEmrActivator implements ModuleActivator {
 	 */
 	protected void setupStandardLabTests() {
 		try {
-			InputStream stream = getClass().getClassLoader().getResourceAsStream(LABTESTS_FILENAME);
-			KenyaEmr.getInstance().getLabManager().loadTestsFromXML(stream);
+			InputStream stream = openConfigurationResource(LABTESTS_FILENAME);
+			try {
+				KenyaEmr.getInstance().getLabManager().loadTestsFromXML(stream);
+			}
+			finally {
+				IOUtils.closeQuietly(stream);
+			}
 		}
 		catch (Exception ex) {
 			throw new RuntimeException("Cannot find " + LABTESTS_FILENAME + ". Make sure it's in api/src/main/resources");
 		}
 	}
 
+	/**
+	 * Opens a configuration resource such as the regimen definitions. A copy in the kenyaemr folder of the application
+	 * data directory takes precedence over the one bundled with the module, so that it can be changed and reloaded.
+	 * @param filename the filename
+	 * @return the input stream
+	 * @throws IOException if resource can't be opened
+	 */
+	protected static InputStream openConfigurationResource(String filename) throws IOException {
+		File directory = new File(OpenmrsUtil.getApplicationDataDirectory(), CONFIGURATION_DIRECTORY);
+		File file = new File(directory, filename);
+		if (file.exists()) {
+			log.info("Using " + filename + " from " + directory.getAbsolutePath());
+			return new FileInputStream(file);
+		}
+
+		InputStream stream = KenyaEmrActivator.class.getClassLoader().getResourceAsStream(filename);
+		if (stream == null) {
+			throw new FileNotFoundException(filename);
+		}
+		return stream;
+	}
+
+	/**
+	 * Formats the time elapsed since the given start time for logging
+	 * @param start the start time in milliseconds
+	 * @return the elapsed time, e.g. "123ms"
+	 */
+	protected static String elapsedSince(long start) {
+		return (System.currentTimeMillis() - start) + "ms";
+	}
+
 	/**
 	 * Setup the standard regimens from XML
 	 * @throws Exception if error occurs
 	 */
 	protected void setupStandardRegimens() {
 		try {
-			InputStream stream = getClass().getClassLoader().getResourceAsStream(REGIMENS_FILENAME);
-			KenyaEmr.getInstance().getRegimenManager().loadDefinitionsFromXML(stream);
+			InputStream stream = openConfigurationResource(REGIMENS_FILENAME);
+			try {
+				KenyaEmr.getInstance().getRegimenManager().loadDefinitionsFromXML(stream);
+			}
+			finally {
+				IOUtils.closeQuietly(stream);
+			}
 		}
 		catch (Exception ex) {
 			throw new RuntimeException("Cannot find " + REGIMENS_FILENAME + ". Make sure it's in api/src/main/resources", ex);
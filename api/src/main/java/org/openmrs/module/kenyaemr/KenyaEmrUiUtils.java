@@ -18,12 +18,16 @@ import org.joda.time.Period;
 import org.joda.time.PeriodType;
 import org.openmrs.*;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.chart.PatientChart;
 import org.openmrs.module.kenyaemr.form.FormDescriptor;
 import org.openmrs.module.kenyaemr.regimen.*;
+import org.openmrs.module.kenyaemr.search.LocationSearchIndex;
+import org.openmrs.module.kenyaemr.summary.PatientSummary;
 import org.openmrs.module.kenyaemr.util.KenyaEmrUtils;
 import org.openmrs.module.kenyaui.KenyaUiUtils;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.UiUtils;
+import org.openmrs.ui.framework.page.PageModel;
 import org.openmrs.util.OpenmrsUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -37,6 +41,8 @@ import java.util.Date;
 @Component
 public class KenyaEmrUiUtils {
 
+	private static final String PATIENT_CHART_ATTRIBUTE = "patientChart";
+
 	@Autowired
 	private KenyaUiUtils kenyaUi;
 
@@ -147,11 +153,36 @@ public class KenyaEmrUiUtils {
 	 * @return
 	 */
 	public List<SimpleObject> simplePatients(Collection<Patient> patients, UiUtils ui) {
+		List<PatientSummary> summaries = new ArrayList<PatientSummary>();
+		for (Patient patient : patients) {
+			summaries.add(new PatientSummary(patient));
+		}
+		return simplePatientSummaries(summaries, ui);
+	}
+
+	/**
+	 * Simplifies a list of patient summaries
+	 * @param summaries the patient summaries
+	 * @param ui the UI utils
+	 * @return a list of objects with { patientId, personName, age, ageMonths, ageDays, birthdate, birthdateEstimated,
+	 *         gender, activeIdentifiers[].identifierType, activeIdentifiers[].identifier }
+	 */
+	public List<SimpleObject> simplePatientSummaries(Collection<PatientSummary> summaries, UiUtils ui) {
 		List<SimpleObject> ret = new ArrayList<SimpleObject>();
 		long now = System.currentTimeMillis();
-		for (Patient patient : patients) {
-			SimpleObject so = SimpleObject.fromObject(patient, ui, "patientId", "personName", "age", "birthdate", "birthdateEstimated", "gender", "activeIdentifiers.identifierType", "activeIdentifiers.identifier");
-			Period p = new Period(patient.getBirthdate().getTime(), now, PeriodType.yearMonthDay());
+		for (PatientSummary summary : summaries) {
+			List<SimpleObject> identifiers = new ArrayList<SimpleObject>();
+			for (PatientSummary.Identifier identifier : summary.getIdentifiers()) {
+				identifiers.add(SimpleObject.create("identifierType", ui.format(identifier.getIdentifierType()), "identifier", ui.format(identifier.getIdentifier())));
+			}
+
+			SimpleObject so = SimpleObject.create("patientId", summary.getPatientId(), "personName", ui.format(summary.getPersonName()));
+			so.put("age", summary.getAge());
+			so.put("birthdate", ui.format(summary.getBirthdate()));
+			so.put("birthdateEstimated", summary.isBirthdateEstimated());
+			so.put("gender", summary.getGender());
+			so.put("activeIdentifiers", identifiers);
+			Period p = new Period(summary.getBirthdate().getTime(), now, PeriodType.yearMonthDay());
 			so.put("ageMonths", p.getMonths());
 			so.put("ageDays", p.getDays());
 			ret.add(so);
@@ -169,9 +200,31 @@ public class KenyaEmrUiUtils {
 	public SimpleObject simpleLocation(Location location, LocationAttributeType mfcAttrType, UiUtils ui) {
 		List<LocationAttribute> attrs = location.getActiveAttributes(mfcAttrType);
 		String facilityCode = attrs.size() > 0 ? (String)attrs.get(0).getValue() : null;
-		String display = location.getName() + " (" + (facilityCode != null ? facilityCode : "?") + ")";
 
-		return SimpleObject.create("value", location.getLocationId(), "label", display);
+		return simpleLocation(location.getLocationId(), location.getName(), facilityCode);
+	}
+
+	/**
+	 * Simplifies an indexed location
+	 * @param entry the location search index entry
+	 * @param ui the UI utils
+	 * @return the simple object
+	 */
+	public SimpleObject simpleLocation(LocationSearchIndex.Entry entry, UiUtils ui) {
+		return simpleLocation(entry.getLocationId(), entry.getName(), entry.getMflCode());
+	}
+
+	/**
+	 * Creates a simple location object
+	 * @param locationId the location id
+	 * @param name the location name
+	 * @param facilityCode the MFL code (may be null)
+	 * @return the simple object
+	 */
+	protected SimpleObject simpleLocation(Integer locationId, String name, String facilityCode) {
+		String display = name + " (" + (facilityCode != null ? facilityCode : "?") + ")";
+
+		return SimpleObject.create("value", locationId, "label", display);
 	}
 
 	/**
@@ -203,7 +256,12 @@ public class KenyaEmrUiUtils {
 	 * @return the simple object
 	 */
 	public SimpleObject simpleVisit(Visit visit, UiUtils ui) {
-		return SimpleObject.fromObject(visit, ui, "visitId", "visitType", "startDatetime", "stopDatetime");
+		return SimpleObject.create(
+				"visitId", visit.getVisitId(),
+				"visitType", ui.format(visit.getVisitType()),
+				"startDatetime", visit.getStartDatetime() != null ? ui.format(visit.getStartDatetime()) : null,
+				"stopDatetime", visit.getStopDatetime() != null ? ui.format(visit.getStopDatetime()) : null
+		);
 	}
 
 	/**
@@ -280,4 +338,21 @@ public class KenyaEmrUiUtils {
 				"name", "group.code", "components.drugRef", "components.dose", "components.units", "components.frequency"
 		);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Gets the chart of the given patient which is shared by a page and its fragments, creating it if necessary
+	 * @param sharedPageModel the shared page model
+	 * @param patient the patient
+	 * @return the patient chart
+	 */
+	public PatientChart getPatientChart(PageModel sharedPageModel, Patient patient) {
+		Object chart = sharedPageModel.getAttribute(PATIENT_CHART_ATTRIBUTE);
+		if (chart instanceof PatientChart && ((PatientChart) chart).getPatient().equals(patient)) {
+			return (PatientChart) chart;
+		}
+
+		PatientChart created = new PatientChart(patient);
+		sharedPageModel.addAttribute(PATIENT_CHART_ATTRIBUTE, created);
+		return created;
+	}
+}
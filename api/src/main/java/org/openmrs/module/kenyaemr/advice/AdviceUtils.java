@@ -0,0 +1,61 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.advice;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Advice utility methods
+ */
+public class AdviceUtils {
+
+	protected static final Log log = LogFactory.getLog(AdviceUtils.class);
+
+	/**
+	 * Runs a cache update once the current transaction has committed, so that caches never hold changes which are
+	 * rolled back, and aren't rebuilt from rows which are about to change. If there is no current transaction then the
+	 * update is run immediately. Failures are logged rather than thrown as the change itself has been saved.
+	 * @param update the cache update
+	 */
+	public static void afterCommit(final Runnable update) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					runUpdate(update);
+				}
+			});
+		}
+		else {
+			runUpdate(update);
+		}
+	}
+
+	/**
+	 * Runs a cache update, logging any failure
+	 * @param update the cache update
+	 */
+	private static void runUpdate(Runnable update) {
+		try {
+			update.run();
+		}
+		catch (Exception ex) {
+			log.error("Unable to update module cache", ex);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.advice;
+
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.KenyaEmr;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.visit.DailySchedule;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+
+/**
+ * Keeps module caches up to date with changes made through the encounter service. Obs saved as part of an encounter
+ * don't pass through the obs service.
+ */
+public class EncounterServiceAdvice implements AfterReturningAdvice {
+
+	/**
+	 * @see AfterReturningAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		String name = method.getName();
+
+		if (args != null && args.length > 0 && args[0] instanceof Encounter) {
+			if (name.startsWith("save") || name.startsWith("void") || name.startsWith("unvoid") || name.startsWith("purge")) {
+				final Encounter encounter = (Encounter) args[0];
+				DailySchedule dailySchedule = KenyaEmr.getInstance().getDailySchedule();
+				boolean scheduleChanged = false;
+
+				for (Obs obs : encounter.getAllObs(true)) {
+					if (dailySchedule.isScheduleQuestion(obs.getConcept())) {
+						if (encounter.getPatient() != null) {
+							try {
+								Context.addProxyPrivilege(PrivilegeConstants.EDIT_PATIENTS);
+								Context.getService(KenyaEmrService.class).updateAppointments(encounter.getPatient());
+							}
+							finally {
+								Context.removeProxyPrivilege(PrivilegeConstants.EDIT_PATIENTS);
+							}
+						}
+
+						scheduleChanged = true;
+						break;
+					}
+				}
+
+				final boolean refreshSchedule = scheduleChanged;
+
+				AdviceUtils.afterCommit(new Runnable() {
+					@Override
+					public void run() {
+						KenyaEmr.getInstance().getFilledFormsCache().invalidate(encounter.getPatient());
+
+						if (refreshSchedule) {
+							KenyaEmr.getInstance().getDailySchedule().refresh();
+						}
+					}
+				});
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.kenyaemr.advice;
+
+import org.openmrs.Form;
+import org.openmrs.FormResource;
+import org.openmrs.module.kenyaemr.KenyaEmr;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+
+/**
+ * Keeps module caches up to date with changes made through the form service
+ */
+public class FormServiceAdvice implements AfterReturningAdvice {
+
+	/**
+	 * @see AfterReturningAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		String name = method.getName();
+
+		if (args == null || args.length == 0) {
+			return;
+		}
+
+		if (name.startsWith("save") || name.startsWith("retire") || name.startsWith("unretire") || name.startsWith("purge")) {
+			final Form form;
+			if (args[0] instanceof Form) {
+				form = (Form) args[0];
+			}
+			else if (args[0] instanceof FormResource) {
+				form = ((FormResource) args[0]).getForm();
+			}
+			else {
+				return;
+			}
+
+			AdviceUtils.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					KenyaEmr.getInstance().getHtmlFormCache().invalidate(form);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.advice;
+
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.module.kenyaemr.KenyaEmr;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps module caches up to date with changes made through the patient service
+ */
+public class PatientServiceAdvice implements AfterReturningAdvice {
+
+	/**
+	 * @see AfterReturningAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		String name = method.getName();
+
+		if (args == null || args.length == 0) {
+			return;
+		}
+
+		if (name.equals("purgePatient") && args[0] instanceof Patient) {
+			final Integer patientId = ((Patient) args[0]).getPatientId();
+
+			AdviceUtils.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					KenyaEmr.getInstance().getPatientSearchIndex().remove(patientId);
+					KenyaEmr.getInstance().getRecentlyViewedPatients().remove(patientId);
+					KenyaEmr.getInstance().getDailySchedule().refresh();
+				}
+			});
+		}
+		else if (name.equals("mergePatients")) {
+			final List<Patient> patients = new ArrayList<Patient>();
+			for (Object arg : args) {
+				if (arg instanceof Patient) {
+					patients.add((Patient) arg);
+				}
+			}
+
+			AdviceUtils.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					for (Patient patient : patients) {
+						KenyaEmr.getInstance().getPatientSearchIndex().update(patient);
+						KenyaEmr.getInstance().getRecentlyViewedPatients().update(patient);
+					}
+					KenyaEmr.getInstance().getDailySchedule().refresh();
+					KenyaEmr.getInstance().getFilledFormsCache().refresh();
+				}
+			});
+		}
+		else if (name.startsWith("save") || name.startsWith("void") || name.startsWith("unvoid") || name.startsWith("purge")) {
+			// Voiding or unvoiding a patient adds or removes them from the schedules of their appointment days
+			final boolean voidedChanged = args[0] instanceof Patient && (name.startsWith("void") || name.startsWith("unvoid"));
+
+			final Patient patient;
+			if (args[0] instanceof Patient) {
+				patient = (Patient) args[0];
+			}
+			else if (args[0] instanceof PatientIdentifier && ((PatientIdentifier) args[0]).getPatient() != null) {
+				patient = ((PatientIdentifier) args[0]).getPatient();
+			}
+			else {
+				return;
+			}
+
+			AdviceUtils.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					KenyaEmr.getInstance().getPatientSearchIndex().update(patient);
+					KenyaEmr.getInstance().getRecentlyViewedPatients().update(patient);
+
+					if (voidedChanged) {
+						KenyaEmr.getInstance().getDailySchedule().refresh();
+					}
+					else {
+						KenyaEmr.getInstance().getDailySchedule().update(patient.getPatientId());
+					}
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.advice;
+
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.KenyaEmr;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+
+/**
+ * Keeps module caches up to date with changes made through the visit service
+ */
+public class VisitServiceAdvice implements AfterReturningAdvice {
+
+	/**
+	 * @see AfterReturningAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		String name = method.getName();
+
+		if (args != null && args.length > 0 && args[0] instanceof Visit) {
+			if (name.startsWith("save") || name.startsWith("end") || name.startsWith("void") || name.startsWith("unvoid") || name.startsWith("purge")) {
+				final Visit visit = (Visit) args[0];
+				final boolean purged = name.startsWith("purge");
+
+				AdviceUtils.afterCommit(new Runnable() {
+					@Override
+					public void run() {
+						if (purged) {
+							KenyaEmr.getInstance().getActiveVisitIndex().remove(visit);
+						}
+						else {
+							KenyaEmr.getInstance().getActiveVisitIndex().update(visit);
+						}
+
+						// Encounters may have been moved into or out of the visit
+						KenyaEmr.getInstance().getFilledFormsCache().invalidate(visit.getPatient());
+					}
+				});
+
+				// Visits may fulfill appointments
+				if (visit.getPatient() != null) {
+					try {
+						Context.addProxyPrivilege(PrivilegeConstants.EDIT_PATIENTS);
+						Context.getService(KenyaEmrService.class).updateAppointments(visit.getPatient());
+					}
+					finally {
+						Context.removeProxyPrivilege(PrivilegeConstants.EDIT_PATIENTS);
+					}
+				}
+			}
+		}
+		else if (name.startsWith("stopVisits")) {
+			AdviceUtils.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					KenyaEmr.getInstance().getActiveVisitIndex().refresh();
+				}
+			});
+		}
+	}
+}
@@ -13,19 +13,24 @@
  */
 package org.openmrs.module.kenyaemr.api;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
+import org.openmrs.Concept;
+import org.openmrs.Encounter;
 import org.openmrs.Location;
 import org.openmrs.LocationAttributeType;
 import org.openmrs.Patient;
 import org.openmrs.Visit;
+import org.openmrs.VisitType;
 import org.openmrs.annotation.Authorized;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.idgen.IdentifierSource;
+import org.openmrs.module.kenyaemr.appointment.Appointment;
 import org.openmrs.util.OpenmrsUtil;
 import org.openmrs.util.PrivilegeConstants;
 import org.springframework.transaction.annotation.Transactional;
@@ -84,6 +89,28 @@ public interface KenyaEmrService extends OpenmrsService {
 	 */
 	List<Visit> getVisitsByPatientAndDay(Patient patient, Date date);
 
+	/**
+	 * Gets the other non-voided visits of the patient of the given visit which overlap it. Visit dates are inclusive
+	 * and a visit without a stop date is considered ongoing.
+	 * @param visit the visit, which may not be saved yet
+	 * @return the overlapping visits, in order of start date
+	 * @should get visits which overlap the given visit
+	 */
+	@Transactional(readOnly = true)
+	List<Visit> getOverlappingVisits(Visit visit);
+
+	/**
+	 * Closes all active visits of the given types which started before the given stop date. Visits are selected with
+	 * a single query and updated in batches without being loaded.
+	 * @param visitTypes the visit types (null for all types)
+	 * @param stopDatetime the stop date for the visits
+	 * @return the number of visits closed
+	 * @should close active visits of the given types
+	 */
+	@Transactional
+	@Authorized( { PrivilegeConstants.EDIT_VISITS })
+	int closeActiveVisits(Collection<VisitType> visitTypes, Date stopDatetime);
+
 	/**
 	 * Gets the locations matching the specified arguments
 	 *
@@ -100,4 +127,215 @@ public interface KenyaEmrService extends OpenmrsService {
 	@Transactional(readOnly = true)
 	@Authorized( { PrivilegeConstants.VIEW_LOCATIONS })
 	List<Location> getLocations(String nameFragment, Location parent, Map<LocationAttributeType, Object> attributeValues, boolean includeRetired, Integer start, Integer length);
-}
\ No newline at end of file
+
+	/**
+	 * Gets the names of all non-voided patients, for building a search index
+	 * @return rows of patient id, given name, middle name, family name and second family name
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_PATIENTS })
+	List<Object[]> getPatientNamesForIndexing();
+
+	/**
+	 * Gets the identifiers of all non-voided patients, for building a search index
+	 * @return rows of patient id and identifier
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_PATIENTS })
+	List<Object[]> getPatientIdentifiersForIndexing();
+
+	/**
+	 * Gets the birthdates of all non-voided patients, for building a search index
+	 * @return rows of patient id and birthdate
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_PATIENTS })
+	List<Object[]> getPatientBirthdatesForIndexing();
+
+	/**
+	 * Gets all locations with their Master Facility List codes, for building a search index
+	 * @return rows of location id, name, retired, parent location id and MFL code, ordered by name
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_LOCATIONS })
+	List<Object[]> getLocationsForIndexing();
+
+	/**
+	 * Updates the appointments of the given patient so that they match the patient's return visit date obs, and
+	 * links each to the visit (if any) which started on its scheduled day. This is called when obs, encounters or
+	 * visits are saved, and callers add this privilege as a proxy privilege.
+	 * @param patient the patient
+	 */
+	@Transactional
+	@Authorized( { PrivilegeConstants.EDIT_PATIENTS })
+	void updateAppointments(Patient patient);
+
+	/**
+	 * Gets the appointments of the given patient
+	 * @param patient the patient
+	 * @return the appointments in the order they were recorded
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_PATIENTS, PrivilegeConstants.VIEW_OBS })
+	List<Appointment> getAppointments(Patient patient);
+
+	/**
+	 * Gets the appointments of the given patients
+	 * @param patientIds the patient ids
+	 * @param recordedOnOrBefore if non-null, only appointments recorded by obs on or before this date are returned
+	 * @return the appointments in the order they were recorded
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_PATIENTS, PrivilegeConstants.VIEW_OBS })
+	List<Appointment> getAppointments(Collection<Integer> patientIds, Date recordedOnOrBefore);
+
+	/**
+	 * Gets the appointments scheduled in the given range
+	 * @param from the start of the range (inclusive)
+	 * @param to the end of the range (inclusive)
+	 * @return the appointments in the order they were recorded
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_PATIENTS, PrivilegeConstants.VIEW_OBS })
+	List<Appointment> getAppointmentsBetween(Date from, Date to);
+
+	/**
+	 * Gets the appointments scheduled on the given day
+	 * @param date the day
+	 * @return the appointments in the order they were recorded
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_PATIENTS, PrivilegeConstants.VIEW_OBS })
+	List<Appointment> getAppointmentsOnDay(Date date);
+
+	/**
+	 * Gets the appointments scheduled in the month of the given date
+	 * @param date the date
+	 * @return the appointments in the order they were recorded
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_PATIENTS, PrivilegeConstants.VIEW_OBS })
+	List<Appointment> getAppointmentsInMonth(Date date);
+
+	/**
+	 * Gets the ids of non-voided patients with appointments scheduled in the given range
+	 * @param from the start of the range (inclusive)
+	 * @param to the end of the range (inclusive)
+	 * @return the patient ids
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_PATIENTS, PrivilegeConstants.VIEW_OBS })
+	List<Integer> getPatientIdsWithAppointmentsBetween(Date from, Date to);
+
+	/**
+	 * Gets the gender, birthdate and names of the given patients
+	 * @param patientIds the patient ids
+	 * @return rows of patient id, gender, birthdate, birthdate estimated, given name, middle name and family name, with preferred names first
+	 */
+	@Authorized( { PrivilegeConstants.VIEW_PATIENTS })
+	@Transactional(readOnly = true)
+	List<Object[]> getPatientDemographics(Collection<Integer> patientIds);
+
+	/**
+	 * Gets the non-voided identifiers of the given patients
+	 * @param patientIds the patient ids
+	 * @return rows of patient id, identifier type name and identifier, with preferred identifiers first
+	 */
+	@Authorized( { PrivilegeConstants.VIEW_PATIENTS })
+	@Transactional(readOnly = true)
+	List<Object[]> getPatientIdentifiers(Collection<Integer> patientIds);
+
+	/**
+	 * Gets the non-voided visits of the given patients which overlap the given range
+	 * @param patientIds the patient ids
+	 * @param from the start of the range
+	 * @param to the end of the range
+	 * @return rows of visit id, patient id, visit type name, start date and stop date, in order of start date
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_VISITS })
+	List<Object[]> getVisitsBetween(Collection<Integer> patientIds, Date from, Date to);
+
+	/**
+	 * Gets the non-voided encounters of the given visits
+	 * @param visitIds the visit ids
+	 * @return rows of visit id, form name and encounter type name, in order of encounter date
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_ENCOUNTERS })
+	List<Object[]> getVisitEncounters(Collection<Integer> visitIds);
+
+	/**
+	 * Gets the forms which have been filled for the given patient, grouped by form and visit
+	 * @param patient the patient
+	 * @return rows of form uuid, visit id (may be null) and latest encounter date
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_ENCOUNTERS })
+	List<Object[]> getFilledForms(Patient patient);
+
+	/**
+	 * Gets the persons with user and/or provider accounts matching the given query. User accounts match on username,
+	 * system id or person name, and provider accounts on identifier, name or person name. The daemon user and retired
+	 * providers are excluded.
+	 * @param query the query (may be null to match all accounts)
+	 * @param includeUsers whether to include persons with matching user accounts
+	 * @param includeProviders whether to include persons with matching provider accounts
+	 * @param start the index of the first result
+	 * @param length the maximum number of results (zero for no limit)
+	 * @return rows of person id, given name, middle name and family name, ordered by family, given and middle name
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_USERS, PrivilegeConstants.VIEW_PROVIDERS })
+	List<Object[]> getAccountPersons(String query, boolean includeUsers, boolean includeProviders, int start, int length);
+
+	/**
+	 * Gets the user accounts of the given persons which match the given query
+	 * @param personIds the person ids
+	 * @param query the query (may be null to match all accounts)
+	 * @return rows of person id and username
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_USERS, PrivilegeConstants.VIEW_PROVIDERS })
+	List<Object[]> getAccountUsers(Collection<Integer> personIds, String query);
+
+	/**
+	 * Gets the provider accounts of the given persons which match the given query
+	 * @param personIds the person ids
+	 * @param query the query (may be null to match all accounts)
+	 * @return rows of person id and provider identifier
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_USERS, PrivilegeConstants.VIEW_PROVIDERS })
+	List<Object[]> getAccountProviders(Collection<Integer> personIds, String query);
+
+	/**
+	 * Gets the patients with the given non-voided identifiers
+	 * @param identifiers the identifier values
+	 * @return rows of identifier and patient id
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_PATIENTS })
+	List<Object[]> getPatientIdsByIdentifiers(Collection<String> identifiers);
+
+	/**
+	 * Gets the non-voided form entry encounters of the given patients within the given range
+	 * @param patientIds the patient ids
+	 * @param from the start of the range
+	 * @param to the end of the range
+	 * @return rows of patient id, form id and encounter date
+	 */
+	@Transactional(readOnly = true)
+	@Authorized( { PrivilegeConstants.VIEW_ENCOUNTERS })
+	List<Object[]> getFormEncountersBetween(Collection<Integer> patientIds, Date from, Date to);
+
+	/**
+	 * Saves a batch of new encounters in a single transaction, along with any new visits they belong to
+	 * @param encounters the encounters
+	 * @return the number of visits created
+	 * @should save encounters and their new visits
+	 */
+	@Transactional
+	@Authorized( { PrivilegeConstants.ADD_ENCOUNTERS })
+	int saveEncounterBatch(List<Encounter> encounters);
+}
@@ -13,9 +13,17 @@
  */
 package org.openmrs.module.kenyaemr.api.db;
 
+import org.openmrs.Concept;
 import org.openmrs.Location;
 import org.openmrs.LocationAttributeType;
+import org.openmrs.Patient;
+import org.openmrs.User;
+import org.openmrs.Visit;
+import org.openmrs.VisitType;
+import org.openmrs.module.kenyaemr.appointment.Appointment;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -38,4 +46,186 @@ public interface KenyaEmrDAO {
 	 * @return the list of locations
 	 */
  	List<Location> getLocations(String nameFragment, Location parent, Map<LocationAttributeType, String> serializedAttributeValues, boolean includeRetired, Integer start, Integer length);
-}
\ No newline at end of file
+
+	/**
+	 * Gets the ids of active visits of the given types which started before the given date
+	 * @param visitTypes the visit types (null for all types)
+	 * @param startedBefore the date
+	 * @return the visit ids
+	 */
+	List<Integer> getActiveVisitIds(Collection<VisitType> visitTypes, Date startedBefore);
+
+	/**
+	 * Sets the stop date of the given visits with a single update statement
+	 * @param visitIds the visit ids
+	 * @param stopDatetime the stop date
+	 * @param changedBy the user making the change
+	 * @return the number of visits updated
+	 */
+	int stopVisits(Collection<Integer> visitIds, Date stopDatetime, User changedBy);
+
+	/**
+	 * Gets the non-voided visits of the given patient which overlap the given period. Visit dates are inclusive and a
+	 * visit without a stop date is considered ongoing.
+	 * @param patient the patient
+	 * @param start the start of the period
+	 * @param stop the end of the period (null if ongoing)
+	 * @param excludeVisitId the id of a visit to ignore, e.g. the one being checked (may be null)
+	 * @return the visits, in order of start date
+	 */
+	List<Visit> getOverlappingVisits(Patient patient, Date start, Date stop, Integer excludeVisitId);
+
+	/**
+	 * Gets the non-voided visits of the given patient which started on any of the given days
+	 * @param patient the patient
+	 * @param days the days (time of day is ignored)
+	 * @return the visits, in order of start date
+	 */
+	List<Visit> getVisitsStartedOnDays(Patient patient, Collection<Date> days);
+
+	/**
+	 * Gets the names of all non-voided patients
+	 * @return rows of patient id, given name, middle name, family name and second family name
+	 */
+	List<Object[]> getPatientNamesForIndexing();
+
+	/**
+	 * Gets the identifiers of all non-voided patients
+	 * @return rows of patient id and identifier
+	 */
+	List<Object[]> getPatientIdentifiersForIndexing();
+
+	/**
+	 * Gets the birthdates of all non-voided patients
+	 * @return rows of patient id and birthdate
+	 */
+	List<Object[]> getPatientBirthdatesForIndexing();
+
+	/**
+	 * Gets all locations with their non-voided values of the given attribute type
+	 * @param attributeType the attribute type
+	 * @return rows of location id, name, retired, parent location id and attribute value reference, ordered by name
+	 */
+	List<Object[]> getLocationsForIndexing(LocationAttributeType attributeType);
+
+	/**
+	 * Gets the non-voided datetime obs of the given patient and question
+	 * @param patient the patient
+	 * @param question the question concept
+	 * @return rows of obs id and datetime value
+	 */
+	List<Object[]> getObsDatetimeValues(Patient patient, Concept question);
+
+	/**
+	 * Saves the given appointment
+	 * @param appointment the appointment
+	 * @return the appointment
+	 */
+	Appointment saveAppointment(Appointment appointment);
+
+	/**
+	 * Deletes the given appointment
+	 * @param appointment the appointment
+	 */
+	void deleteAppointment(Appointment appointment);
+
+	/**
+	 * Gets the appointments matching the given arguments
+	 * @param patientIds the patient ids (may be null)
+	 * @param from the start of the scheduled date range (may be null)
+	 * @param to the end of the scheduled date range (may be null)
+	 * @param recordedOnOrBefore the latest obs date (may be null)
+	 * @return the appointments in the order they were recorded
+	 */
+	List<Appointment> getAppointments(Collection<Integer> patientIds, Date from, Date to, Date recordedOnOrBefore);
+
+	/**
+	 * Gets the ids of non-voided patients with appointments scheduled in the given range
+	 * @param from the start of the range (inclusive)
+	 * @param to the end of the range (inclusive)
+	 * @return the patient ids
+	 */
+	List<Integer> getPatientIdsWithAppointmentsBetween(Date from, Date to);
+
+	/**
+	 * Gets the gender, birthdate and names of the given patients
+	 * @param patientIds the patient ids
+	 * @return rows of patient id, gender, birthdate, birthdate estimated, given name, middle name and family name, with preferred names first
+	 */
+	List<Object[]> getPatientDemographics(Collection<Integer> patientIds);
+
+	/**
+	 * Gets the non-voided identifiers of the given patients
+	 * @param patientIds the patient ids
+	 * @return rows of patient id, identifier type name and identifier, with preferred identifiers first
+	 */
+	List<Object[]> getPatientIdentifiers(Collection<Integer> patientIds);
+
+	/**
+	 * Gets the non-voided visits of the given patients which overlap the given range
+	 * @param patientIds the patient ids
+	 * @param from the start of the range
+	 * @param to the end of the range
+	 * @return rows of visit id, patient id, visit type name, start date and stop date, in order of start date
+	 */
+	List<Object[]> getVisitsBetween(Collection<Integer> patientIds, Date from, Date to);
+
+	/**
+	 * Gets the non-voided encounters of the given visits
+	 * @param visitIds the visit ids
+	 * @return rows of visit id, form name and encounter type name, in order of encounter date
+	 */
+	List<Object[]> getVisitEncounters(Collection<Integer> visitIds);
+
+	/**
+	 * Gets the forms which have been filled for the given patient, grouped by form and visit
+	 * @param patient the patient
+	 * @return rows of form uuid, visit id (may be null) and latest encounter date
+	 */
+	List<Object[]> getFilledForms(Patient patient);
+
+	/**
+	 * Gets the persons with user and/or provider accounts matching the given query. User accounts match on username,
+	 * system id or person name, and provider accounts on identifier, name or person name. The daemon user and retired
+	 * providers are excluded.
+	 * @param query the query (may be null to match all accounts)
+	 * @param includeUsers whether to include persons with matching user accounts
+	 * @param includeProviders whether to include persons with matching provider accounts
+	 * @param start the index of the first result
+	 * @param length the maximum number of results (zero for no limit)
+	 * @return rows of person id, given name, middle name and family name, ordered by family, given and middle name
+	 */
+	List<Object[]> getAccountPersons(String query, boolean includeUsers, boolean includeProviders, int start, int length);
+
+	/**
+	 * Gets the user accounts of the given persons which match the given query
+	 * @param personIds the person ids
+	 * @param query the query (may be null to match all accounts)
+	 * @return rows of person id and username
+	 */
+	List<Object[]> getAccountUsers(Collection<Integer> personIds, String query);
+
+	/**
+	 * Gets the provider accounts of the given persons which match the given query
+	 * @param personIds the person ids
+	 * @param query the query (may be null to match all accounts)
+	 * @return rows of person id and provider identifier
+	 */
+	List<Object[]> getAccountProviders(Collection<Integer> personIds, String query);
+
+	/**
+	 * Gets the patients with the given non-voided identifiers
+	 * @param identifiers the identifier values
+	 * @return rows of identifier and patient id
+	 */
+	List<Object[]> getPatientIdsByIdentifiers(Collection<String> identifiers);
+
+	/**
+	 * Gets the non-voided form entry encounters of the given patients within the given range
+	 * @param patientIds the patient ids
+	 * @param from the start of the range
+	 * @param to the end of the range
+	 * @return rows of patient id, form id and encounter date
+	 */
+	List<Object[]> getFormEncountersBetween(Collection<Integer> patientIds, Date from, Date to);
+}
@@ -16,14 +16,27 @@ package org.openmrs.module.kenyaemr.api.db.hibernate;
 
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.Criteria;
+import org.hibernate.FlushMode;
+import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.*;
+import org.openmrs.Concept;
 import org.openmrs.Location;
 import org.openmrs.LocationAttributeType;
+import org.openmrs.Patient;
+import org.openmrs.User;
+import org.openmrs.Visit;
+import org.openmrs.VisitType;
 import org.openmrs.attribute.AttributeType;
+import org.openmrs.module.kenyaemr.appointment.Appointment;
 import org.openmrs.module.kenyaemr.api.db.KenyaEmrDAO;
+import org.openmrs.util.OpenmrsUtil;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -84,6 +97,314 @@ public class HibernateKenyaEmrDAO implements KenyaEmrDAO {
 		return criteria.list();
 	}
 
+	/**
+	 * @see KenyaEmrDAO#getActiveVisitIds(java.util.Collection, java.util.Date)
+	 */
+	@Override
+	public List<Integer> getActiveVisitIds(Collection<VisitType> visitTypes, Date startedBefore) {
+		Criteria criteria = getCurrentSession().createCriteria(Visit.class);
+		criteria.add(Restrictions.isNull("stopDatetime"));
+		criteria.add(Restrictions.le("startDatetime", startedBefore));
+		criteria.add(Restrictions.eq("voided", false));
+
+		if (visitTypes != null) {
+			if (visitTypes.isEmpty()) {
+				return new ArrayList<Integer>();
+			}
+			criteria.add(Restrictions.in("visitType", visitTypes));
+		}
+
+		criteria.setProjection(Projections.id());
+		criteria.addOrder(Order.asc("visitId"));
+
+		return criteria.list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#stopVisits(java.util.Collection, java.util.Date, org.openmrs.User)
+	 */
+	@Override
+	public int stopVisits(Collection<Integer> visitIds, Date stopDatetime, User changedBy) {
+		return getCurrentSession().createQuery(
+				"update Visit set stopDatetime = :stopDatetime, changedBy = :changedBy, dateChanged = :dateChanged " +
+				"where visitId in (:visitIds) and stopDatetime is null"
+		)
+				.setTimestamp("stopDatetime", stopDatetime)
+				.setParameter("changedBy", changedBy)
+				.setTimestamp("dateChanged", new Date())
+				.setParameterList("visitIds", visitIds)
+				.executeUpdate();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getOverlappingVisits(org.openmrs.Patient, java.util.Date, java.util.Date, Integer)
+	 */
+	@Override
+	public List<Visit> getOverlappingVisits(Patient patient, Date start, Date stop, Integer excludeVisitId) {
+		StringBuilder hql = new StringBuilder("from Visit v where v.patient.patientId = :patientId and v.voided = false ");
+		hql.append("and (v.stopDatetime is null or v.stopDatetime >= :start) ");
+		if (stop != null) {
+			hql.append("and v.startDatetime <= :stop ");
+		}
+		if (excludeVisitId != null) {
+			hql.append("and v.visitId <> :excludeVisitId ");
+		}
+		hql.append("order by v.startDatetime");
+
+		Query query = getCurrentSession().createQuery(hql.toString());
+		if (excludeVisitId != null) {
+			// Don't flush as the visit being checked may have unvalidated changes
+			query.setFlushMode(FlushMode.MANUAL);
+		}
+		query.setInteger("patientId", patient.getPatientId());
+		query.setTimestamp("start", start);
+		if (stop != null) {
+			query.setTimestamp("stop", stop);
+		}
+		if (excludeVisitId != null) {
+			query.setInteger("excludeVisitId", excludeVisitId);
+		}
+		return query.list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getVisitsStartedOnDays(org.openmrs.Patient, java.util.Collection)
+	 */
+	@Override
+	public List<Visit> getVisitsStartedOnDays(Patient patient, Collection<Date> days) {
+		if (days.isEmpty()) {
+			return new ArrayList<Visit>();
+		}
+
+		List<Date> distinctDays = new ArrayList<Date>();
+		for (Date day : days) {
+			Date start = OpenmrsUtil.firstSecondOfDay(day);
+			if (!distinctDays.contains(start)) {
+				distinctDays.add(start);
+			}
+		}
+
+		StringBuilder hql = new StringBuilder("from Visit v where v.patient.patientId = :patientId and v.voided = false and (");
+		for (int d = 0; d < distinctDays.size(); d++) {
+			if (d > 0) {
+				hql.append(" or ");
+			}
+			hql.append("(v.startDatetime >= :from" + d + " and v.startDatetime <= :to" + d + ")");
+		}
+		hql.append(") order by v.startDatetime");
+
+		Query query = getCurrentSession().createQuery(hql.toString());
+		query.setInteger("patientId", patient.getPatientId());
+		for (int d = 0; d < distinctDays.size(); d++) {
+			query.setTimestamp("from" + d, distinctDays.get(d));
+			query.setTimestamp("to" + d, OpenmrsUtil.getLastMomentOfDay(distinctDays.get(d)));
+		}
+		return query.list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getPatientNamesForIndexing()
+	 */
+	@Override
+	public List<Object[]> getPatientNamesForIndexing() {
+		return getCurrentSession().createQuery(
+				"select pn.person.personId, pn.givenName, pn.middleName, pn.familyName, pn.familyName2 " +
+				"from PersonName pn, Patient p " +
+				"where pn.person.personId = p.patientId and pn.voided = false and p.voided = false"
+		).list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getPatientIdentifiersForIndexing()
+	 */
+	@Override
+	public List<Object[]> getPatientIdentifiersForIndexing() {
+		return getCurrentSession().createQuery(
+				"select pi.patient.patientId, pi.identifier " +
+				"from PatientIdentifier pi " +
+				"where pi.voided = false and pi.patient.voided = false"
+		).list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getPatientBirthdatesForIndexing()
+	 */
+	@Override
+	public List<Object[]> getPatientBirthdatesForIndexing() {
+		return getCurrentSession().createQuery(
+				"select p.patientId, p.birthdate from Patient p where p.voided = false"
+		).list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getLocationsForIndexing(org.openmrs.LocationAttributeType)
+	 */
+	@Override
+	public List<Object[]> getLocationsForIndexing(LocationAttributeType attributeType) {
+		return getCurrentSession().createQuery(
+				"select l.locationId, l.name, l.retired, pl.locationId, a.valueReference " +
+				"from Location l left join l.parentLocation pl " +
+				"left join l.attributes a with a.attributeType = :attributeType and a.voided = false " +
+				"order by l.name, l.locationId"
+		)
+				.setParameter("attributeType", attributeType)
+				.list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getObsDatetimeValues(org.openmrs.Patient, org.openmrs.Concept)
+	 */
+	@Override
+	public List<Object[]> getObsDatetimeValues(Patient patient, Concept question) {
+		return getCurrentSession().createQuery(
+				"select o.obsId, o.valueDatetime from Obs o " +
+				"where o.person.personId = :personId and o.concept = :question and o.valueDatetime is not null and o.voided = false"
+		)
+				.setInteger("personId", patient.getPatientId())
+				.setParameter("question", question)
+				.list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#saveAppointment(org.openmrs.module.kenyaemr.appointment.Appointment)
+	 */
+	@Override
+	public Appointment saveAppointment(Appointment appointment) {
+		getCurrentSession().saveOrUpdate(appointment);
+		return appointment;
+	}
+
+	/**
+	 * @see KenyaEmrDAO#deleteAppointment(org.openmrs.module.kenyaemr.appointment.Appointment)
+	 */
+	@Override
+	public void deleteAppointment(Appointment appointment) {
+		getCurrentSession().delete(appointment);
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getAppointments(java.util.Collection, java.util.Date, java.util.Date, java.util.Date)
+	 */
+	@Override
+	public List<Appointment> getAppointments(Collection<Integer> patientIds, Date from, Date to, Date recordedOnOrBefore) {
+		Criteria criteria = getCurrentSession().createCriteria(Appointment.class);
+		criteria.createAlias("obs", "obs");
+
+		if (patientIds != null) {
+			if (patientIds.isEmpty()) {
+				return new ArrayList<Appointment>();
+			}
+			criteria.add(Restrictions.in("patient.patientId", patientIds));
+		}
+		if (from != null) {
+			criteria.add(Restrictions.ge("scheduledDate", from));
+		}
+		if (to != null) {
+			criteria.add(Restrictions.le("scheduledDate", to));
+		}
+		if (recordedOnOrBefore != null) {
+			criteria.add(Restrictions.le("obs.obsDatetime", recordedOnOrBefore));
+		}
+
+		criteria.addOrder(Order.asc("obs.obsDatetime"));
+		criteria.addOrder(Order.asc("appointmentId"));
+
+		return criteria.list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getPatientIdsWithAppointmentsBetween(java.util.Date, java.util.Date)
+	 */
+	@Override
+	public List<Integer> getPatientIdsWithAppointmentsBetween(Date from, Date to) {
+		return getCurrentSession().createQuery(
+				"select distinct a.patient.patientId from Appointment a " +
+				"where a.scheduledDate >= :from and a.scheduledDate <= :to and a.patient.voided = false"
+		)
+				.setTimestamp("from", from)
+				.setTimestamp("to", to)
+				.list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getPatientDemographics(java.util.Collection)
+	 */
+	@Override
+	public List<Object[]> getPatientDemographics(Collection<Integer> patientIds) {
+		if (patientIds.isEmpty()) {
+			return new ArrayList<Object[]>();
+		}
+
+		return getCurrentSession().createQuery(
+				"select p.patientId, p.gender, p.birthdate, p.birthdateEstimated, pn.givenName, pn.middleName, pn.familyName " +
+				"from PersonName pn, Patient p " +
+				"where pn.person.personId = p.patientId and p.patientId in (:patientIds) and pn.voided = false " +
+				"order by pn.preferred desc, pn.personNameId"
+		)
+				.setParameterList("patientIds", patientIds)
+				.list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getPatientIdentifiers(java.util.Collection)
+	 */
+	@Override
+	public List<Object[]> getPatientIdentifiers(Collection<Integer> patientIds) {
+		if (patientIds.isEmpty()) {
+			return new ArrayList<Object[]>();
+		}
+
+		return getCurrentSession().createQuery(
+				"select pi.patient.patientId, pi.identifierType.name, pi.identifier " +
+				"from PatientIdentifier pi " +
+				"where pi.patient.patientId in (:patientIds) and pi.voided = false " +
+				"order by pi.preferred desc, pi.patientIdentifierId"
+		)
+				.setParameterList("patientIds", patientIds)
+				.list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getVisitsBetween(java.util.Collection, java.util.Date, java.util.Date)
+	 */
+	@Override
+	public List<Object[]> getVisitsBetween(Collection<Integer> patientIds, Date from, Date to) {
+		if (patientIds.isEmpty()) {
+			return new ArrayList<Object[]>();
+		}
+
+		return getCurrentSession().createQuery(
+				"select v.visitId, v.patient.patientId, v.visitType.name, v.startDatetime, v.stopDatetime " +
+				"from Visit v " +
+				"where v.patient.patientId in (:patientIds) and v.voided = false " +
+				"and v.startDatetime <= :to and (v.stopDatetime is null or v.stopDatetime >= :from) " +
+				"order by v.startDatetime"
+		)
+				.setParameterList("patientIds", patientIds)
+				.setTimestamp("from", from)
+				.setTimestamp("to", to)
+				.list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getVisitEncounters(java.util.Collection)
+	 */
+	@Override
+	public List<Object[]> getVisitEncounters(Collection<Integer> visitIds) {
+		if (visitIds.isEmpty()) {
+			return new ArrayList<Object[]>();
+		}
+
+		return getCurrentSession().createQuery(
+				"select e.visit.visitId, f.name, et.name " +
+				"from Encounter e join e.encounterType et left join e.form f " +
+				"where e.visit.visitId in (:visitIds) and e.voided = false " +
+				"order by e.encounterDatetime"
+		)
+				.setParameterList("visitIds", visitIds)
+				.list();
+	}
+
 	/**
 	 * Adds attribute value criteria to the given criteria query
 	 *
@@ -110,4 +431,202 @@ public class HibernateKenyaEmrDAO implements KenyaEmrDAO {
 
 		criteria.add(conjunction);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see KenyaEmrDAO#getFilledForms(org.openmrs.Patient)
+	 */
+	@Override
+	public List<Object[]> getFilledForms(Patient patient) {
+		return getCurrentSession().createQuery(
+				"select f.uuid, v.visitId, max(e.encounterDatetime) " +
+				"from Encounter e join e.form f left join e.visit v " +
+				"where e.patient.patientId = :patientId and e.voided = false " +
+				"group by f.uuid, v.visitId"
+		)
+				.setInteger("patientId", patient.getPatientId())
+				.list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getAccountPersons(String, boolean, boolean, int, int)
+	 */
+	@Override
+	public List<Object[]> getAccountPersons(String query, boolean includeUsers, boolean includeProviders, int start, int length) {
+		if (!includeUsers && !includeProviders) {
+			return new ArrayList<Object[]>();
+		}
+
+		String[] words = splitAccountQuery(query);
+		List<String> accountClauses = new ArrayList<String>();
+		if (includeUsers) {
+			accountClauses.add("exists (select u.userId from User u where u.person = pn.person and " + userMatchClause("u", words) + ")");
+		}
+		if (includeProviders) {
+			accountClauses.add("exists (select pr.providerId from Provider pr where pr.person = pn.person and " + providerMatchClause("pr", words) + ")");
+		}
+
+		// Each person is listed once, by their preferred name or else their first name
+		Query hql = getCurrentSession().createQuery(
+				"select pn.person.personId, pn.givenName, pn.middleName, pn.familyName " +
+				"from PersonName pn " +
+				"where pn.voided = false " +
+				"and not exists (select n.personNameId from PersonName n where n.person = pn.person and n.voided = false " +
+				"and ((n.preferred = true and pn.preferred = false) or (n.preferred = pn.preferred and n.personNameId < pn.personNameId))) " +
+				"and (" + StringUtils.join(accountClauses, " or ") + ") " +
+				"order by pn.familyName, pn.givenName, pn.middleName, pn.person.personId"
+		);
+		setAccountQueryWords(hql, words);
+
+		hql.setFirstResult(start);
+		if (length > 0) {
+			hql.setMaxResults(length);
+		}
+		return hql.list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getAccountUsers(java.util.Collection, String)
+	 */
+	@Override
+	public List<Object[]> getAccountUsers(Collection<Integer> personIds, String query) {
+		if (personIds.isEmpty()) {
+			return new ArrayList<Object[]>();
+		}
+
+		String[] words = splitAccountQuery(query);
+		Query hql = getCurrentSession().createQuery(
+				"select u.person.personId, u.username from User u " +
+				"where u.person.personId in (:personIds) and " + userMatchClause("u", words) + " " +
+				"order by u.userId"
+		);
+		setAccountQueryWords(hql, words);
+
+		return hql.setParameterList("personIds", personIds).list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getAccountProviders(java.util.Collection, String)
+	 */
+	@Override
+	public List<Object[]> getAccountProviders(Collection<Integer> personIds, String query) {
+		if (personIds.isEmpty()) {
+			return new ArrayList<Object[]>();
+		}
+
+		String[] words = splitAccountQuery(query);
+		Query hql = getCurrentSession().createQuery(
+				"select pr.person.personId, pr.identifier from Provider pr " +
+				"where pr.person.personId in (:personIds) and " + providerMatchClause("pr", words) + " " +
+				"order by pr.providerId"
+		);
+		setAccountQueryWords(hql, words);
+
+		return hql.setParameterList("personIds", personIds).list();
+	}
+
+	/**
+	 * Splits an account search query into lower case words
+	 * @param query the query
+	 * @return the words
+	 */
+	private static String[] splitAccountQuery(String query) {
+		return StringUtils.isBlank(query) ? new String[0] : query.trim().toLowerCase().split("\\s+");
+	}
+
+	/**
+	 * Builds the HQL condition for a user account matching all query words
+	 * @param alias the user alias
+	 * @param words the query words
+	 * @return the condition
+	 */
+	private static String userMatchClause(String alias, String[] words) {
+		StringBuilder clause = new StringBuilder(alias + ".username <> 'daemon'");
+		for (int w = 0; w < words.length; w++) {
+			clause.append(" and (lower(" + alias + ".username) like :prefix" + w + " or lower(" + alias + ".systemId) like :prefix" + w);
+			clause.append(" or " + personNameMatchClause(alias, w) + ")");
+		}
+		return clause.toString();
+	}
+
+	/**
+	 * Builds the HQL condition for a provider account matching all query words
+	 * @param alias the provider alias
+	 * @param words the query words
+	 * @return the condition
+	 */
+	private static String providerMatchClause(String alias, String[] words) {
+		StringBuilder clause = new StringBuilder(alias + ".retired = false and " + alias + ".person is not null");
+		for (int w = 0; w < words.length; w++) {
+			clause.append(" and (lower(" + alias + ".identifier) like :infix" + w + " or lower(" + alias + ".name) like :infix" + w);
+			clause.append(" or " + personNameMatchClause(alias, w) + ")");
+		}
+		return clause.toString();
+	}
+
+	/**
+	 * Builds the HQL condition for an account's person having a name part which starts with a query word
+	 * @param alias the account alias
+	 * @param w the index of the word
+	 * @return the condition
+	 */
+	private static String personNameMatchClause(String alias, int w) {
+		return "exists (select an.personNameId from PersonName an where an.person = " + alias + ".person and an.voided = false " +
+				"and (lower(an.givenName) like :prefix" + w + " or lower(an.middleName) like :prefix" + w + " or lower(an.familyName) like :prefix" + w + "))";
+	}
+
+	/**
+	 * Sets the word parameters used by the account match conditions
+	 * @param hql the query
+	 * @param words the query words
+	 */
+	private static void setAccountQueryWords(Query hql, String[] words) {
+		List<String> named = Arrays.asList(hql.getNamedParameters());
+		for (int w = 0; w < words.length; w++) {
+			if (named.contains("prefix" + w)) {
+				hql.setString("prefix" + w, words[w] + "%");
+			}
+			if (named.contains("infix" + w)) {
+				hql.setString("infix" + w, "%" + words[w] + "%");
+			}
+		}
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getPatientIdsByIdentifiers(java.util.Collection)
+	 */
+	@Override
+	public List<Object[]> getPatientIdsByIdentifiers(Collection<String> identifiers) {
+		if (identifiers.isEmpty()) {
+			return new ArrayList<Object[]>();
+		}
+
+		return getCurrentSession().createQuery(
+				"select pi.identifier, pi.patient.patientId " +
+				"from PatientIdentifier pi " +
+				"where pi.identifier in (:identifiers) and pi.voided = false and pi.patient.voided = false"
+		)
+				.setParameterList("identifiers", identifiers)
+				.list();
+	}
+
+	/**
+	 * @see KenyaEmrDAO#getFormEncountersBetween(java.util.Collection, java.util.Date, java.util.Date)
+	 */
+	@Override
+	public List<Object[]> getFormEncountersBetween(Collection<Integer> patientIds, Date from, Date to) {
+		if (patientIds.isEmpty()) {
+			return new ArrayList<Object[]>();
+		}
+
+		return getCurrentSession().createQuery(
+				"select e.patient.patientId, e.form.formId, e.encounterDatetime " +
+				"from Encounter e " +
+				"where e.patient.patientId in (:patientIds) and e.voided = false and e.form is not null " +
+				"and e.encounterDatetime between :from and :to"
+		)
+				.setParameterList("patientIds", patientIds)
+				.setTimestamp("from", from)
+				.setTimestamp("to", to)
+				.list();
+	}
+}
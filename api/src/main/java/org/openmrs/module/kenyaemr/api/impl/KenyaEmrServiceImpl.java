@@ -16,18 +16,24 @@ package org.openmrs.module.kenyaemr.api.impl;
 
 import java.util.*;
 
+import org.apache.commons.lang.time.DateUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.*;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.customdatatype.CustomDatatypeUtil;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.FacilityConfiguration;
 import org.openmrs.module.kenyaemr.KenyaEmrConstants;
 import org.openmrs.module.kenyaemr.Metadata;
 import org.openmrs.module.kenyaemr.api.ConfigurationRequiredException;
+import org.openmrs.module.kenyaemr.appointment.Appointment;
 import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.api.db.KenyaEmrDAO;
 import org.openmrs.module.kenyaemr.identifier.IdentifierManager;
+import org.openmrs.module.kenyaemr.search.LocationSearchIndex;
+import org.openmrs.module.kenyaemr.visit.ActiveVisitIndex;
 import org.openmrs.util.OpenmrsUtil;
 import org.openmrs.util.PrivilegeConstants;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -39,9 +45,20 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 
 	protected static final Log log = LogFactory.getLog(KenyaEmrServiceImpl.class);
 
+	private static final int VISIT_CLOSE_BATCH_SIZE = 100;
+
 	@Autowired
 	private IdentifierManager identifierManager;
 
+	@Autowired
+	private FacilityConfiguration facilityConfiguration;
+
+	@Autowired
+	private ActiveVisitIndex activeVisitIndex;
+
+	@Autowired
+	private LocationSearchIndex locationSearchIndex;
+
 	private boolean hasBeenConfigured = false;
 
 	private KenyaEmrDAO dao;
@@ -92,6 +109,8 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 		GlobalProperty gp = Context.getAdministrationService().getGlobalPropertyObject(KenyaEmrConstants.GP_DEFAULT_LOCATION);
 		gp.setValue(location);
 		Context.getAdministrationService().saveGlobalProperty(gp);
+
+		facilityConfiguration.invalidate();
 	}
 	
 	/**
@@ -99,22 +118,14 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 	 */
 	@Override
 	public Location getDefaultLocation() {
+		Integer locationId = facilityConfiguration.getDefaultLocationId();
 		try {
 			Context.addProxyPrivilege(PrivilegeConstants.VIEW_LOCATIONS);
-			Context.addProxyPrivilege(PrivilegeConstants.VIEW_GLOBAL_PROPERTIES);
 
-			GlobalProperty gp = Context.getAdministrationService().getGlobalPropertyObject(KenyaEmrConstants.GP_DEFAULT_LOCATION);
-			if (gp != null) {
-				Location ret = (Location) gp.getValue();
-				if (ret != null) {
-					return ret;
-				}
-			}
-			throw new ConfigurationRequiredException("Global Property: " + KenyaEmrConstants.GP_DEFAULT_LOCATION);
+			return Context.getLocationService().getLocation(locationId);
 		}
 		finally {
 			Context.removeProxyPrivilege(PrivilegeConstants.VIEW_LOCATIONS);
-			Context.removeProxyPrivilege(PrivilegeConstants.VIEW_GLOBAL_PROPERTIES);
 		}
 	}
 	
@@ -123,20 +134,7 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 	 */
 	@Override
 	public String getDefaultLocationMflCode() {
-		try {
-			Context.addProxyPrivilege(PrivilegeConstants.VIEW_LOCATION_ATTRIBUTE_TYPES);
-
-			LocationAttributeType mflCodeAttrType = Metadata.getLocationAttributeType(Metadata.MASTER_FACILITY_CODE_LOCATION_ATTRIBUTE_TYPE);
-			Location location = getDefaultLocation();
-			List<LocationAttribute> list = location.getActiveAttributes(mflCodeAttrType);
-			if (list.size() == 0) {
-				throw new ConfigurationRequiredException("Default location (" + location.getName() + ") does not have an " + mflCodeAttrType.getName());
-			}
-			return (String) list.get(0).getValue();
-		}
-		finally {
-			Context.removeProxyPrivilege(PrivilegeConstants.VIEW_LOCATION_ATTRIBUTE_TYPES);
-		}
+		return facilityConfiguration.getDefaultLocationMflCode();
 	}
 
 	/**
@@ -144,13 +142,19 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 	 */
 	@Override
 	public Location getLocationByMflCode(String mflCode) {
-		LocationAttributeType mflCodeAttrType = Metadata.getLocationAttributeType(Metadata.MASTER_FACILITY_CODE_LOCATION_ATTRIBUTE_TYPE);
-		Map<LocationAttributeType, Object> attrVals = new HashMap<LocationAttributeType, Object>();
-		attrVals.put(mflCodeAttrType, mflCode);
+		Integer locationId = locationSearchIndex.getLocationIdByMflCode(mflCode);
+		if (locationId == null) {
+			return null;
+		}
 
-		List<Location> locations = getLocations(null, null, attrVals, false, null, null);
+		try {
+			Context.addProxyPrivilege(PrivilegeConstants.VIEW_LOCATIONS);
 
-		return locations.size() > 0 ? locations.get(0) : null;
+			return Context.getLocationService().getLocation(locationId);
+		}
+		finally {
+			Context.removeProxyPrivilege(PrivilegeConstants.VIEW_LOCATIONS);
+		}
 	}
 
 	/**
@@ -162,9 +166,49 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 		Date endOfDay = OpenmrsUtil.getLastMomentOfDay(date);
 
 		// look for visits that started before endOfDay and ended after startOfDay
-		List<Visit> visits = Context.getVisitService().getVisits(null, Collections.singleton(patient), null, null, null, endOfDay, startOfDay, null, null, true, false);
-		Collections.reverse(visits); // We want by date asc
-		return visits;
+		return dao.getOverlappingVisits(patient, startOfDay, endOfDay, null);
+	}
+
+	/**
+	 * @see KenyaEmrService#getOverlappingVisits(org.openmrs.Visit)
+	 */
+	@Override
+	public List<Visit> getOverlappingVisits(Visit visit) {
+		if (visit.getPatient() == null || visit.getStartDatetime() == null) {
+			return new ArrayList<Visit>();
+		}
+		return dao.getOverlappingVisits(visit.getPatient(), visit.getStartDatetime(), visit.getStopDatetime(), visit.getVisitId());
+	}
+
+	/**
+	 * @see KenyaEmrService#closeActiveVisits(java.util.Collection, java.util.Date)
+	 */
+	@Override
+	public int closeActiveVisits(Collection<VisitType> visitTypes, Date stopDatetime) {
+		List<Integer> visitIds = dao.getActiveVisitIds(visitTypes, stopDatetime);
+		if (visitIds.isEmpty()) {
+			return 0;
+		}
+
+		// Make sure pending changes to visits are written before they're updated underneath the session
+		Context.flushSession();
+
+		User changedBy = Context.getAuthenticatedUser();
+		int closed = 0;
+
+		for (int from = 0; from < visitIds.size(); from += VISIT_CLOSE_BATCH_SIZE) {
+			List<Integer> batch = visitIds.subList(from, Math.min(from + VISIT_CLOSE_BATCH_SIZE, visitIds.size()));
+			closed += dao.stopVisits(batch, stopDatetime, changedBy);
+
+			log.info("Closed " + closed + " of " + visitIds.size() + " active visits");
+		}
+
+		// Loaded visits are now stale
+		Context.clearSession();
+
+		activeVisitIndex.refresh();
+
+		return closed;
 	}
 
 	/**
@@ -178,4 +222,251 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 
 		return dao.getLocations(nameFragment, parent, serializedAttributeValues, includeRetired, start, length);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see KenyaEmrService#getPatientNamesForIndexing()
+	 */
+	@Override
+	public List<Object[]> getPatientNamesForIndexing() {
+		return dao.getPatientNamesForIndexing();
+	}
+
+	/**
+	 * @see KenyaEmrService#getPatientIdentifiersForIndexing()
+	 */
+	@Override
+	public List<Object[]> getPatientIdentifiersForIndexing() {
+		return dao.getPatientIdentifiersForIndexing();
+	}
+
+	/**
+	 * @see KenyaEmrService#getPatientBirthdatesForIndexing()
+	 */
+	@Override
+	public List<Object[]> getPatientBirthdatesForIndexing() {
+		return dao.getPatientBirthdatesForIndexing();
+	}
+
+	/**
+	 * @see KenyaEmrService#getLocationsForIndexing()
+	 */
+	@Override
+	public List<Object[]> getLocationsForIndexing() {
+		LocationAttributeType mflCodeAttrType = Metadata.getLocationAttributeType(Metadata.MASTER_FACILITY_CODE_LOCATION_ATTRIBUTE_TYPE);
+		return dao.getLocationsForIndexing(mflCodeAttrType);
+	}
+
+	/**
+	 * @see KenyaEmrService#updateAppointments(org.openmrs.Patient)
+	 */
+	@Override
+	public void updateAppointments(Patient patient) {
+		Concept returnVisitDate = Dictionary.getConcept(Dictionary.RETURN_VISIT_DATE);
+		List<Object[]> rows = dao.getObsDatetimeValues(patient, returnVisitDate);
+
+		// Only load the visits which started on a scheduled day rather than the patient's whole history
+		List<Date> scheduledDates = new ArrayList<Date>();
+		for (Object[] row : rows) {
+			scheduledDates.add((Date) row[1]);
+		}
+		List<Visit> visits = dao.getVisitsStartedOnDays(patient, scheduledDates);
+
+		Map<Integer, Appointment> existing = new HashMap<Integer, Appointment>();
+		for (Appointment appointment : dao.getAppointments(Collections.singleton(patient.getPatientId()), null, null, null)) {
+			existing.put(appointment.getObs().getObsId(), appointment);
+		}
+
+		for (Object[] row : rows) {
+			Integer obsId = (Integer) row[0];
+			Date scheduledDate = (Date) row[1];
+
+			Appointment appointment = existing.remove(obsId);
+			if (appointment == null) {
+				appointment = new Appointment(patient, Context.getObsService().getObs(obsId), scheduledDate);
+			}
+			else {
+				appointment.setScheduledDate(scheduledDate);
+			}
+
+			appointment.setFulfilledBy(getFirstVisitStartedOn(visits, scheduledDate));
+			dao.saveAppointment(appointment);
+		}
+
+		// Remaining appointments no longer have a valid return visit date obs
+		for (Appointment appointment : existing.values()) {
+			dao.deleteAppointment(appointment);
+		}
+	}
+
+	/**
+	 * @see KenyaEmrService#getAppointments(org.openmrs.Patient)
+	 */
+	@Override
+	public List<Appointment> getAppointments(Patient patient) {
+		return dao.getAppointments(Collections.singleton(patient.getPatientId()), null, null, null);
+	}
+
+	/**
+	 * @see KenyaEmrService#getAppointments(java.util.Collection, java.util.Date)
+	 */
+	@Override
+	public List<Appointment> getAppointments(Collection<Integer> patientIds, Date recordedOnOrBefore) {
+		return dao.getAppointments(patientIds, null, null, recordedOnOrBefore);
+	}
+
+	/**
+	 * @see KenyaEmrService#getAppointmentsBetween(java.util.Date, java.util.Date)
+	 */
+	@Override
+	public List<Appointment> getAppointmentsBetween(Date from, Date to) {
+		return dao.getAppointments(null, from, to, null);
+	}
+
+	/**
+	 * @see KenyaEmrService#getAppointmentsOnDay(java.util.Date)
+	 */
+	@Override
+	public List<Appointment> getAppointmentsOnDay(Date date) {
+		return dao.getAppointments(null, OpenmrsUtil.firstSecondOfDay(date), OpenmrsUtil.getLastMomentOfDay(date), null);
+	}
+
+	/**
+	 * @see KenyaEmrService#getAppointmentsInMonth(java.util.Date)
+	 */
+	@Override
+	public List<Appointment> getAppointmentsInMonth(Date date) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(OpenmrsUtil.firstSecondOfDay(date));
+		calendar.set(Calendar.DAY_OF_MONTH, 1);
+		Date from = calendar.getTime();
+
+		calendar.add(Calendar.MONTH, 1);
+		calendar.add(Calendar.MILLISECOND, -1);
+
+		return dao.getAppointments(null, from, calendar.getTime(), null);
+	}
+
+	/**
+	 * @see KenyaEmrService#getPatientIdsWithAppointmentsBetween(java.util.Date, java.util.Date)
+	 */
+	@Override
+	public List<Integer> getPatientIdsWithAppointmentsBetween(Date from, Date to) {
+		return dao.getPatientIdsWithAppointmentsBetween(from, to);
+	}
+
+	/**
+	 * @see KenyaEmrService#getPatientDemographics(java.util.Collection)
+	 */
+	@Override
+	public List<Object[]> getPatientDemographics(Collection<Integer> patientIds) {
+		return dao.getPatientDemographics(patientIds);
+	}
+
+	/**
+	 * @see KenyaEmrService#getPatientIdentifiers(java.util.Collection)
+	 */
+	@Override
+	public List<Object[]> getPatientIdentifiers(Collection<Integer> patientIds) {
+		return dao.getPatientIdentifiers(patientIds);
+	}
+
+	/**
+	 * @see KenyaEmrService#getVisitsBetween(java.util.Collection, java.util.Date, java.util.Date)
+	 */
+	@Override
+	public List<Object[]> getVisitsBetween(Collection<Integer> patientIds, Date from, Date to) {
+		return dao.getVisitsBetween(patientIds, from, to);
+	}
+
+	/**
+	 * @see KenyaEmrService#getVisitEncounters(java.util.Collection)
+	 */
+	@Override
+	public List<Object[]> getVisitEncounters(Collection<Integer> visitIds) {
+		return dao.getVisitEncounters(visitIds);
+	}
+
+	/**
+	 * Gets the earliest of the given visits which started on the given day
+	 * @param visits the visits
+	 * @param date the day
+	 * @return the visit or null
+	 */
+	private static Visit getFirstVisitStartedOn(List<Visit> visits, Date date) {
+		Visit first = null;
+		for (Visit visit : visits) {
+			if (DateUtils.isSameDay(visit.getStartDatetime(), date)) {
+				if (first == null || visit.getStartDatetime().before(first.getStartDatetime())) {
+					first = visit;
+				}
+			}
+		}
+		return first;
+	}
+
+	/**
+	 * @see KenyaEmrService#getFilledForms(org.openmrs.Patient)
+	 */
+	@Override
+	public List<Object[]> getFilledForms(Patient patient) {
+		return dao.getFilledForms(patient);
+	}
+
+	/**
+	 * @see KenyaEmrService#getAccountPersons(String, boolean, boolean, int, int)
+	 */
+	@Override
+	public List<Object[]> getAccountPersons(String query, boolean includeUsers, boolean includeProviders, int start, int length) {
+		return dao.getAccountPersons(query, includeUsers, includeProviders, start, length);
+	}
+
+	/**
+	 * @see KenyaEmrService#getAccountUsers(java.util.Collection, String)
+	 */
+	@Override
+	public List<Object[]> getAccountUsers(Collection<Integer> personIds, String query) {
+		return dao.getAccountUsers(personIds, query);
+	}
+
+	/**
+	 * @see KenyaEmrService#getAccountProviders(java.util.Collection, String)
+	 */
+	@Override
+	public List<Object[]> getAccountProviders(Collection<Integer> personIds, String query) {
+		return dao.getAccountProviders(personIds, query);
+	}
+
+	/**
+	 * @see KenyaEmrService#getPatientIdsByIdentifiers(java.util.Collection)
+	 */
+	@Override
+	public List<Object[]> getPatientIdsByIdentifiers(Collection<String> identifiers) {
+		return dao.getPatientIdsByIdentifiers(identifiers);
+	}
+
+	/**
+	 * @see KenyaEmrService#getFormEncountersBetween(java.util.Collection, java.util.Date, java.util.Date)
+	 */
+	@Override
+	public List<Object[]> getFormEncountersBetween(Collection<Integer> patientIds, Date from, Date to) {
+		return dao.getFormEncountersBetween(patientIds, from, to);
+	}
+
+	/**
+	 * @see KenyaEmrService#saveEncounterBatch(java.util.List)
+	 */
+	@Override
+	public int saveEncounterBatch(List<Encounter> encounters) {
+		Set<Visit> newVisits = new HashSet<Visit>();
+
+		for (Encounter encounter : encounters) {
+			Visit visit = encounter.getVisit();
+			if (visit != null && visit.getVisitId() == null && newVisits.add(visit)) {
+				Context.getVisitService().saveVisit(visit);
+			}
+			Context.getEncounterService().saveEncounter(encounter);
+		}
+
+		return newVisits.size();
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.appointment;
+
+import org.openmrs.BaseOpenmrsObject;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+
+import java.util.Date;
+
+/**
+ * A scheduled return visit, derived from a return visit date obs. These are maintained by the module service as
+ * obs, encounters and visits are saved, and should not be edited directly.
+ */
+public class Appointment extends BaseOpenmrsObject {
+
+	private Integer appointmentId;
+
+	private Patient patient;
+
+	private Date scheduledDate;
+
+	private Obs obs;
+
+	private Visit fulfilledBy;
+
+	/**
+	 * Default constructor
+	 */
+	public Appointment() {
+	}
+
+	/**
+	 * Creates an appointment from a return visit date obs
+	 * @param patient the patient
+	 * @param obs the return visit date obs
+	 * @param scheduledDate the scheduled date
+	 */
+	public Appointment(Patient patient, Obs obs, Date scheduledDate) {
+		this.patient = patient;
+		this.obs = obs;
+		this.scheduledDate = scheduledDate;
+	}
+
+	/**
+	 * @see org.openmrs.OpenmrsObject#getId()
+	 */
+	@Override
+	public Integer getId() {
+		return getAppointmentId();
+	}
+
+	/**
+	 * @see org.openmrs.OpenmrsObject#setId(Integer)
+	 */
+	@Override
+	public void setId(Integer id) {
+		setAppointmentId(id);
+	}
+
+	public Integer getAppointmentId() {
+		return appointmentId;
+	}
+
+	public void setAppointmentId(Integer appointmentId) {
+		this.appointmentId = appointmentId;
+	}
+
+	public Patient getPatient() {
+		return patient;
+	}
+
+	public void setPatient(Patient patient) {
+		this.patient = patient;
+	}
+
+	/**
+	 * Gets the scheduled date. This is the value of the source obs, which may include a time.
+	 * @return the scheduled date
+	 */
+	public Date getScheduledDate() {
+		return scheduledDate;
+	}
+
+	public void setScheduledDate(Date scheduledDate) {
+		this.scheduledDate = scheduledDate;
+	}
+
+	/**
+	 * Gets the return visit date obs from which this appointment was derived
+	 * @return the obs
+	 */
+	public Obs getObs() {
+		return obs;
+	}
+
+	public void setObs(Obs obs) {
+		this.obs = obs;
+	}
+
+	/**
+	 * Gets the visit which started on the scheduled day, if there is one
+	 * @return the visit or null
+	 */
+	public Visit getFulfilledBy() {
+		return fulfilledBy;
+	}
+
+	public void setFulfilledBy(Visit fulfilledBy) {
+		this.fulfilledBy = fulfilledBy;
+	}
+}
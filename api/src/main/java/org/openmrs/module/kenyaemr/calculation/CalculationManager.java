@@ -14,8 +14,11 @@
 
 package org.openmrs.module.kenyaemr.calculation;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.calculation.Calculation;
@@ -35,84 +38,140 @@ public class CalculationManager implements CalculationProvider {
 	
 	protected static final Log log = LogFactory.getLog(CalculationManager.class);
 	
-	private Map<String, Class<? extends BaseEmrCalculation>> calculationClasses = new HashMap<String, Class<? extends BaseEmrCalculation>>();
+	protected static final String CALCULATION_INDEX_FILENAME = "calculations.txt";
+
+	private volatile Registry registry = new Registry();
 
 	/**
-	 * Refreshes registered calculation classes
+	 * Refreshes registered calculation classes. Classes are read from the calculation index if it exists, otherwise
+	 * the calculation package is scanned. Each calculation is instantiated once to populate the registry, and calculations
+	 * must therefore be stateless.
 	 */
 	public synchronized void refresh() {
-		clear();
+		Collection<String> classNames;
+		InputStream stream = CalculationManager.class.getClassLoader().getResourceAsStream(CALCULATION_INDEX_FILENAME);
+		if (stream != null) {
+			try {
+				classNames = loadClassNamesFromIndex(stream);
+			}
+			catch (IOException ex) {
+				throw new RuntimeException("Unable to read " + CALCULATION_INDEX_FILENAME, ex);
+			}
+			finally {
+				IOUtils.closeQuietly(stream);
+			}
+		}
+		else {
+			log.warn("Cannot find " + CALCULATION_INDEX_FILENAME + ". Scanning classpath for calculation classes");
 
-		ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false);
-		scanner.addIncludeFilter(new AssignableTypeFilter(BaseEmrCalculation.class));
+			classNames = scanForClassNames();
+		}
 
-		for (BeanDefinition bd : scanner.findCandidateComponents(CalculationManager.class.getPackage().getName())) {
+		refresh(classNames);
+	}
+
+	/**
+	 * Refreshes registered calculation classes from the given class names. Classes which can't be loaded or
+	 * instantiated are logged and skipped.
+	 * @param classNames the class names
+	 */
+	protected synchronized void refresh(Collection<String> classNames) {
+		Registry newRegistry = new Registry();
+
+		for (String className : classNames) {
 			try {
-				Class clazz = Class.forName(bd.getBeanClassName());
-				calculationClasses.put(bd.getBeanClassName(), clazz);
+				newRegistry.register((Class<? extends BaseEmrCalculation>) Class.forName(className));
 			} catch (ClassNotFoundException e) {
-				e.printStackTrace();
+				log.error("Unable to load calculation class " + className, e);
+				continue;
+			} catch (Exception ex) {
+				log.warn("Invalid calculation defined", ex);
+				continue;
 			}
 
-			log.info("Found calculation class :" + bd.getBeanClassName());
+			log.info("Found calculation class :" + className);
 		}
+
+		registry = newRegistry;
+	}
+
+	/**
+	 * Loads calculation class names from an index, i.e. one class name per line. Blank lines and lines starting with #
+	 * are ignored.
+	 * @param stream the stream containing the index
+	 * @return the class names
+	 * @throws IOException if index couldn't be read
+	 */
+	protected static List<String> loadClassNamesFromIndex(InputStream stream) throws IOException {
+		List<String> classNames = new ArrayList<String>();
+
+		for (Object line : IOUtils.readLines(stream, "UTF-8")) {
+			String className = ((String) line).trim();
+			if (className.length() > 0 && !className.startsWith("#")) {
+				classNames.add(className);
+			}
+		}
+		return classNames;
+	}
+
+	/**
+	 * Scans the calculation package for concrete calculation classes
+	 * @return the class names
+	 */
+	protected static Set<String> scanForClassNames() {
+		ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false);
+		scanner.addIncludeFilter(new AssignableTypeFilter(BaseEmrCalculation.class));
+
+		Set<String> classNames = new TreeSet<String>();
+		for (BeanDefinition bd : scanner.findCandidateComponents(CalculationManager.class.getPackage().getName())) {
+			classNames.add(bd.getBeanClassName());
+		}
+		return classNames;
 	}
 
 	/**
 	 * Clears all registered calculation classes
 	 */
 	public synchronized void clear() {
-		calculationClasses.clear();
+		registry = new Registry();
 	}
 
 	/**
-	 * Gets new instances of all alert calculations in this module
+	 * Gets the shared instances of all alert calculations in this module
 	 * @return list of alert calculation instances
 	 */
 	public List<BaseAlertCalculation> getAlertCalculations() {
-		List<BaseAlertCalculation> ret = new ArrayList<BaseAlertCalculation>();
-
-		for (Class<? extends BaseEmrCalculation> calculationClass : calculationClasses.values()) {
-			if (BaseAlertCalculation.class.isAssignableFrom(calculationClass)) {
-				ret.add((BaseAlertCalculation)instantiateCalculation(calculationClass, null));
-			}
-		}
-
-		return ret;
+		return new ArrayList<BaseAlertCalculation>(registry.alertCalculations);
 	}
 
 	/**
-	 * Gets new instances of all calculations in this module with the given tag
+	 * Gets the shared instances of all calculations in this module with the given tag
+	 * @param tag the tag (null to get all calculations)
 	 * @return list of calculation instances
 	 */
 	public List<BaseEmrCalculation> getCalculations(String tag) {
-		List<BaseEmrCalculation> ret = new ArrayList<BaseEmrCalculation>();
-		for (String calcName : calculationClasses.keySet()) {
-			try {
-				BaseEmrCalculation calc = (BaseEmrCalculation) getCalculation(calcName, null);
+		Registry current = registry;
 
-				// Check against the calculations tags if a tag was specified
-				if (tag == null || (calc.getTags().length > 0 && Arrays.asList(calc.getTags()).contains(tag))) {
-					ret.add(calc);
-				}
-			}
-			catch (InvalidCalculationException ex) {
-				log.warn("Invalid calculation defined", ex);
-			}
+		if (tag == null) {
+			return new ArrayList<BaseEmrCalculation>(current.calculations.values());
 		}
-		return ret;
+
+		List<BaseEmrCalculation> tagged = current.calculationsByTag.get(tag);
+		return tagged != null ? new ArrayList<BaseEmrCalculation>(tagged) : new ArrayList<BaseEmrCalculation>();
 	}
-	
+
 	/**
 	 * @see org.openmrs.calculation.CalculationProvider#getCalculation(java.lang.String, java.lang.String)
 	 */
 	@Override
 	public Calculation getCalculation(String calculationName, String configuration) throws InvalidCalculationException {
-		Class<? extends BaseEmrCalculation> clazz = calculationClasses.get(calculationName);
-		if (clazz == null)
-			throw new InvalidCalculationException("Not Found: " + calculationName + " (valid values are: " + calculationClasses.keySet() + ")");
+		Registry current = registry;
+		BaseEmrCalculation calculation = current.calculations.get(calculationName);
+		if (calculation == null)
+			throw new InvalidCalculationException("Not Found: " + calculationName + " (valid values are: " + current.calculations.keySet() + ")");
 
-		return instantiateCalculation(clazz, configuration);
+		// Only unconfigured calculations can be shared
+		return configuration != null ? instantiateCalculation(calculation.getClass(), configuration) : calculation;
 	}
 
 	/**
@@ -135,4 +194,43 @@ public class CalculationManager implements CalculationProvider {
 			return null;
 		}
 	}
+
+	/**
+	 * Registry of calculation instances, indexed by class name and by tag. Registries are populated off to the side and
+	 * then published by replacing the current registry, so readers never see a partially populated registry.
+	 */
+	private static class Registry {
+
+		private final Map<String, BaseEmrCalculation> calculations = new LinkedHashMap<String, BaseEmrCalculation>();
+
+		private final Map<String, List<BaseEmrCalculation>> calculationsByTag = new HashMap<String, List<BaseEmrCalculation>>();
+
+		private final List<BaseAlertCalculation> alertCalculations = new ArrayList<BaseAlertCalculation>();
+
+		/**
+		 * Registers a calculation class
+		 * @param clazz the calculation class
+		 */
+		void register(Class<? extends BaseEmrCalculation> clazz) {
+			BaseEmrCalculation calculation = instantiateCalculation(clazz, null);
+			if (calculation == null) {
+				throw new RuntimeException("Unable to instantiate calculation class " + clazz.getName());
+			}
+
+			calculations.put(clazz.getName(), calculation);
+
+			for (String tag : calculation.getTags()) {
+				List<BaseEmrCalculation> tagged = calculationsByTag.get(tag);
+				if (tagged == null) {
+					tagged = new ArrayList<BaseEmrCalculation>();
+					calculationsByTag.put(tag, tagged);
+				}
+				tagged.add(calculation);
+			}
+
+			if (calculation instanceof BaseAlertCalculation) {
+				alertCalculations.add((BaseAlertCalculation) calculation);
+			}
+		}
+	}
 }
\ No newline at end of file
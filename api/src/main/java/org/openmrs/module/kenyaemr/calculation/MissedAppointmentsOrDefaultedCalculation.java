@@ -16,16 +16,19 @@ package org.openmrs.module.kenyaemr.calculation;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
 import org.openmrs.Encounter;
 import org.openmrs.Program;
+import org.openmrs.api.context.Context;
 import org.openmrs.calculation.patient.PatientCalculationContext;
 import org.openmrs.calculation.result.CalculationResultMap;
 import org.openmrs.calculation.result.SimpleResult;
-import org.openmrs.module.kenyaemr.Dictionary;
 import org.openmrs.module.kenyaemr.Metadata;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.appointment.Appointment;
 
 /**
  * Calculates whether patients have missed their last scheduled return visit. Calculation returns true
@@ -65,7 +68,7 @@ public class MissedAppointmentsOrDefaultedCalculation extends BaseAlertCalculati
 
 		Set<Integer> alive = alivePatients(cohort, context);
 		Set<Integer> inHivProgram = CalculationUtils.patientsThatPass(lastProgramEnrollment(hivProgram, alive, context));
-        CalculationResultMap lastReturnDateObss = lastObs(getConcept(Dictionary.RETURN_VISIT_DATE), inHivProgram, context);
+        Map<Integer, Date> lastScheduledReturnDates = lastScheduledReturnDates(inHivProgram, context);
         CalculationResultMap lastEncounters = lastEncounter(null, cohort, context);
 
         CalculationResultMap ret = new CalculationResultMap();
@@ -74,7 +77,7 @@ public class MissedAppointmentsOrDefaultedCalculation extends BaseAlertCalculati
 
             // Is patient alive and in the HIV program
             if (inHivProgram.contains(ptId)) {
-                Date lastScheduledReturnDate = CalculationUtils.datetimeObsResultForPatient(lastReturnDateObss, ptId);
+                Date lastScheduledReturnDate = lastScheduledReturnDates.get(ptId);
 
                 // Does patient have a scheduled return visit in the past
                 if (lastScheduledReturnDate != null && daysSince(lastScheduledReturnDate, context) > 0) {
@@ -89,4 +92,19 @@ public class MissedAppointmentsOrDefaultedCalculation extends BaseAlertCalculati
         }
         return ret;
     }
+
+	/**
+	 * Gets the scheduled date of the most recently recorded appointment of each patient
+	 * @param cohort the patient ids
+	 * @param context the calculation context
+	 * @return the scheduled dates by patient id
+	 */
+	protected Map<Integer, Date> lastScheduledReturnDates(Collection<Integer> cohort, PatientCalculationContext context) {
+		// Appointments are ordered by when they were recorded, so later ones replace earlier ones
+		Map<Integer, Date> dates = new HashMap<Integer, Date>();
+		for (Appointment appointment : Context.getService(KenyaEmrService.class).getAppointments(cohort, context.getNow())) {
+			dates.put(appointment.getPatient().getPatientId(), appointment.getScheduledDate());
+		}
+		return dates;
+	}
 }
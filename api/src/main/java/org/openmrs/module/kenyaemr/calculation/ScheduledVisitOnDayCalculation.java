@@ -16,17 +16,15 @@ package org.openmrs.module.kenyaemr.calculation;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
-import org.openmrs.Concept;
-import org.openmrs.api.PatientSetService.TimeModifier;
+import org.openmrs.api.context.Context;
 import org.openmrs.calculation.patient.PatientCalculationContext;
 import org.openmrs.calculation.result.CalculationResultMap;
-import org.openmrs.module.kenyaemr.Dictionary;
-import org.openmrs.module.reporting.cohort.EvaluatedCohort;
-import org.openmrs.module.reporting.cohort.definition.DateObsCohortDefinition;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.reporting.common.DateUtil;
-import org.openmrs.module.reporting.common.RangeComparator;
 
 /**
  *
@@ -53,16 +51,7 @@ public class ScheduledVisitOnDayCalculation extends BaseEmrCalculation {
 		Date startOfDay = DateUtil.getStartOfDay(date);
 		Date endOfDay = DateUtil.getEndOfDay(date);
 		
-		Concept returnVisitDate = getConcept(Dictionary.RETURN_VISIT_DATE);
-		DateObsCohortDefinition cd = new DateObsCohortDefinition();
-		cd.setTimeModifier(TimeModifier.ANY);
-		cd.setQuestion(returnVisitDate);
-		cd.setOperator1(RangeComparator.GREATER_EQUAL);
-		cd.setValue1(startOfDay);
-		cd.setOperator2(RangeComparator.LESS_EQUAL);
-		cd.setValue2(endOfDay);
-		
-		EvaluatedCohort withScheduledVisit = evaluateWithReporting(cd, cohort, null, context);
+		Set<Integer> withScheduledVisit = new HashSet<Integer>(Context.getService(KenyaEmrService.class).getPatientIdsWithAppointmentsBetween(startOfDay, endOfDay));
 		
 		CalculationResultMap ret = new CalculationResultMap();
 		for (Integer ptId : cohort) {
@@ -0,0 +1,203 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.chart;
+
+import org.openmrs.Concept;
+import org.openmrs.DrugOrder;
+import org.openmrs.Encounter;
+import org.openmrs.Form;
+import org.openmrs.Patient;
+import org.openmrs.PatientProgram;
+import org.openmrs.Program;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.calculation.patient.PatientCalculation;
+import org.openmrs.calculation.patient.PatientCalculationContext;
+import org.openmrs.calculation.patient.PatientCalculationService;
+import org.openmrs.calculation.result.CalculationResult;
+import org.openmrs.module.kenyaemr.calculation.BaseEmrCalculation;
+import org.openmrs.module.kenyaemr.calculation.CalculationManager;
+import org.openmrs.module.kenyaemr.regimen.RegimenChangeHistory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only view of a patient's record for a single request. Each kind of data is loaded at most once, on first use,
+ * and calculations share a single calculation context. This is not thread-safe and shouldn't outlive the request,
+ * as it isn't updated when the patient's record changes.
+ */
+public class PatientChart {
+
+	private final Patient patient;
+
+	private List<Encounter> encounters;
+
+	private List<Visit> visits;
+
+	private List<PatientProgram> patientPrograms;
+
+	private List<DrugOrder> drugOrders;
+
+	private PatientCalculationContext calculationContext;
+
+	private Map<String, CalculationResult> calculationResults = new HashMap<String, CalculationResult>();
+
+	private Map<Concept, RegimenChangeHistory> regimenHistories = new HashMap<Concept, RegimenChangeHistory>();
+
+	/**
+	 * Creates a new chart
+	 * @param patient the patient
+	 */
+	public PatientChart(Patient patient) {
+		this.patient = patient;
+	}
+
+	/**
+	 * Gets the patient
+	 * @return the patient
+	 */
+	public Patient getPatient() {
+		return patient;
+	}
+
+	/**
+	 * Gets the patient's non-voided encounters
+	 * @return the encounters
+	 */
+	public List<Encounter> getEncounters() {
+		if (encounters == null) {
+			encounters = Collections.unmodifiableList(Context.getEncounterService().getEncountersByPatient(patient));
+		}
+		return encounters;
+	}
+
+	/**
+	 * Gets the patient's non-voided encounters of the given form
+	 * @param form the form
+	 * @return the encounters
+	 */
+	public List<Encounter> getEncounters(Form form) {
+		List<Encounter> ret = new ArrayList<Encounter>();
+		for (Encounter encounter : getEncounters()) {
+			if (form.equals(encounter.getForm())) {
+				ret.add(encounter);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets the patient's non-voided visits
+	 * @return the visits
+	 */
+	public List<Visit> getVisits() {
+		if (visits == null) {
+			visits = Collections.unmodifiableList(Context.getVisitService().getVisitsByPatient(patient));
+		}
+		return visits;
+	}
+
+	/**
+	 * Gets the patient's non-voided program enrollments
+	 * @return the enrollments
+	 */
+	public List<PatientProgram> getPatientPrograms() {
+		if (patientPrograms == null) {
+			patientPrograms = Collections.unmodifiableList(Context.getProgramWorkflowService().getPatientPrograms(patient, null, null, null, null, null, false));
+		}
+		return patientPrograms;
+	}
+
+	/**
+	 * Gets the patient's non-voided enrollments in the given program
+	 * @param program the program
+	 * @return the enrollments
+	 */
+	public List<PatientProgram> getPatientPrograms(Program program) {
+		List<PatientProgram> ret = new ArrayList<PatientProgram>();
+		for (PatientProgram patientProgram : getPatientPrograms()) {
+			if (program.equals(patientProgram.getProgram())) {
+				ret.add(patientProgram);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets the patient's drug orders
+	 * @return the drug orders
+	 */
+	@SuppressWarnings("deprecation")
+	public List<DrugOrder> getDrugOrders() {
+		if (drugOrders == null) {
+			drugOrders = Collections.unmodifiableList(Context.getOrderService().getDrugOrdersByPatient(patient));
+		}
+		return drugOrders;
+	}
+
+	/**
+	 * Gets the regimen history for the given medset, generated from the patient's drug orders
+	 * @param medSet the medset concept
+	 * @return the regimen history
+	 */
+	public RegimenChangeHistory getRegimenHistory(Concept medSet) {
+		RegimenChangeHistory history = regimenHistories.get(medSet);
+		if (history == null) {
+			history = RegimenChangeHistory.fromDrugOrders(getDrugOrders(), medSet);
+			regimenHistories.put(medSet, history);
+		}
+		return history;
+	}
+
+	/**
+	 * Gets the calculation context shared by all calculations evaluated for this chart
+	 * @return the calculation context
+	 */
+	public PatientCalculationContext getCalculationContext() {
+		if (calculationContext == null) {
+			calculationContext = Context.getService(PatientCalculationService.class).createCalculationContext();
+		}
+		return calculationContext;
+	}
+
+	/**
+	 * Evaluates the specified calculation for the patient. Results are remembered so each calculation is only
+	 * evaluated once per chart.
+	 * @param calculationClass the calculation class
+	 * @param configuration the calculation configuration
+	 * @return the calculation result
+	 */
+	public CalculationResult evaluate(Class<? extends BaseEmrCalculation> calculationClass, String configuration) {
+		String key = calculationClass.getName() + (configuration != null ? ":" + configuration : "");
+		if (!calculationResults.containsKey(key)) {
+			BaseEmrCalculation calculation = CalculationManager.instantiateCalculation(calculationClass, configuration);
+			calculationResults.put(key, evaluate(calculation));
+		}
+		return calculationResults.get(key);
+	}
+
+	/**
+	 * Evaluates the given calculation for the patient, using the shared calculation context
+	 * @param calculation the calculation
+	 * @return the calculation result
+	 */
+	public CalculationResult evaluate(PatientCalculation calculation) {
+		return Context.getService(PatientCalculationService.class).evaluate(patient.getPatientId(), calculation, getCalculationContext());
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.chart;
+
+import org.openmrs.Patient;
+import org.openmrs.User;
+import org.openmrs.module.kenyaemr.summary.PatientSummary;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps each user's most recently viewed patients as lightweight summaries, so that they can be listed without
+ * loading the patients. Summaries are replaced when the patients are saved.
+ */
+@Component
+public class RecentlyViewedPatients {
+
+	/**
+	 * Maximum number of patients remembered for each user
+	 */
+	private static final int MAX_PATIENTS_PER_USER = 10;
+
+	/**
+	 * Maximum number of users for which recently viewed patients are remembered
+	 */
+	private static final int MAX_USERS = 500;
+
+	/**
+	 * Summaries by patient id by user id. Users are in access order and each user's patients in viewing order, least
+	 * recent first
+	 */
+	private final Map<Integer, Map<Integer, PatientSummary>> recentByUser = new LinkedHashMap<Integer, Map<Integer, PatientSummary>>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Map<Integer, PatientSummary>> eldest) {
+			return size() > MAX_USERS;
+		}
+	};
+
+	/**
+	 * Records that the given user just viewed the given patient
+	 * @param user the user
+	 * @param patient the patient
+	 */
+	public synchronized void viewed(User user, Patient patient) {
+		Map<Integer, PatientSummary> recent = recentByUser.get(user.getUserId());
+		if (recent == null) {
+			recent = new LinkedHashMap<Integer, PatientSummary>() {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Integer, PatientSummary> eldest) {
+					return size() > MAX_PATIENTS_PER_USER;
+				}
+			};
+			recentByUser.put(user.getUserId(), recent);
+		}
+
+		recent.remove(patient.getPatientId());
+		recent.put(patient.getPatientId(), new PatientSummary(patient));
+	}
+
+	/**
+	 * Gets the patients recently viewed by the given user
+	 * @param user the user
+	 * @return the patient summaries, most recently viewed first
+	 */
+	public synchronized List<PatientSummary> getRecentlyViewed(User user) {
+		Map<Integer, PatientSummary> recent = recentByUser.get(user.getUserId());
+		if (recent == null) {
+			return Collections.emptyList();
+		}
+
+		List<PatientSummary> summaries = new ArrayList<PatientSummary>(recent.values());
+		Collections.reverse(summaries);
+		return summaries;
+	}
+
+	/**
+	 * Updates the summaries of the given patient after it has been saved, or removes them if it has been voided
+	 * @param patient the patient
+	 */
+	public synchronized void update(Patient patient) {
+		PatientSummary summary = patient.isVoided() ? null : new PatientSummary(patient);
+
+		for (Map<Integer, PatientSummary> recent : recentByUser.values()) {
+			if (recent.containsKey(patient.getPatientId())) {
+				if (summary != null) {
+					recent.put(patient.getPatientId(), summary);
+				}
+				else {
+					recent.remove(patient.getPatientId());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the summaries of the given patient
+	 * @param patientId the patient id
+	 */
+	public synchronized void remove(Integer patientId) {
+		for (Map<Integer, PatientSummary> recent : recentByUser.values()) {
+			recent.remove(patientId);
+		}
+	}
+}
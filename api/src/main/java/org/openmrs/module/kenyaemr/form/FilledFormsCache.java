@@ -0,0 +1,173 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.form;
+
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of which forms have been filled for each patient, used to decide which forms are still available. Each
+ * patient's entry is loaded with a single grouped query and discarded when any of their encounters change.
+ */
+@Component
+public class FilledFormsCache {
+
+	/**
+	 * Maximum number of patients for which filled forms are cached
+	 */
+	private static final int MAX_CACHED_PATIENTS = 1000;
+
+	private final ConcurrentMap<Integer, FilledForms> filledByPatient = new ConcurrentHashMap<Integer, FilledForms>();
+
+	/**
+	 * Incremented on each invalidation so that entries fetched during an invalidation aren't cached
+	 */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	/**
+	 * Discards all cached entries
+	 */
+	public void refresh() {
+		generation.incrementAndGet();
+		filledByPatient.clear();
+	}
+
+	/**
+	 * Discards the cached entry of the given patient
+	 * @param patient the patient
+	 */
+	public void invalidate(Patient patient) {
+		if (patient != null && patient.getPatientId() != null) {
+			generation.incrementAndGet();
+			filledByPatient.remove(patient.getPatientId());
+		}
+	}
+
+	/**
+	 * Gets the UUIDs of all forms ever filled for the given patient
+	 * @param patient the patient
+	 * @return the form UUIDs
+	 */
+	public Set<String> getFormsFilled(Patient patient) {
+		return Collections.unmodifiableSet(getFilledForms(patient).lastFilled.keySet());
+	}
+
+	/**
+	 * Gets the UUIDs of forms filled for the given patient on or after the given date, e.g. since a program enrollment
+	 * @param patient the patient
+	 * @param since the date
+	 * @return the form UUIDs
+	 */
+	public Set<String> getFormsFilledSince(Patient patient, Date since) {
+		Set<String> formUuids = new HashSet<String>();
+		for (Map.Entry<String, Date> entry : getFilledForms(patient).lastFilled.entrySet()) {
+			if (entry.getValue().compareTo(since) >= 0) {
+				formUuids.add(entry.getKey());
+			}
+		}
+		return formUuids;
+	}
+
+	/**
+	 * Gets the UUIDs of forms filled during the given visit
+	 * @param visit the visit
+	 * @return the form UUIDs
+	 */
+	public Set<String> getFormsFilledInVisit(Visit visit) {
+		Set<String> formUuids = getFilledForms(visit.getPatient()).byVisit.get(visit.getVisitId());
+		return formUuids != null ? Collections.unmodifiableSet(formUuids) : Collections.<String>emptySet();
+	}
+
+	/**
+	 * Gets the filled forms of the given patient, fetching them if they aren't cached
+	 * @param patient the patient
+	 * @return the filled forms
+	 */
+	protected FilledForms getFilledForms(Patient patient) {
+		FilledForms filled = filledByPatient.get(patient.getPatientId());
+		if (filled == null) {
+			int fetchedGeneration = generation.get();
+			filled = fetchFilledForms(patient);
+
+			if (filledByPatient.size() >= MAX_CACHED_PATIENTS) {
+				filledByPatient.clear();
+			}
+			if (generation.get() == fetchedGeneration) {
+				filledByPatient.put(patient.getPatientId(), filled);
+			}
+		}
+		return filled;
+	}
+
+	/**
+	 * Fetches the filled forms of the given patient from the database
+	 * @param patient the patient
+	 * @return the filled forms
+	 */
+	protected FilledForms fetchFilledForms(Patient patient) {
+		FilledForms filled = new FilledForms();
+
+		for (Object[] row : Context.getService(KenyaEmrService.class).getFilledForms(patient)) {
+			String formUuid = (String) row[0];
+			Integer visitId = (Integer) row[1];
+			Date latest = (Date) row[2];
+
+			Date existing = filled.lastFilled.get(formUuid);
+			if (existing == null || latest.after(existing)) {
+				filled.lastFilled.put(formUuid, latest);
+			}
+
+			if (visitId != null) {
+				Set<String> visitForms = filled.byVisit.get(visitId);
+				if (visitForms == null) {
+					visitForms = new HashSet<String>();
+					filled.byVisit.put(visitId, visitForms);
+				}
+				visitForms.add(formUuid);
+			}
+		}
+
+		return filled;
+	}
+
+	/**
+	 * Forms filled for a single patient
+	 */
+	protected static class FilledForms {
+
+		/**
+		 * Latest encounter date by form UUID
+		 */
+		private final Map<String, Date> lastFilled = new HashMap<String, Date>();
+
+		/**
+		 * Form UUIDs by visit id
+		 */
+		private final Map<Integer, Set<String>> byVisit = new HashMap<Integer, Set<String>>();
+	}
+}
@@ -25,6 +25,7 @@ import org.openmrs.module.kenyaemr.form.FormDescriptor.Gender;
 import org.openmrs.module.kenyaemr.form.handler.DynamicObsContainerTagHandler;
 import org.openmrs.module.kenyaemr.form.handler.IfModeTagHandler;
 import org.openmrs.module.kenyaemr.form.handler.LabTestPickerTagHandler;
+import org.openmrs.util.PrivilegeConstants;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
@@ -37,13 +38,61 @@ public class FormManager {
 
 	protected static final Log log = LogFactory.getLog(FormManager.class);
 
-	private Map<String, FormDescriptor> forms = new LinkedHashMap<String, FormDescriptor>();
+	/**
+	 * Registered form descriptors by form UUID. This is replaced rather than modified, and is null until registration
+	 */
+	private volatile Map<String, FormDescriptor> forms = null;
 
 	/**
 	 * Updates form manager after context refresh
 	 */
 	public synchronized void refresh() throws Exception {
-		forms.clear();
+		forms = null;
+
+		// Register custom tags
+		HtmlFormEntryUtil.getService().addHandler("dynamicObsContainer", new DynamicObsContainerTagHandler());
+		HtmlFormEntryUtil.getService().addHandler("labTestPicker", new LabTestPickerTagHandler());
+		HtmlFormEntryUtil.getService().addHandler("ifMode", new IfModeTagHandler()); // Override one from HFE
+
+		// Registration looks up forms and saves their resources, so is done here rather than on a request thread
+		forms = registerFormDescriptors();
+	}
+
+	/**
+	 * Gets the registered form descriptors, registering them if that didn't happen during the last refresh
+	 * @return the form descriptors by form UUID
+	 */
+	protected Map<String, FormDescriptor> getForms() {
+		Map<String, FormDescriptor> current = forms;
+		if (current == null) {
+			synchronized (this) {
+				current = forms;
+				if (current == null) {
+					try {
+						// Current user may not be allowed to manage forms
+						Context.addProxyPrivilege(PrivilegeConstants.VIEW_FORMS);
+						Context.addProxyPrivilege(PrivilegeConstants.MANAGE_FORMS);
+
+						current = registerFormDescriptors();
+						forms = current;
+					}
+					finally {
+						Context.removeProxyPrivilege(PrivilegeConstants.VIEW_FORMS);
+						Context.removeProxyPrivilege(PrivilegeConstants.MANAGE_FORMS);
+					}
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Registers the form descriptor beans from the application context
+	 * @return the form descriptors by form UUID
+	 */
+	protected Map<String, FormDescriptor> registerFormDescriptors() {
+		long start = System.currentTimeMillis();
+		Map<String, FormDescriptor> registered = new LinkedHashMap<String, FormDescriptor>();
 
 		List<FormDescriptor> descriptors = Context.getRegisteredComponents(FormDescriptor.class);
 
@@ -59,11 +108,11 @@ public class FormManager {
 			}
 
 			// Because of TRUNK-3889, singleton beans get instantiated twice. Re-enable this check once fixed.
-			//if (forms.containsKey(formDescriptor.getFormUuid())) {
+			//if (registered.containsKey(formDescriptor.getFormUuid())) {
 			//	throw new RuntimeException("Form " + formDescriptor.getFormUuid() + " already registered");
 			//}
 
-			forms.put(form.getUuid(), formDescriptor);
+			registered.put(form.getUuid(), formDescriptor);
 
 			// Attach form resource if descriptor specifies one
 			if (formDescriptor.getResourceProvider() != null && formDescriptor.getResource() != null) {
@@ -73,10 +122,9 @@ public class FormManager {
 			log.warn("Registered form '" + form.getName() + "' (" + form.getUuid() + ")");
 		}
 
-		// Register custom tags
-		HtmlFormEntryUtil.getService().addHandler("dynamicObsContainer", new DynamicObsContainerTagHandler());
-		HtmlFormEntryUtil.getService().addHandler("labTestPicker", new LabTestPickerTagHandler());
-		HtmlFormEntryUtil.getService().addHandler("ifMode", new IfModeTagHandler()); // Override one from HFE
+		log.info("Registered " + registered.size() + " forms in " + (System.currentTimeMillis() - start) + "ms");
+
+		return Collections.unmodifiableMap(registered);
 	}
 
 	/**
@@ -85,7 +133,7 @@ public class FormManager {
 	 * @return the form descriptor
 	 */
 	public FormDescriptor getFormDescriptor(String formUuid) {
-		return forms.get(formUuid);
+		return getForms().get(formUuid);
 	}
 
 	/**
@@ -102,7 +150,7 @@ public class FormManager {
 	 * @return the form descriptors
 	 */
 	public List<FormDescriptor> getAllFormDescriptors() {
-		return new ArrayList<FormDescriptor>(forms.values());
+		return new ArrayList<FormDescriptor>(getForms().values());
 	}
 
 	/**
@@ -111,7 +159,7 @@ public class FormManager {
 	 */
 	public List<FormDescriptor> getFormDescriptorsForApp(String appKey) {
 		List<FormDescriptor> descriptors = new ArrayList<FormDescriptor>();
-		for (FormDescriptor descriptor : forms.values()) {
+		for (FormDescriptor descriptor : getForms().values()) {
 			if (descriptor.getApps().contains(appKey)) {
 				descriptors.add(descriptor);
 			}
@@ -128,7 +176,7 @@ public class FormManager {
 	 */
 	public List<FormDescriptor> getFormsForPatient(String appKey, Patient patient, Set<Frequency> includeFrequencies) {
 		List<FormDescriptor> patientForms = new ArrayList<FormDescriptor>();
-		for (Map.Entry<String, FormDescriptor> entry : forms.entrySet()) {
+		for (Map.Entry<String, FormDescriptor> entry : getForms().entrySet()) {
 			FormDescriptor form = entry.getValue();
 
 			// Filter by app id
@@ -93,6 +93,16 @@ public class FormUtils {
 			throw new RuntimeException("Form XML could not be loaded from path '" + xmlPath + "'");
 		}
 
+		return createHtmlForm(form, xml);
+	}
+
+	/**
+	 * Creates a new (non-persisted) HTML form for the given form and XML
+	 * @param form the form
+	 * @param xml the form XML
+	 * @return the Html form
+	 */
+	protected static HtmlForm createHtmlForm(Form form, String xml) {
 		HtmlForm hf = new HtmlForm();
 		hf.setForm(form);
 		hf.setCreator(form.getCreator());
@@ -0,0 +1,121 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.kenyaemr.form;
+
+import org.openmrs.Form;
+import org.openmrs.module.htmlformentry.HtmlForm;
+import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
+import org.openmrs.ui.framework.resource.ResourceFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of form XML templates, so that opening a form doesn't need to look up its XML path or load its XML resource.
+ * Entries are discarded when the form or its resources are changed through the form service, and on context refresh
+ * when UI resources may have changed.
+ */
+@Component
+public class HtmlFormCache {
+
+	/**
+	 * Stands in for forms without an XML path, as null can't be cached
+	 */
+	private static final String NO_XML_PATH = "";
+
+	private final ConcurrentMap<String, String> xmlPathByFormUuid = new ConcurrentHashMap<String, String>();
+
+	private final ConcurrentMap<String, String> xmlByResource = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Discards all cached templates
+	 */
+	public void refresh() {
+		xmlPathByFormUuid.clear();
+		xmlByResource.clear();
+	}
+
+	/**
+	 * Discards the cached template of the given form
+	 * @param form the form
+	 */
+	public void invalidate(Form form) {
+		if (form != null && form.getUuid() != null) {
+			String xmlPath = xmlPathByFormUuid.remove(form.getUuid());
+			if (xmlPath != null && !NO_XML_PATH.equals(xmlPath)) {
+				xmlByResource.remove(xmlPath);
+			}
+		}
+	}
+
+	/**
+	 * Gets an HTML form from a form in the same way as {@link FormUtils#getHtmlForm(Form, ResourceFactory)}, but using
+	 * cached templates. Each call returns a new HTML form for forms with an XML path, so callers may modify it.
+	 * @param form the form
+	 * @param resourceFactory the resource factory
+	 * @return the HTML form
+	 * @throws RuntimeException if form has no xml path or path is invalid
+	 */
+	public HtmlForm getHtmlForm(Form form, ResourceFactory resourceFactory) throws IOException {
+		String xmlPath = xmlPathByFormUuid.get(form.getUuid());
+		if (xmlPath == null) {
+			xmlPath = FormUtils.getFormXmlPath(form);
+			xmlPathByFormUuid.put(form.getUuid(), xmlPath != null ? xmlPath : NO_XML_PATH);
+		}
+
+		if (NO_XML_PATH.equals(xmlPath)) {
+			// Persisted forms are managed by HTML Form Entry so aren't cached here
+			HtmlForm hf = HtmlFormEntryUtil.getService().getHtmlFormByForm(form);
+			if (hf != null)
+				return hf;
+
+			throw new RuntimeException("Form has no XML path or persisted html form");
+		}
+		else if (!xmlPath.contains(":")) {
+			throw new RuntimeException("Form XML path '" + xmlPath + "' must use format <provider>:<path>");
+		}
+
+		String[] pathTokens = xmlPath.split(":");
+		String xml = getResourceXml(pathTokens[0], pathTokens[1], resourceFactory);
+
+		if (xml == null) {
+			throw new RuntimeException("Form XML could not be loaded from path '" + xmlPath + "'");
+		}
+
+		return FormUtils.createHtmlForm(form, xml);
+	}
+
+	/**
+	 * Gets the XML content of a UI resource
+	 * @param providerName the resource provider name
+	 * @param resourcePath the resource path
+	 * @param resourceFactory the resource factory
+	 * @return the XML content or null if resource doesn't exist
+	 */
+	public String getResourceXml(String providerName, String resourcePath, ResourceFactory resourceFactory) throws IOException {
+		String key = providerName + ":" + resourcePath;
+		String xml = xmlByResource.get(key);
+		if (xml == null) {
+			xml = resourceFactory.getResourceAsString(providerName, resourcePath);
+			if (xml != null) {
+				xmlByResource.put(key, xml);
+			}
+		}
+		return xml;
+	}
+}
@@ -17,22 +17,42 @@ package org.openmrs.module.kenyaemr.form;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.openmrs.*;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.FormEntrySession;
+import org.openmrs.module.htmlformentry.HtmlForm;
 import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.KenyaEmrConstants;
 import org.openmrs.module.kenyaemr.Metadata;
 import org.openmrs.module.reporting.common.DateUtil;
 
 /**
- * Velocity functions for adding logic to HTML forms
+ * Velocity functions for adding logic to HTML forms. An instance is created for each form entry session, and obs
+ * lookups are answered from a snapshot of the patient's obs, which is prefetched on first use for all concepts
+ * referenced by these functions in the form XML.
  */
 public class KenyaEmrVelocityFunctions {
 
+	/**
+	 * Matches calls to the obs functions with a literal concept identifier, e.g. kenyaemr.latestObs("5089AAAA...")
+	 */
+	private static final Pattern OBS_FUNCTION_CALL = Pattern.compile(Pattern.quote(KenyaEmrConstants.MODULE_ID) + "\\.(?:allObs|latestObs|earliestObs|obsToday)\\(\\s*[\"']([^\"']+)[\"']\\s*\\)");
+
 	FormEntrySession session;
 
+	/**
+	 * Non-voided obs of the patient by concept id, most recent first
+	 */
+	private Map<Integer, List<Obs>> obsSnapshot;
+
 	/**
 	 * Constructs a new functions provider
 	 * @param session the form entry session
@@ -66,17 +86,20 @@ public class KenyaEmrVelocityFunctions {
 	/**
 	 * Gets all of the obs with the given concept for the current patient
 	 * @param conceptIdentifier the concept identifier
-	 * @return the list of obs
+	 * @return the list of obs, most recent first
 	 */
 	public List<Obs> allObs(String conceptIdentifier) {
-		if (session.getPatient() == null)
-			return new ArrayList<Obs>();
-
 		Patient p = session.getPatient();
 		if (p == null)
 			return new ArrayList<Obs>();
-		else
-			return Context.getObsService().getObservationsByPersonAndConcept(p, getConcept(conceptIdentifier));
+
+		Concept concept = getConcept(conceptIdentifier);
+		List<Obs> obs = getObsSnapshot().get(concept.getConceptId());
+		if (obs == null) {
+			obs = Context.getObsService().getObservationsByPersonAndConcept(p, concept);
+			obsSnapshot.put(concept.getConceptId(), obs);
+		}
+		return new ArrayList<Obs>(obs);
 	}
 
 	/**
@@ -85,11 +108,17 @@ public class KenyaEmrVelocityFunctions {
 	 * @return the most recent obs
 	 */
 	public Obs latestObs(String conceptIdentifier) {
-		List<Obs> obs = allObs(conceptIdentifier);
-		if (obs == null || obs.isEmpty())
+		Patient p = session.getPatient();
+		if (p == null)
 			return null;
-		else
-			return obs.get(0);
+
+		Concept concept = getConcept(conceptIdentifier);
+		List<Obs> obs = getObsSnapshot().get(concept.getConceptId());
+		if (obs == null) {
+			// Concept wasn't prefetched so only fetch the most recent obs
+			obs = fetchObs(p, Collections.singletonList(concept), 1, null);
+		}
+		return obs.isEmpty() ? null : obs.get(0);
 	}
 
 	/**
@@ -99,7 +128,7 @@ public class KenyaEmrVelocityFunctions {
 	 */
 	public Obs earliestObs(String conceptIdentifier) {
 		List<Obs> obs = allObs(conceptIdentifier);
-		if (obs == null || obs.isEmpty())
+		if (obs.isEmpty())
 			return null;
 		else
 			return obs.get(obs.size() - 1);
@@ -111,16 +140,82 @@ public class KenyaEmrVelocityFunctions {
 	 * @return the obs
 	 */
 	public Obs obsToday(String conceptIdentifier) {
-		Encounter toSkip = session.getEncounter();
-		List<Person> p = Collections.singletonList((Person) session.getPatient());
-		Concept concept = Dictionary.getConcept(conceptIdentifier);
+		Patient p = session.getPatient();
+		if (p == null)
+			return null;
+
+		Concept concept = getConcept(conceptIdentifier);
 		Date startOfDay = DateUtil.getStartOfDay(new Date());
-		List<Obs> candidates = Context.getObsService().getObservations(p, null, Collections.singletonList(concept), null, null, null, null, null, null, startOfDay, null, false);
+		List<Obs> candidates = getObsSnapshot().get(concept.getConceptId());
+		if (candidates == null) {
+			candidates = fetchObs(p, Collections.singletonList(concept), null, startOfDay);
+		}
+
+		Encounter toSkip = session.getEncounter();
 		for (Obs candidate : candidates) {
+			if (candidate.getObsDatetime().before(startOfDay)) {
+				break; // Remaining candidates are older
+			}
 			if (toSkip == null || candidate.getEncounter() == null || !candidate.getEncounter().equals(toSkip)) {
 				return candidate;
 			}
 		}
 		return null;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Gets the obs snapshot, prefetching the obs of all concepts referenced in the form XML with a single query if
+	 * this is the first lookup of this session
+	 * @return the obs by concept id
+	 */
+	protected Map<Integer, List<Obs>> getObsSnapshot() {
+		if (obsSnapshot == null) {
+			obsSnapshot = new HashMap<Integer, List<Obs>>();
+
+			Set<Concept> concepts = getReferencedConcepts();
+			if (!concepts.isEmpty()) {
+				for (Concept concept : concepts) {
+					obsSnapshot.put(concept.getConceptId(), new ArrayList<Obs>());
+				}
+				for (Obs o : fetchObs(session.getPatient(), new ArrayList<Concept>(concepts), null, null)) {
+					obsSnapshot.get(o.getConcept().getConceptId()).add(o);
+				}
+			}
+		}
+		return obsSnapshot;
+	}
+
+	/**
+	 * Gets the concepts referenced by calls to the obs functions in the form XML
+	 * @return the concepts
+	 */
+	protected Set<Concept> getReferencedConcepts() {
+		Set<Concept> concepts = new LinkedHashSet<Concept>();
+		HtmlForm htmlForm = session.getHtmlForm();
+		if (htmlForm != null && htmlForm.getXmlData() != null) {
+			Matcher matcher = OBS_FUNCTION_CALL.matcher(htmlForm.getXmlData());
+			while (matcher.find()) {
+				try {
+					concepts.add(getConcept(matcher.group(1)));
+				}
+				catch (IllegalArgumentException ex) {
+					// Unknown concepts will fail again when the function is called
+				}
+			}
+		}
+		return concepts;
+	}
+
+	/**
+	 * Fetches non-voided obs of the given patient, most recent first
+	 * @param patient the patient
+	 * @param concepts the concepts
+	 * @param mostRecentN the maximum number of obs (may be null)
+	 * @param fromDate the earliest obs date (may be null)
+	 * @return the obs
+	 */
+	protected static List<Obs> fetchObs(Patient patient, List<Concept> concepts, Integer mostRecentN, Date fromDate) {
+		List<Person> whom = Collections.singletonList((Person) patient);
+		return Context.getObsService().getObservations(whom, null, concepts, null, null, null, null, mostRecentN, null, fromDate, null, false);
+	}
+}
@@ -28,7 +28,6 @@ import org.openmrs.module.htmlformentry.action.FormSubmissionControllerAction;
 import org.openmrs.module.htmlformentry.element.HtmlGeneratorElement;
 import org.openmrs.module.kenyaemr.KenyaEmr;
 import org.openmrs.module.kenyaemr.lab.LabManager;
-import org.openmrs.module.kenyaemr.lab.LabTestDefinition;
 import org.openmrs.module.kenyaemr.util.KenyaEmrUtils;
 
 import javax.servlet.http.HttpServletRequest;
@@ -41,6 +40,15 @@ public class LabTestPickerSubmissionElement implements HtmlGeneratorElement, For
 
 	protected static final Log log = LogFactory.getLog(LabTestPickerSubmissionElement.class);
 
+	private static final String PICKER_START = "<span>\n  <select id=\"ke-lab-testlist\">\n";
+
+	private static final String PICKER_END = "  </select>\n  <input type=\"button\" value=\"Add\" id=\"ke-lab-addnew\" />\n</span>\n";
+
+	private static final String ADD_BUTTON_SCRIPT = "    $j('#ke-lab-addnew').click(function() {\n"
+			+ "      var newConceptId = $j('#ke-lab-testlist').val();\n"
+			+ "      ke_labAddNewTest(newConceptId, null);\n"
+			+ "    });\n";
+
 	private String dynamicObsContainerId;
 
 	private Set<Concept> excludeTests;
@@ -85,52 +93,33 @@ public class LabTestPickerSubmissionElement implements HtmlGeneratorElement, For
 		StringBuilder sb = new StringBuilder();
 		boolean viewMode = context.getMode().equals(FormEntryContext.Mode.VIEW);
 
-		LabManager labManager = KenyaEmr.getInstance().getLabManager();
-
 		if (!viewMode) {
-			// Generate HTML for new test control
-			sb.append("<span>\n");
-			sb.append("  <select id=\"ke-lab-testlist\">\n");
-
-			for (String category : labManager.getCategories()) {
-				sb.append("    <optgroup label=\"" + category + "\">\n");
-
-				for (LabTestDefinition labTest : labManager.getTests(category)) {
-					if (!excludeTests.contains(labTest.getConcept())) {
-						sb.append("      <option value=\"" + labTest.getConcept().getConceptId() + "\">" + labTest.getName() + "</option>\n");
-					}
-				}
-
-				sb.append("    </optgroup>\n");
-			}
+			// Options are rendered once per lab catalogue and set of excluded tests
+			String optionsHtml = KenyaEmr.getInstance().getLabManager().getTestOptionsHtml(excludeTests);
 
-			sb.append("  </select>\n");
-			sb.append("  <input type=\"button\" value=\"Add\" id=\"ke-lab-addnew\" />\n");
-			sb.append("</span>\n");
+			sb.append(PICKER_START).append(optionsHtml).append(PICKER_END);
 		}
 
 		// Generate script block
 		sb.append("<script type=\"text/javascript\">\n");
 		sb.append("\n");
 		sb.append("  function ke_labAddNewTest(conceptId, initialValue) {\n");
-		sb.append("    var fieldName = '" + dynamicObsContainerId + "-' + conceptId;\n");
-		sb.append("    kenyaemr.dynamicObsField('" + dynamicObsContainerId + "', fieldName, conceptId, initialValue, " + (viewMode ? "true" : "false") + ");\n");
+		sb.append("    var fieldName = '").append(dynamicObsContainerId).append("-' + conceptId;\n");
+		sb.append("    kenyaemr.dynamicObsField('").append(dynamicObsContainerId).append("', fieldName, conceptId, initialValue, ").append(viewMode ? "true" : "false").append(");\n");
 		sb.append("  }\n");
 		sb.append("\n");
 		sb.append("  $j(function() {\n");
 
 		if (!viewMode) {
-			sb.append("    $j('#ke-lab-addnew').click(function() {\n");
-			sb.append("      var newConceptId = $j('#ke-lab-testlist').val();\n");
-			sb.append("      ke_labAddNewTest(newConceptId, null);\n");
-			sb.append("    });\n");
+			sb.append(ADD_BUTTON_SCRIPT);
 		}
 
 		sb.append("\n");
 
-		for (Concept existingConcept : existingObss.keySet()) {
-			for (Obs existingObs : existingObss.get(existingConcept)) {
-				sb.append("    ke_labAddNewTest(" + existingConcept + ", " + getObsValueJS(existingObs) + ");\n");
+		for (Map.Entry<Concept, List<Obs>> existingEntry : existingObss.entrySet()) {
+			Integer conceptId = existingEntry.getKey().getConceptId();
+			for (Obs existingObs : existingEntry.getValue()) {
+				sb.append("    ke_labAddNewTest(").append(conceptId).append(", ").append(getObsValueJS(existingObs)).append(");\n");
 			}
 		}
 
@@ -27,6 +27,11 @@ import org.openmrs.module.kenyaemr.api.ConfigurationRequiredException;
 import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.springframework.stereotype.Component;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Patient identifier manager
  */
@@ -37,17 +42,38 @@ public class IdentifierManager {
 	private static final String HIV_UNIQUE_PATIENT_NUMBER_NAME = "Kenya EMR - OpenMRS HIV Unique Patient Number";
 
 	/**
-	 * Gets whether all identifier types are configured
+	 * Ids of the non-retired identifier sources by name
+	 */
+	private volatile Map<String, Integer> identifierSourceIds;
+
+	/**
+	 * Incremented on each invalidation so that ids fetched during an invalidation aren't cached
+	 */
+	private final AtomicInteger identifierSourcesGeneration = new AtomicInteger();
+
+	/**
+	 * Clears any cached identifier sources
+	 */
+	public void refresh() {
+		invalidateIdentifierSources();
+	}
+
+	/**
+	 * Clears the cached identifier source ids, e.g. because an identifier source has been saved
+	 */
+	public void invalidateIdentifierSources() {
+		identifierSourcesGeneration.incrementAndGet();
+		identifierSourceIds = null;
+	}
+
+	/**
+	 * Gets whether all identifier types are configured. Once the identifier sources have been looked up, this doesn't
+	 * access the database.
 	 * @return true if all types are configured
 	 */
 	public boolean isConfigured() {
-		try {
-			getMrnIdentifierSource();
-			getHivUniqueIdentifierSource();
-			return true;
-		} catch (ConfigurationRequiredException ex) {
-			return false;
-		}
+		Map<String, Integer> sourceIds = getIdentifierSourceIds();
+		return sourceIds.containsKey(OPENMRS_MEDICAL_RECORD_NUMBER_NAME) && sourceIds.containsKey(HIV_UNIQUE_PATIENT_NUMBER_NAME);
 	}
 
 	/**
@@ -120,6 +146,8 @@ public class IdentifierManager {
 		if (comment == null) {
 			comment = "Kenya EMR Service";
 		}
+
+		// Generated one at a time, so that idgen's log records the comment for each number handed out
 		IdentifierSource source = getHivUniqueIdentifierSource();
 		String prefix = Context.getService(KenyaEmrService.class).getDefaultLocationMflCode();
 		String sequentialNumber = Context.getService(IdentifierSourceService.class).generateIdentifier(source, comment);
@@ -127,17 +155,47 @@ public class IdentifierManager {
 	}
 
 	/**
-	 * Gets the identifier source with the given name
+	 * Gets the identifier source with the given name. Sources are looked up by their cached id, so that the source
+	 * itself, including its sequence, is always current.
 	 * @param name the source name
 	 * @return the source
 	 */
 	protected IdentifierSource getIdentifierSource(String name) {
-		for (IdentifierSource source : Context.getService(IdentifierSourceService.class).getAllIdentifierSources(false)) {
-			if (source.getName().equals(name)) {
-				return source;
+		Integer sourceId = getIdentifierSourceIds().get(name);
+		if (sourceId == null) {
+			return null;
+		}
+
+		IdentifierSource source = Context.getService(IdentifierSourceService.class).getIdentifierSource(sourceId);
+		if (source == null || source.isRetired()) {
+			// Cached id is stale so look up the sources again
+			invalidateIdentifierSources();
+			sourceId = getIdentifierSourceIds().get(name);
+			source = sourceId != null ? Context.getService(IdentifierSourceService.class).getIdentifierSource(sourceId) : null;
+		}
+		return source;
+	}
+
+	/**
+	 * Gets the ids of the non-retired identifier sources by name, fetching them if they aren't cached
+	 * @return the source ids
+	 */
+	protected Map<String, Integer> getIdentifierSourceIds() {
+		Map<String, Integer> sourceIds = identifierSourceIds;
+		if (sourceIds == null) {
+			int fetchedGeneration = identifierSourcesGeneration.get();
+
+			sourceIds = new HashMap<String, Integer>();
+			for (IdentifierSource source : Context.getService(IdentifierSourceService.class).getAllIdentifierSources(false)) {
+				sourceIds.put(source.getName(), source.getId());
+			}
+			sourceIds = Collections.unmodifiableMap(sourceIds);
+
+			if (identifierSourcesGeneration.get() == fetchedGeneration) {
+				identifierSourceIds = sourceIds;
 			}
 		}
-		return null;
+		return sourceIds;
 	}
 
 	/**
@@ -190,6 +248,7 @@ public class IdentifierManager {
 		idGen.setBaseCharacterSet(baseCharacterSet);
 		idGen.setFirstIdentifierBase(startFrom);
 		idService.saveIdentifierSource(idGen);
+		invalidateIdentifierSources();
 
 		AutoGenerationOption auto = new AutoGenerationOption(idType, idGen, true, true);
 		idService.saveAutoGenerationOption(auto);
@@ -16,23 +16,24 @@ package org.openmrs.module.kenyaemr.lab;
 
 import org.apache.commons.lang3.StringUtils;
 import org.openmrs.Concept;
-import org.openmrs.api.context.Context;
-import org.openmrs.util.OpenmrsUtil;
+import org.openmrs.module.kenyaemr.Dictionary;
 import org.springframework.stereotype.Component;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import java.io.IOException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Lab manager
@@ -40,16 +41,24 @@ import java.util.Map;
 @Component
 public class LabManager {
 
-	private Map<String, List<LabTestDefinition>> tests = new LinkedHashMap<String, List<LabTestDefinition>>();
+	private static final String OPTION_GROUP_END = "    </optgroup>\n";
+
+	/**
+	 * Maximum number of distinct sets of excluded tests for which filtered options are kept
+	 */
+	private static final int MAX_CACHED_FILTERED_OPTIONS = 100;
+
+	/**
+	 * The current catalogue of tests. This is replaced rather than modified so readers never need to lock
+	 */
+	private volatile Catalogue catalogue = new Catalogue(new LinkedHashMap<String, List<LabTestDefinition>>(), 0);
 
 	/**
 	 * Gets the categories
 	 * @return the list of categories
 	 */
 	public List<String> getCategories() {
-		List<String> categories = new ArrayList<String>();
-		categories.addAll(tests.keySet());
-		return categories;
+		return new ArrayList<String>(catalogue.getTests().keySet());
 	}
 
 	/**
@@ -58,7 +67,7 @@ public class LabManager {
 	 * @return the list of tests
 	 */
 	public List<LabTestDefinition> getTests(String category) {
-		return tests.get(category);
+		return catalogue.getTests().get(category);
 	}
 
 	/**
@@ -67,64 +76,250 @@ public class LabManager {
 	 * @return true if concept is a lab test
 	 */
 	public boolean isLabTest(Concept concept) {
-		for (Map.Entry<String, List<LabTestDefinition>> entry : tests.entrySet()) {
-			for (LabTestDefinition test : entry.getValue()) {
-				if (test.getConcept().equals(concept)) {
-					return true;
-				}
-			}
+		return concept != null && catalogue.getTestsByConceptId().containsKey(concept.getConceptId());
+	}
+
+	/**
+	 * Gets the select options for all tests, grouped by category
+	 * @param excludeTests the test concepts to leave out
+	 * @return the options HTML
+	 */
+	public String getTestOptionsHtml(Set<Concept> excludeTests) {
+		Catalogue current = catalogue;
+		if (excludeTests == null || excludeTests.isEmpty()) {
+			return current.getOptionsHtml();
+		}
+
+		Set<Integer> excludeConceptIds = new HashSet<Integer>();
+		for (Concept concept : excludeTests) {
+			excludeConceptIds.add(concept.getConceptId());
 		}
-		return false;
+
+		return current.getOptionsHtml(excludeConceptIds);
+	}
+
+	/**
+	 * Gets the version of the current test catalogue, which changes every time tests are loaded or cleared
+	 * @return the version
+	 */
+	public int getVersion() {
+		return catalogue.getVersion();
 	}
 
 	/**
 	 * Clears the list of tests
 	 */
 	public synchronized void clear() {
-		tests.clear();
+		catalogue = new Catalogue(new LinkedHashMap<String, List<LabTestDefinition>>(), catalogue.getVersion() + 1);
 	}
 
 	/**
-	 * Loads the lab definitions from an XML resource
+	 * Loads the lab definitions from an XML resource. Tests are added to a copy of the current catalogue which then
+	 * replaces it, so readers see either all or none of the loaded tests.
 	 * @param stream the stream containing the XML
-	 * @throws ParserConfigurationException
-	 * @throws IOException
-	 * @throws SAXException
+	 * @throws XMLStreamException if the XML is malformed
+	 */
+	public synchronized void loadTestsFromXML(InputStream stream) throws XMLStreamException {
+		Map<String, List<LabTestDefinition>> tests = new LinkedHashMap<String, List<LabTestDefinition>>(catalogue.getTests());
+		parseTests(stream, tests);
+		catalogue = new Catalogue(tests, catalogue.getVersion() + 1);
+	}
+
+	/**
+	 * Replaces all lab definitions with those from an XML resource. Current tests remain in use until the new ones
+	 * have been parsed and validated.
+	 * @param stream the stream containing the XML
+	 * @throws XMLStreamException if the XML is malformed
+	 */
+	public synchronized void reloadTestsFromXML(InputStream stream) throws XMLStreamException {
+		Map<String, List<LabTestDefinition>> tests = new LinkedHashMap<String, List<LabTestDefinition>>();
+		parseTests(stream, tests);
+		catalogue = new Catalogue(tests, catalogue.getVersion() + 1);
+	}
+
+	/**
+	 * Parses lab definitions from XML into the given map of tests by category, checking that test concepts exist
+	 * @param stream the stream containing the XML
+	 * @param tests the tests by category
+	 * @throws XMLStreamException if the XML is malformed
+	 */
+	private void parseTests(InputStream stream, Map<String, List<LabTestDefinition>> tests) throws XMLStreamException {
+		XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(stream);
+
+		List<LabTestDefinition> testsForCategory = null;
+
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+
+				String element = reader.getLocalName();
+
+				if ("category".equals(element)) {
+					testsForCategory = new ArrayList<LabTestDefinition>();
+					tests.put(reader.getAttributeValue(null, "name"), testsForCategory);
+				}
+				else if ("test".equals(element)) {
+					String testConceptIdentifier = reader.getAttributeValue(null, "concept");
+					String testName = reader.getAttributeValue(null, "name");
+
+					if (testsForCategory == null) {
+						throw new RuntimeException("Lab test " + testConceptIdentifier + " is not inside a category");
+					}
+
+					try {
+						Dictionary.getConcept(testConceptIdentifier);
+					}
+					catch (IllegalArgumentException ex) {
+						throw new RuntimeException("Lab test references invalid concept: " + testConceptIdentifier, ex);
+					}
+
+					LabTestDefinition testDefinition;
+					if (StringUtils.isEmpty(testName)) {
+						testDefinition = new LabTestDefinition(testConceptIdentifier);
+					} else {
+						testDefinition = new LabTestDefinition(testConceptIdentifier, testName);
+					}
+
+					testsForCategory.add(testDefinition);
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Renders the opening tag of a select option group
+	 * @param category the category
+	 * @return the tag HTML
+	 */
+	private static String optionGroupStart(String category) {
+		return "    <optgroup label=\"" + category + "\">\n";
+	}
+
+	/**
+	 * Immutable snapshot of the loaded test definitions, indexed by concept id, along with their rendered select options
 	 */
-	public synchronized void loadTestsFromXML(InputStream stream) throws ParserConfigurationException, IOException, SAXException {
-		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder builder = dbFactory.newDocumentBuilder();
-
-		Document document = builder.parse(stream);
-
-		Element root = document.getDocumentElement();
-
-		// Parse each category
-		NodeList categoryNodes = root.getElementsByTagName("category");
-		for (int c = 0; c < categoryNodes.getLength(); c++) {
-			Element categoryElement = (Element) categoryNodes.item(c);
-			String categoryName = categoryElement.getAttribute("name");
-
-			List<LabTestDefinition> testsForCategory = new ArrayList<LabTestDefinition>();
-
-			// Parse all tests for this category
-			NodeList testNodes = categoryElement.getElementsByTagName("test");
-			for (int t = 0; t < testNodes.getLength(); t++) {
-				Element testElement = (Element) testNodes.item(t);
-				String testConceptIdentifier = testElement.getAttribute("concept");
-				String testName = testElement.getAttribute("name");
-
-				LabTestDefinition testDefinition;
-				if (StringUtils.isEmpty(testName)) {
-					testDefinition = new LabTestDefinition(testConceptIdentifier);
-				} else {
-					testDefinition = new LabTestDefinition(testConceptIdentifier, testName);
+	private static class Catalogue {
+
+		private final int version;
+
+		private final Map<String, List<LabTestDefinition>> tests;
+
+		private final Map<Integer, LabTestDefinition> testsByConceptId;
+
+		private final Map<String, Map<Integer, String>> optionsByCategory;
+
+		private final String optionsHtml;
+
+		/**
+		 * Rendered options by the concept ids of the excluded tests, built on first use
+		 */
+		private final ConcurrentMap<Set<Integer>, String> filteredOptionsHtml = new ConcurrentHashMap<Set<Integer>, String>();
+
+		/**
+		 * Creates a catalogue from the given tests by category. Test concepts are resolved once here.
+		 * @param tests the tests by category
+		 * @param version the version
+		 */
+		public Catalogue(Map<String, List<LabTestDefinition>> tests, int version) {
+			Map<String, List<LabTestDefinition>> copy = new LinkedHashMap<String, List<LabTestDefinition>>();
+			Map<Integer, LabTestDefinition> byConceptId = new HashMap<Integer, LabTestDefinition>();
+			Map<String, Map<Integer, String>> options = new LinkedHashMap<String, Map<Integer, String>>();
+			StringBuilder sb = new StringBuilder();
+
+			for (Map.Entry<String, List<LabTestDefinition>> entry : tests.entrySet()) {
+				String category = entry.getKey();
+				Map<Integer, String> categoryOptions = new LinkedHashMap<Integer, String>();
+
+				sb.append(optionGroupStart(category));
+
+				for (LabTestDefinition test : entry.getValue()) {
+					Integer conceptId = test.getConcept().getConceptId();
+					String option = "      <option value=\"" + conceptId + "\">" + test.getName() + "</option>\n";
+
+					byConceptId.put(conceptId, test);
+					categoryOptions.put(conceptId, option);
+					sb.append(option);
 				}
 
-				testsForCategory.add(testDefinition);
+				sb.append(OPTION_GROUP_END);
+
+				copy.put(category, Collections.unmodifiableList(new ArrayList<LabTestDefinition>(entry.getValue())));
+				options.put(category, Collections.unmodifiableMap(categoryOptions));
 			}
 
-			tests.put(categoryName, testsForCategory);
+			this.version = version;
+			this.tests = Collections.unmodifiableMap(copy);
+			this.testsByConceptId = Collections.unmodifiableMap(byConceptId);
+			this.optionsByCategory = Collections.unmodifiableMap(options);
+			this.optionsHtml = sb.toString();
+		}
+
+		/**
+		 * Gets the version
+		 * @return the version
+		 */
+		public int getVersion() {
+			return version;
+		}
+
+		/**
+		 * Gets the tests by category
+		 * @return the tests
+		 */
+		public Map<String, List<LabTestDefinition>> getTests() {
+			return tests;
+		}
+
+		/**
+		 * Gets the tests by concept id
+		 * @return the tests
+		 */
+		public Map<Integer, LabTestDefinition> getTestsByConceptId() {
+			return testsByConceptId;
+		}
+
+		/**
+		 * Gets the rendered options for all tests
+		 * @return the options HTML
+		 */
+		public String getOptionsHtml() {
+			return optionsHtml;
+		}
+
+		/**
+		 * Gets the rendered options for all tests except those excluded. These are rendered once for each set of
+		 * excluded tests.
+		 * @param excludeConceptIds the concept ids of the tests to leave out
+		 * @return the options HTML
+		 */
+		public String getOptionsHtml(Set<Integer> excludeConceptIds) {
+			String html = filteredOptionsHtml.get(excludeConceptIds);
+			if (html == null) {
+				StringBuilder sb = new StringBuilder();
+				for (Map.Entry<String, Map<Integer, String>> categoryEntry : optionsByCategory.entrySet()) {
+					sb.append(optionGroupStart(categoryEntry.getKey()));
+
+					for (Map.Entry<Integer, String> optionEntry : categoryEntry.getValue().entrySet()) {
+						if (!excludeConceptIds.contains(optionEntry.getKey())) {
+							sb.append(optionEntry.getValue());
+						}
+					}
+
+					sb.append(OPTION_GROUP_END);
+				}
+				html = sb.toString();
+
+				if (filteredOptionsHtml.size() >= MAX_CACHED_FILTERED_OPTIONS) {
+					filteredOptionsHtml.clear();
+				}
+				filteredOptionsHtml.put(Collections.unmodifiableSet(excludeConceptIds), html);
+			}
+			return html;
 		}
 	}
 }
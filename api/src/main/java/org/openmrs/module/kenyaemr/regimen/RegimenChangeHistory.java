@@ -49,9 +49,19 @@ public class RegimenChangeHistory {
 	 * @return the regimen history
 	 */
 	public static RegimenChangeHistory forPatient(Patient patient, Concept medSet) {
-		Set<Concept> relevantGenerics = new HashSet<Concept>(medSet.getSetMembers());
 		@SuppressWarnings("deprecation")
 		List<DrugOrder> allDrugOrders = Context.getOrderService().getDrugOrdersByPatient(patient);
+		return fromDrugOrders(allDrugOrders, medSet);
+	}
+
+	/**
+	 * Generates a regimen order history from drug orders which have already been loaded
+	 * @param allDrugOrders all drug orders of a patient
+	 * @param medSet the medset concept defining the list of relevant drug concepts
+	 * @return the regimen history
+	 */
+	public static RegimenChangeHistory fromDrugOrders(List<DrugOrder> allDrugOrders, Concept medSet) {
+		Set<Concept> relevantGenerics = new HashSet<Concept>(medSet.getSetMembers());
 		return new RegimenChangeHistory(relevantGenerics, allDrugOrders);
 	}
 	
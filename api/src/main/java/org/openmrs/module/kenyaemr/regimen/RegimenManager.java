@@ -20,15 +20,11 @@ import org.openmrs.Concept;
 import org.openmrs.DrugOrder;
 import org.openmrs.api.context.Context;
 import org.springframework.stereotype.Component;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import java.io.IOException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.InputStream;
 import java.util.*;
 
@@ -38,18 +34,17 @@ import java.util.*;
 @Component
 public class RegimenManager {
 
-	private Map<String, Integer> masterSetConcepts = new LinkedHashMap<String, Integer>();
-
-	private Map<String, Map<String, DrugReference>> drugs = new LinkedHashMap<String, Map<String, DrugReference>>();
-
-	private Map<String, List<RegimenDefinitionGroup>> regimenGroups = new LinkedHashMap<String, List<RegimenDefinitionGroup>>();
+	/**
+	 * The current catalogue of regimens. This is replaced rather than modified so readers never need to lock
+	 */
+	private volatile Catalogue catalogue = new Catalogue(0).publish();
 
 	/**
 	 * Gets the category codes
 	 * @return the category codes
 	 */
 	public Set<String> getCategoryCodes() {
-		return masterSetConcepts.keySet();
+		return catalogue.masterSetConcepts.keySet();
 	}
 
 	/**
@@ -58,7 +53,7 @@ public class RegimenManager {
 	 * @return the concept
 	 */
 	public Concept getMasterSetConcept(String category) {
-		Integer conceptId = masterSetConcepts.get(category);
+		Integer conceptId = catalogue.masterSetConcepts.get(category);
 		return conceptId != null ? Context.getConceptService().getConcept(conceptId) : null;
 	}
 
@@ -68,7 +63,7 @@ public class RegimenManager {
 	 * @return the concept ids or null if category isn't defined
 	 */
 	public Collection<DrugReference> getDrugs(String category) {
-		Map<String, DrugReference> drugsForCategory = drugs.get(category);
+		Map<String, DrugReference> drugsForCategory = catalogue.drugs.get(category);
 		return (drugsForCategory != null) ? drugsForCategory.values() : null;
 	}
 
@@ -78,7 +73,7 @@ public class RegimenManager {
 	 * @return the regimen groups
 	 */
 	public List<RegimenDefinitionGroup> getRegimenGroups(String category) {
-		return regimenGroups.get(category);
+		return catalogue.regimenGroups.get(category);
 	}
 
 	/**
@@ -89,7 +84,7 @@ public class RegimenManager {
 	 * @return the definitions
 	 */
 	public List<RegimenDefinition> findDefinitions(String category, RegimenOrder regimenOrder, boolean exact) {
-		List<RegimenDefinitionGroup> groups = regimenGroups.get(category);
+		List<RegimenDefinitionGroup> groups = catalogue.regimenGroups.get(category);
 		if (groups == null) {
 			throw new IllegalArgumentException("No such category: " + category);
 		}
@@ -138,82 +133,114 @@ public class RegimenManager {
 		return matches;
 	}
 
+	/**
+	 * Gets the version of the current regimen catalogue, which changes every time definitions are loaded or cleared
+	 * @return the version
+	 */
+	public int getVersion() {
+		return catalogue.version;
+	}
+
 	/**
 	 * Clears all regimen and drugs
 	 */
 	public synchronized void clear() {
-		masterSetConcepts.clear();
-		drugs.clear();
-		regimenGroups.clear();
+		catalogue = new Catalogue(catalogue.version + 1).publish();
 	}
 
 	/**
-	 * Loads definitions from an input stream containing XML
+	 * Loads definitions from an input stream containing XML. Definitions are added to a copy of the current catalogue
+	 * which then replaces it, so readers see either all or none of the loaded definitions.
 	 * @param stream the path to XML resource
-	 * @throws ParserConfigurationException
-	 * @throws IOException
-	 * @throws SAXException
+	 * @throws XMLStreamException if the XML is malformed
 	 */
-	public synchronized void loadDefinitionsFromXML(InputStream stream) throws ParserConfigurationException, IOException, SAXException {
-		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder builder = dbFactory.newDocumentBuilder();
+	public synchronized void loadDefinitionsFromXML(InputStream stream) throws XMLStreamException {
+		Catalogue updated = new Catalogue(catalogue);
+		parseDefinitions(stream, updated);
+		catalogue = updated.publish();
+	}
 
-		Document document = builder.parse(stream);
+	/**
+	 * Replaces all definitions with those from an input stream containing XML. Current definitions remain in use
+	 * until the new ones have been parsed and validated.
+	 * @param stream the path to XML resource
+	 * @throws XMLStreamException if the XML is malformed
+	 */
+	public synchronized void reloadDefinitionsFromXML(InputStream stream) throws XMLStreamException {
+		Catalogue updated = new Catalogue(catalogue.version + 1);
+		parseDefinitions(stream, updated);
+		catalogue = updated.publish();
+	}
 
-		Element root = document.getDocumentElement();
+	/**
+	 * Parses definitions from XML into the given catalogue, checking referenced concepts and drugs exist
+	 * @param stream the path to XML resource
+	 * @param catalogue the catalogue to add to
+	 * @throws XMLStreamException if the XML is malformed
+	 */
+	private void parseDefinitions(InputStream stream, Catalogue catalogue) throws XMLStreamException {
+		XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(stream);
 
-		// Parse each category
-		NodeList categoryNodes = root.getElementsByTagName("category");
-		for (int c = 0; c < categoryNodes.getLength(); c++) {
-			Element categoryElement = (Element)categoryNodes.item(c);
-			String categoryCode = categoryElement.getAttribute("code");
-			String masterSetUuid = categoryElement.getAttribute("masterSetUuid");
+		String categoryCode = null;
+		Map<String, DrugReference> categoryDrugs = null;
+		List<RegimenDefinitionGroup> categoryGroups = null;
+		RegimenDefinitionGroup group = null;
+		RegimenDefinition regimenDefinition = null;
 
-			Concept masterSetConcept = Context.getConceptService().getConceptByUuid(masterSetUuid);
-			masterSetConcepts.put(categoryCode, masterSetConcept.getConceptId());
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
 
-			Map<String, DrugReference> categoryDrugs = new HashMap<String, DrugReference>();
-			List<RegimenDefinitionGroup> categoryGroups = new ArrayList<RegimenDefinitionGroup>();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String element = reader.getLocalName();
 
-			// Parse all drug concepts for this category
-			NodeList drugNodes = categoryElement.getElementsByTagName("drug");
-			for (int d = 0; d < drugNodes.getLength(); d++) {
-				Element drugElement = (Element)drugNodes.item(d);
-				String drugCode = drugElement.getAttribute("code");
-				String drugConceptUuid = drugElement.hasAttribute("conceptUuid") ? drugElement.getAttribute("conceptUuid") : null;
-				String drugDrugUuid = drugElement.hasAttribute("drugUuid") ? drugElement.getAttribute("drugUuid") : null;
+					if ("category".equals(element)) {
+						categoryCode = reader.getAttributeValue(null, "code");
+						String masterSetUuid = reader.getAttributeValue(null, "masterSetUuid");
 
-				DrugReference drug = (drugDrugUuid != null) ? DrugReference.fromDrugUuid(drugDrugUuid) : DrugReference.fromConceptUuid(drugConceptUuid);
+						Concept masterSetConcept = Context.getConceptService().getConceptByUuid(masterSetUuid);
+						if (masterSetConcept == null)
+							throw new RuntimeException("Regimen category references invalid master set concept: " + masterSetUuid);
 
-				categoryDrugs.put(drugCode, drug);
-			}
+						catalogue.masterSetConcepts.put(categoryCode, masterSetConcept.getConceptId());
+
+						categoryDrugs = new HashMap<String, DrugReference>();
+						categoryGroups = new ArrayList<RegimenDefinitionGroup>();
+					}
+					else if ("drug".equals(element)) {
+						String drugCode = reader.getAttributeValue(null, "code");
+						String drugConceptUuid = reader.getAttributeValue(null, "conceptUuid");
+						String drugDrugUuid = reader.getAttributeValue(null, "drugUuid");
+
+						DrugReference drug;
+						if (drugDrugUuid != null) {
+							if (Context.getConceptService().getDrugByUuid(drugDrugUuid) == null)
+								throw new RuntimeException("Regimen drug " + drugCode + " references invalid drug: " + drugDrugUuid);
+
+							drug = DrugReference.fromDrugUuid(drugDrugUuid);
+						}
+						else {
+							if (drugConceptUuid == null || Context.getConceptService().getConceptByUuid(drugConceptUuid) == null)
+								throw new RuntimeException("Regimen drug " + drugCode + " references invalid concept: " + drugConceptUuid);
 
-			// Parse all groups for this category
-			NodeList groupNodes = categoryElement.getElementsByTagName("group");
-			for (int g = 0; g < groupNodes.getLength(); g++) {
-				Element groupElement = (Element)groupNodes.item(g);
-				String groupCode = groupElement.getAttribute("code");
-				String groupName = groupElement.getAttribute("name");
-
-			   	RegimenDefinitionGroup group = new RegimenDefinitionGroup(groupCode, groupName);
-				categoryGroups.add(group);
-
-				// Parse all regimen definitions for this group
-				NodeList regimenNodes = groupElement.getElementsByTagName("regimen");
-				for (int r = 0; r < regimenNodes.getLength(); r++) {
-					Element regimenElement = (Element)regimenNodes.item(r);
-					String name = regimenElement.getAttribute("name");
-
-					RegimenDefinition regimenDefinition = new RegimenDefinition(name, group);
-
-					// Parse all components for this regimen
-					NodeList componentNodes = regimenElement.getElementsByTagName("component");
-					for (int p = 0; p < componentNodes.getLength(); p++) {
-						Element componentElement = (Element)componentNodes.item(p);
-						String drugCode = componentElement.getAttribute("drugCode");
-						Double dose = componentElement.hasAttribute("dose") ? Double.parseDouble(componentElement.getAttribute("dose")) : null;
-						String units = componentElement.hasAttribute("units") ? componentElement.getAttribute("units") : null;
-						String frequency = componentElement.hasAttribute("frequency") ? componentElement.getAttribute("frequency") : null;
+							drug = DrugReference.fromConceptUuid(drugConceptUuid);
+						}
+
+						categoryDrugs.put(drugCode, drug);
+					}
+					else if ("group".equals(element)) {
+						group = new RegimenDefinitionGroup(reader.getAttributeValue(null, "code"), reader.getAttributeValue(null, "name"));
+						categoryGroups.add(group);
+					}
+					else if ("regimen".equals(element)) {
+						regimenDefinition = new RegimenDefinition(reader.getAttributeValue(null, "name"), group);
+					}
+					else if ("component".equals(element)) {
+						String drugCode = reader.getAttributeValue(null, "drugCode");
+						String doseValue = reader.getAttributeValue(null, "dose");
+						Double dose = doseValue != null ? Double.parseDouble(doseValue) : null;
+						String units = reader.getAttributeValue(null, "units");
+						String frequency = reader.getAttributeValue(null, "frequency");
 
 						DrugReference drug = categoryDrugs.get(drugCode);
 						if (drug == null)
@@ -221,13 +248,73 @@ public class RegimenManager {
 
 						regimenDefinition.addComponent(drug, dose, units, frequency);
 					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					String element = reader.getLocalName();
 
-					group.addRegimen(regimenDefinition);
+					if ("regimen".equals(element)) {
+						group.addRegimen(regimenDefinition);
+						regimenDefinition = null;
+					}
+					else if ("group".equals(element)) {
+						group = null;
+					}
+					else if ("category".equals(element)) {
+						catalogue.drugs.put(categoryCode, Collections.unmodifiableMap(categoryDrugs));
+						catalogue.regimenGroups.put(categoryCode, Collections.unmodifiableList(categoryGroups));
+					}
 				}
 			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Snapshot of the loaded regimen definitions. Only modified before it is published.
+	 */
+	private static class Catalogue {
+
+		private final int version;
+
+		private Map<String, Integer> masterSetConcepts;
+
+		private Map<String, Map<String, DrugReference>> drugs;
+
+		private Map<String, List<RegimenDefinitionGroup>> regimenGroups;
+
+		/**
+		 * Creates an empty catalogue
+		 * @param version the version
+		 */
+		public Catalogue(int version) {
+			this.version = version;
+			this.masterSetConcepts = new LinkedHashMap<String, Integer>();
+			this.drugs = new LinkedHashMap<String, Map<String, DrugReference>>();
+			this.regimenGroups = new LinkedHashMap<String, List<RegimenDefinitionGroup>>();
+		}
+
+		/**
+		 * Creates a modifiable copy of another catalogue with the next version number
+		 * @param other the other catalogue
+		 */
+		public Catalogue(Catalogue other) {
+			this.version = other.version + 1;
+			this.masterSetConcepts = new LinkedHashMap<String, Integer>(other.masterSetConcepts);
+			this.drugs = new LinkedHashMap<String, Map<String, DrugReference>>(other.drugs);
+			this.regimenGroups = new LinkedHashMap<String, List<RegimenDefinitionGroup>>(other.regimenGroups);
+		}
 
-			drugs.put(categoryCode, categoryDrugs);
-			regimenGroups.put(categoryCode, categoryGroups);
+		/**
+		 * Makes this catalogue unmodifiable so that it can be published
+		 * @return this catalogue
+		 */
+		public Catalogue publish() {
+			masterSetConcepts = Collections.unmodifiableMap(masterSetConcepts);
+			drugs = Collections.unmodifiableMap(drugs);
+			regimenGroups = Collections.unmodifiableMap(regimenGroups);
+			return this;
 		}
 	}
-}
\ No newline at end of file
+}
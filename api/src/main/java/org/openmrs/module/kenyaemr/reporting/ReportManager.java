@@ -30,26 +30,49 @@ public class ReportManager {
 
 	protected static final Log log = LogFactory.getLog(ReportManager.class);
 
-	private Map<String, ReportBuilder> reportBuilders = new LinkedHashMap<String, ReportBuilder>();
+	/**
+	 * Registered report builders by class name. This is replaced rather than modified, and is null until registration
+	 */
+	private volatile Map<String, ReportBuilder> reportBuilders = null;
 
 	/**
 	 * Clears all reports
 	 */
 	public synchronized void clear() {
-		reportBuilders.clear();
+		reportBuilders = null;
 	}
 
 	/**
-	 * Refreshes the list of report builders from application context
+	 * Refreshes the list of report builders. Report builders are fetched from the application context on first use.
 	 */
 	public synchronized void refresh() {
 		clear();
+	}
+
+	/**
+	 * Gets the registered report builders, registering them if that hasn't yet happened since the last refresh
+	 * @return the report builders by class name
+	 */
+	protected Map<String, ReportBuilder> getReportBuilders() {
+		Map<String, ReportBuilder> current = reportBuilders;
+		if (current == null) {
+			synchronized (this) {
+				current = reportBuilders;
+				if (current == null) {
+					Map<String, ReportBuilder> registered = new LinkedHashMap<String, ReportBuilder>();
 
-		for (ReportBuilder builder : Context.getRegisteredComponents(ReportBuilder.class)) {
-			reportBuilders.put(builder.getClass().getName(), builder);
+					for (ReportBuilder builder : Context.getRegisteredComponents(ReportBuilder.class)) {
+						registered.put(builder.getClass().getName(), builder);
 
-			log.info("Found report builder class :" + builder.getClass().getName());
+						log.info("Found report builder class :" + builder.getClass().getName());
+					}
+
+					current = Collections.unmodifiableMap(registered);
+					reportBuilders = current;
+				}
+			}
 		}
+		return current;
 	}
 
 	/**
@@ -58,7 +81,7 @@ public class ReportManager {
 	 * @return the report builder
 	 */
 	public ReportBuilder getReportBuilder(String className) {
-		return reportBuilders.get(className);
+		return getReportBuilders().get(className);
 	}
 
 	/**
@@ -66,7 +89,7 @@ public class ReportManager {
 	 * @@return the list of report builders
 	 */
 	public List<ReportBuilder> getAllReportBuilders() {
-		return new ArrayList<ReportBuilder>(reportBuilders.values());
+		return new ArrayList<ReportBuilder>(getReportBuilders().values());
 	}
 
 	/**
@@ -76,7 +99,7 @@ public class ReportManager {
 	 */
 	public List<ReportBuilder> getReportBuildersByTag(String tag) {
 		List<ReportBuilder> ret = new ArrayList<ReportBuilder>();
-		for (ReportBuilder candidate : reportBuilders.values()) {
+		for (ReportBuilder candidate : getReportBuilders().values()) {
 			if (candidate.getTags() != null && Arrays.asList(candidate.getTags()).contains(tag)) {
 				ret.add(candidate);
 			}
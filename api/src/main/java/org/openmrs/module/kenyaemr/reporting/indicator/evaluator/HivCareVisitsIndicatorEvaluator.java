@@ -23,6 +23,8 @@ import org.openmrs.annotation.Handler;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.kenyaemr.Dictionary;
 import org.openmrs.module.kenyaemr.Metadata;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.appointment.Appointment;
 import org.openmrs.module.kenyaemr.reporting.indicator.HivCareVisitsIndicator;
 import org.openmrs.module.kenyaemr.reporting.library.cohort.CommonCohortLibrary;
 import org.openmrs.module.reporting.cohort.EvaluatedCohort;
@@ -83,15 +85,17 @@ public class HivCareVisitsIndicatorEvaluator implements IndicatorEvaluator {
 			}
 		}
 		else if (HivCareVisitsIndicator.Filter.SCHEDULED.equals(visitIndicator.getFilter())) {
+			Map<Integer, List<Date>> scheduledDates = getScheduledDates(hivCareEncounters);
 			for (Encounter enc : hivCareEncounters) {
-				if (wasScheduledVisit(enc)) {
+				if (wasScheduledVisit(enc, scheduledDates)) {
 					filtered.add(enc);
 				}
 			}
 		}
 		else if (HivCareVisitsIndicator.Filter.UNSCHEDULED.equals(visitIndicator.getFilter())) {
+			Map<Integer, List<Date>> scheduledDates = getScheduledDates(hivCareEncounters);
 			for (Encounter enc : hivCareEncounters) {
-				if (!wasScheduledVisit(enc)) {
+				if (!wasScheduledVisit(enc, scheduledDates)) {
 					filtered.add(enc);
 				}
 			}
@@ -108,12 +112,35 @@ public class HivCareVisitsIndicatorEvaluator implements IndicatorEvaluator {
 		return result;
 	}
 
+	/**
+	 * Gets the scheduled appointment dates of the patients of the given encounters
+	 * @param encounters the encounters
+	 * @return the scheduled dates by patient id
+	 */
+	private Map<Integer, List<Date>> getScheduledDates(List<Encounter> encounters) {
+		Set<Integer> patientIds = new HashSet<Integer>();
+		for (Encounter encounter : encounters) {
+			patientIds.add(encounter.getPatient().getPatientId());
+		}
+
+		Map<Integer, List<Date>> scheduledDates = new HashMap<Integer, List<Date>>();
+		for (Appointment appointment : Context.getService(KenyaEmrService.class).getAppointments(patientIds, null)) {
+			Integer patientId = appointment.getPatient().getPatientId();
+			if (!scheduledDates.containsKey(patientId)) {
+				scheduledDates.put(patientId, new ArrayList<Date>());
+			}
+			scheduledDates.get(patientId).add(appointment.getScheduledDate());
+		}
+		return scheduledDates;
+	}
+
 	/**
 	 * Determines whether the given encounter was part of a scheduled visit
 	 * @param encounter the encounter
+	 * @param scheduledDates the scheduled appointment dates by patient id
 	 * @return true if was part of scheduled visit
 	 */
-	private boolean wasScheduledVisit(Encounter encounter) {
+	private boolean wasScheduledVisit(Encounter encounter, Map<Integer, List<Date>> scheduledDates) {
 		// Firstly look for a scheduled visit obs which has value = true
 		Concept scheduledVisit = Dictionary.getConcept(Dictionary.SCHEDULED_VISIT);
 		for (Obs obs : encounter.getAllObs()) {
@@ -123,15 +150,16 @@ public class HivCareVisitsIndicatorEvaluator implements IndicatorEvaluator {
 		}
 
 		Date visitDate = (encounter.getVisit() != null) ? encounter.getVisit().getStartDatetime() : encounter.getEncounterDatetime();
-		Concept returnVisitDate = Dictionary.getConcept(Dictionary.RETURN_VISIT_DATE);
-		List<Obs> returnVisitObss = Context.getObsService().getObservationsByPersonAndConcept(encounter.getPatient(), returnVisitDate);
+		List<Date> patientScheduledDates = scheduledDates.get(encounter.getPatient().getPatientId());
 
-		for (Obs returnVisitObs : returnVisitObss) {
-			if (DateUtils.isSameDay(returnVisitObs.getValueDate(), visitDate)) {
-				return true;
+		if (patientScheduledDates != null) {
+			for (Date scheduledDate : patientScheduledDates) {
+				if (DateUtils.isSameDay(scheduledDate, visitDate)) {
+					return true;
+				}
 			}
 		}
 
 		return false;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,262 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.kenyaemr.search;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory index of locations by name and MFL code, so that location fields can be searched without querying the
+ * whole location list. Names match by prefix, ignoring case. This is built from the database on first use and
+ * discarded whenever a location is saved through the location service.
+ */
+@Component
+public class LocationSearchIndex {
+
+	protected static final Log log = LogFactory.getLog(LocationSearchIndex.class);
+
+	/**
+	 * The current index. This is null until built
+	 */
+	private volatile Index index = null;
+
+	/**
+	 * Discards the index so that it is rebuilt on next use
+	 */
+	public synchronized void refresh() {
+		index = null;
+	}
+
+	/**
+	 * Gets the id of the non-retired location with the given MFL code
+	 * @param mflCode the MFL code
+	 * @return the location id (null if no location has the given code)
+	 */
+	public Integer getLocationIdByMflCode(String mflCode) {
+		return getIndex().byMflCode.get(mflCode);
+	}
+
+	/**
+	 * Gets the entry of the given location
+	 * @param locationId the location id
+	 * @return the entry (null if no such location)
+	 */
+	public Entry getEntry(Integer locationId) {
+		return getIndex().entries.get(locationId);
+	}
+
+	/**
+	 * Gets the non-retired child locations of the given location
+	 * @param locationId the location id
+	 * @return the entries of the child locations
+	 */
+	public List<Entry> getChildren(Integer locationId) {
+		List<Entry> children = new ArrayList<Entry>();
+		for (Entry entry : getIndex().entries.values()) {
+			if (locationId.equals(entry.parentLocationId) && !entry.retired) {
+				children.add(entry);
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * Searches for locations, including retired locations, whose names start with the given term
+	 * @param term the search term
+	 * @param maxResults the maximum number of results
+	 * @return the entries of matching locations, ordered by name
+	 */
+	public List<Entry> search(String term, int maxResults) {
+		String prefix = term.toLowerCase();
+		List<Entry> matches = new ArrayList<Entry>();
+
+		for (List<Entry> entries : getIndex().byName.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+			for (Entry entry : entries) {
+				if (matches.size() >= maxResults) {
+					return matches;
+				}
+				matches.add(entry);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Gets the index, building it if that hasn't yet happened since the last refresh
+	 * @return the index
+	 */
+	protected Index getIndex() {
+		Index current = index;
+		if (current == null) {
+			synchronized (this) {
+				current = index;
+				if (current == null) {
+					current = build();
+					index = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Builds the index from all locations in the database
+	 * @return the index
+	 */
+	protected Index build() {
+		long start = System.currentTimeMillis();
+
+		Index built = new Index();
+
+		// Index is shared by all users, e.g. for typeahead fields, so is built regardless of the current user
+		List<Object[]> rows;
+		try {
+			Context.addProxyPrivilege(PrivilegeConstants.VIEW_LOCATIONS);
+			Context.addProxyPrivilege(PrivilegeConstants.VIEW_LOCATION_ATTRIBUTE_TYPES);
+
+			rows = Context.getService(KenyaEmrService.class).getLocationsForIndexing();
+		}
+		finally {
+			Context.removeProxyPrivilege(PrivilegeConstants.VIEW_LOCATIONS);
+			Context.removeProxyPrivilege(PrivilegeConstants.VIEW_LOCATION_ATTRIBUTE_TYPES);
+		}
+
+		for (Object[] row : rows) {
+			Integer locationId = (Integer) row[0];
+			String mflCode = (String) row[4];
+
+			// Locations with more than one code appear in more than one row
+			Entry entry = built.entries.get(locationId);
+			if (entry == null) {
+				entry = new Entry(locationId, (String) row[1], (Boolean) row[2], (Integer) row[3], mflCode);
+				built.add(entry);
+			}
+
+			if (mflCode != null && !entry.retired && !built.byMflCode.containsKey(mflCode)) {
+				built.byMflCode.put(mflCode, locationId);
+			}
+		}
+
+		log.info("Indexed " + built.entries.size() + " locations for searching in " + (System.currentTimeMillis() - start) + "ms");
+
+		return built;
+	}
+
+	/**
+	 * Indexed fields of a single location
+	 */
+	public static class Entry {
+
+		private final Integer locationId;
+
+		private final String name;
+
+		private final boolean retired;
+
+		private final Integer parentLocationId;
+
+		private final String mflCode;
+
+		/**
+		 * Creates a new entry
+		 * @param locationId the location id
+		 * @param name the name
+		 * @param retired whether location is retired
+		 * @param parentLocationId the parent location id (may be null)
+		 * @param mflCode the MFL code (may be null)
+		 */
+		public Entry(Integer locationId, String name, boolean retired, Integer parentLocationId, String mflCode) {
+			this.locationId = locationId;
+			this.name = name;
+			this.retired = retired;
+			this.parentLocationId = parentLocationId;
+			this.mflCode = mflCode;
+		}
+
+		/**
+		 * Gets the location id
+		 * @return the location id
+		 */
+		public Integer getLocationId() {
+			return locationId;
+		}
+
+		/**
+		 * Gets the name
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets the MFL code
+		 * @return the MFL code (may be null)
+		 */
+		public String getMflCode() {
+			return mflCode;
+		}
+	}
+
+	/**
+	 * Entries of all locations, which aren't changed once built
+	 */
+	protected static class Index {
+
+		/**
+		 * Entries by location id, in name order
+		 */
+		private final Map<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>();
+
+		/**
+		 * Entries by lowercase name
+		 */
+		private final NavigableMap<String, List<Entry>> byName = new TreeMap<String, List<Entry>>();
+
+		/**
+		 * Non-retired location ids by MFL code
+		 */
+		private final Map<String, Integer> byMflCode = new HashMap<String, Integer>();
+
+		/**
+		 * Adds an entry to the index
+		 * @param entry the entry
+		 */
+		private void add(Entry entry) {
+			entries.put(entry.locationId, entry);
+
+			String key = entry.name.toLowerCase();
+			List<Entry> named = byName.get(key);
+			if (named == null) {
+				named = new ArrayList<Entry>();
+				byName.put(key, named);
+			}
+			named.add(entry);
+		}
+	}
+}
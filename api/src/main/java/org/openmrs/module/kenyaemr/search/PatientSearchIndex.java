@@ -0,0 +1,599 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.search;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory patient search index over name tokens, identifiers and birthdates. Terms match name tokens and
+ * identifiers by prefix, and name tokens within a small edit distance. This is built from the database on first use
+ * and then kept up to date as patients are saved through the patient service.
+ */
+@Component
+public class PatientSearchIndex {
+
+	protected static final Log log = LogFactory.getLog(PatientSearchIndex.class);
+
+	private static final int SCORE_IDENTIFIER_EXACT = 100;
+
+	private static final int SCORE_IDENTIFIER_PREFIX = 40;
+
+	private static final int SCORE_NAME_EXACT = 10;
+
+	private static final int SCORE_NAME_PREFIX = 5;
+
+	private static final int SCORE_NAME_FUZZY = 2;
+
+	/**
+	 * Shortest term for which near matches are included
+	 */
+	private static final int FUZZY_MIN_LENGTH = 4;
+
+	/**
+	 * The current index. This is null until built
+	 */
+	private volatile Index index = null;
+
+	/**
+	 * Discards the index so that it is rebuilt on next use
+	 */
+	public synchronized void refresh() {
+		index = null;
+	}
+
+	/**
+	 * Searches for patients. Every term in the query must match a name or identifier of the patient.
+	 * @param query the query
+	 * @param age the age of patients to match (may be null)
+	 * @param ageWindow the number of years either side of the age to match
+	 * @param maxResults the maximum number of results
+	 * @return the ids of matching patients, best matches first
+	 */
+	public List<Integer> search(String query, Integer age, int ageWindow, int maxResults) {
+		Index current = getIndex();
+
+		final Map<Integer, Integer> scores = new HashMap<Integer, Integer>();
+		boolean first = true;
+
+		for (String term : tokenize(query)) {
+			// Ignore terms which are only punctuation
+			if (normalizeIdentifier(term).length() == 0 && tokenizeName(term).isEmpty()) {
+				continue;
+			}
+
+			Map<Integer, Integer> termScores = matchTerm(current, term);
+
+			if (first) {
+				scores.putAll(termScores);
+				first = false;
+			}
+			else {
+				for (Iterator<Map.Entry<Integer, Integer>> i = scores.entrySet().iterator(); i.hasNext(); ) {
+					Map.Entry<Integer, Integer> entry = i.next();
+					Integer termScore = termScores.get(entry.getKey());
+					if (termScore == null) {
+						i.remove();
+					}
+					else {
+						entry.setValue(entry.getValue() + termScore);
+					}
+				}
+			}
+		}
+
+		List<Integer> patientIds = new ArrayList<Integer>();
+		Calendar today = Calendar.getInstance();
+
+		for (Integer patientId : scores.keySet()) {
+			if (age != null) {
+				Entry entry = current.entries.get(patientId);
+				if (entry == null || entry.birthdate == null || Math.abs(ageOn(entry.birthdate, today) - age) > ageWindow) {
+					continue;
+				}
+			}
+			patientIds.add(patientId);
+		}
+
+		Collections.sort(patientIds, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer id1, Integer id2) {
+				int byScore = scores.get(id2).compareTo(scores.get(id1));
+				return byScore != 0 ? byScore : id1.compareTo(id2);
+			}
+		});
+
+		return patientIds.size() > maxResults ? patientIds.subList(0, maxResults) : patientIds;
+	}
+
+	/**
+	 * Updates the index after the given patient has been saved, voided or purged
+	 * @param patient the patient
+	 */
+	public synchronized void update(Patient patient) {
+		Index current = index;
+		if (current == null || patient.getPatientId() == null) {
+			return;
+		}
+
+		current.remove(patient.getPatientId());
+
+		if (!patient.isVoided()) {
+			Entry entry = new Entry(patient.getPatientId(), patient.getBirthdate());
+			for (PersonName name : patient.getNames()) {
+				if (!name.isVoided()) {
+					entry.addName(name.getGivenName(), name.getMiddleName(), name.getFamilyName(), name.getFamilyName2());
+				}
+			}
+			for (PatientIdentifier identifier : patient.getIdentifiers()) {
+				if (!identifier.isVoided()) {
+					entry.addIdentifier(identifier.getIdentifier());
+				}
+			}
+			current.add(entry);
+		}
+	}
+
+	/**
+	 * Removes a patient from the index, e.g. after it has been purged
+	 * @param patientId the patient id
+	 */
+	public synchronized void remove(Integer patientId) {
+		Index current = index;
+		if (current != null) {
+			current.remove(patientId);
+		}
+	}
+
+	/**
+	 * Gets the index, building it if that hasn't yet happened since the last refresh
+	 * @return the index
+	 */
+	protected Index getIndex() {
+		Index current = index;
+		if (current == null) {
+			synchronized (this) {
+				current = index;
+				if (current == null) {
+					current = build();
+					index = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Builds the index from all non-voided patients in the database
+	 * @return the index
+	 */
+	protected Index build() {
+		long start = System.currentTimeMillis();
+
+		KenyaEmrService service = Context.getService(KenyaEmrService.class);
+		Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+
+		for (Object[] row : service.getPatientBirthdatesForIndexing()) {
+			Integer patientId = (Integer) row[0];
+			entries.put(patientId, new Entry(patientId, (Date) row[1]));
+		}
+		for (Object[] row : service.getPatientNamesForIndexing()) {
+			Entry entry = entries.get(row[0]);
+			if (entry != null) {
+				entry.addName((String) row[1], (String) row[2], (String) row[3], (String) row[4]);
+			}
+		}
+		for (Object[] row : service.getPatientIdentifiersForIndexing()) {
+			Entry entry = entries.get(row[0]);
+			if (entry != null) {
+				entry.addIdentifier((String) row[1]);
+			}
+		}
+
+		Index built = new Index();
+		built.addAll(entries.values());
+
+		log.info("Indexed " + entries.size() + " patients for searching in " + (System.currentTimeMillis() - start) + "ms");
+
+		return built;
+	}
+
+	/**
+	 * Scores the patients matching a single query term
+	 * @param index the index
+	 * @param term the term
+	 * @return the score of each matching patient
+	 */
+	protected static Map<Integer, Integer> matchTerm(Index index, String term) {
+		Map<Integer, Integer> scores = new HashMap<Integer, Integer>();
+
+		String identifierTerm = normalizeIdentifier(term);
+		if (identifierTerm.length() > 0) {
+			for (Map.Entry<String, Set<Integer>> entry : prefixRange(index.identifiers, identifierTerm).entrySet()) {
+				int score = entry.getKey().equals(identifierTerm) ? SCORE_IDENTIFIER_EXACT : SCORE_IDENTIFIER_PREFIX;
+				addScores(scores, entry.getValue(), score);
+			}
+		}
+
+		// Names are indexed without punctuation, e.g. O'Brien as o and brien, so every part of the term must match
+		Map<Integer, Integer> nameScores = null;
+		for (String namePart : tokenizeName(term)) {
+			Map<Integer, Integer> partScores = matchNamePart(index, namePart);
+
+			if (nameScores == null) {
+				nameScores = partScores;
+			}
+			else {
+				// A multi-part term scores as its weakest matching part
+				for (Iterator<Map.Entry<Integer, Integer>> i = nameScores.entrySet().iterator(); i.hasNext(); ) {
+					Map.Entry<Integer, Integer> entry = i.next();
+					Integer partScore = partScores.get(entry.getKey());
+					if (partScore == null) {
+						i.remove();
+					}
+					else {
+						entry.setValue(Math.min(entry.getValue(), partScore));
+					}
+				}
+			}
+		}
+
+		if (nameScores != null) {
+			for (Map.Entry<Integer, Integer> entry : nameScores.entrySet()) {
+				addScores(scores, Collections.singleton(entry.getKey()), entry.getValue());
+			}
+		}
+
+		return scores;
+	}
+
+	/**
+	 * Scores the patients with a name token matching part of a query term
+	 * @param index the index
+	 * @param namePart the part of the term
+	 * @return the score of each matching patient
+	 */
+	protected static Map<Integer, Integer> matchNamePart(Index index, String namePart) {
+		Map<Integer, Integer> scores = new HashMap<Integer, Integer>();
+
+		for (Map.Entry<String, Set<Integer>> entry : prefixRange(index.names, namePart).entrySet()) {
+			int score = entry.getKey().equals(namePart) ? SCORE_NAME_EXACT : SCORE_NAME_PREFIX;
+			addScores(scores, entry.getValue(), score);
+		}
+
+		if (namePart.length() >= FUZZY_MIN_LENGTH) {
+			int maxDistance = namePart.length() >= 8 ? 2 : 1;
+
+			// Only consider tokens starting with the same letter
+			for (Map.Entry<String, Set<Integer>> entry : prefixRange(index.names, namePart.substring(0, 1)).entrySet()) {
+				String token = entry.getKey();
+				if (!token.startsWith(namePart) && prefixEditDistance(namePart, token, maxDistance) <= maxDistance) {
+					addScores(scores, entry.getValue(), SCORE_NAME_FUZZY);
+				}
+			}
+		}
+
+		return scores;
+	}
+
+	/**
+	 * Splits a query into lowercase terms
+	 * @param query the query
+	 * @return the terms
+	 */
+	protected static List<String> tokenize(String query) {
+		List<String> terms = new ArrayList<String>();
+		if (query != null) {
+			for (String term : query.toLowerCase().split("[\\s,]+")) {
+				if (term.length() > 0) {
+					terms.add(term);
+				}
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Splits a name, or a query term matched against names, into lowercase tokens, treating punctuation as a separator
+	 * @param name the name
+	 * @return the tokens
+	 */
+	protected static List<String> tokenizeName(String name) {
+		return tokenize(name.replaceAll("[^\\p{L}\\p{N}]", " "));
+	}
+
+	/**
+	 * Normalizes an identifier so that matching ignores case, spaces and punctuation
+	 * @param identifier the identifier
+	 * @return the normalized identifier
+	 */
+	protected static String normalizeIdentifier(String identifier) {
+		return identifier.toLowerCase().replaceAll("[^a-z0-9]", "");
+	}
+
+	/**
+	 * Calculates the smallest edit distance between a term and any prefix of a token of similar length, so that
+	 * partially typed names can still match
+	 * @param term the term
+	 * @param token the token
+	 * @param max the distance beyond which the exact distance doesn't matter
+	 * @return the distance, or a value greater than max
+	 */
+	protected static int prefixEditDistance(String term, String token, int max) {
+		int best = max + 1;
+		int from = Math.max(1, term.length() - max);
+		int to = Math.min(token.length(), term.length() + max);
+		for (int length = from; length <= to; length++) {
+			best = Math.min(best, editDistance(term, token.substring(0, length), max));
+		}
+		return best;
+	}
+
+	/**
+	 * Calculates the edit distance between two strings, counting transpositions as a single edit
+	 * @param s1 the first string
+	 * @param s2 the second string
+	 * @param max the distance beyond which the exact distance doesn't matter
+	 * @return the distance, or a value greater than max
+	 */
+	protected static int editDistance(String s1, String s2, int max) {
+		if (Math.abs(s1.length() - s2.length()) > max) {
+			return max + 1;
+		}
+
+		int[][] d = new int[s1.length() + 1][s2.length() + 1];
+		for (int i = 0; i <= s1.length(); i++) {
+			d[i][0] = i;
+		}
+		for (int j = 0; j <= s2.length(); j++) {
+			d[0][j] = j;
+		}
+
+		for (int i = 1; i <= s1.length(); i++) {
+			int rowMin = Integer.MAX_VALUE;
+			for (int j = 1; j <= s2.length(); j++) {
+				int cost = s1.charAt(i - 1) == s2.charAt(j - 1) ? 0 : 1;
+				d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+
+				if (i > 1 && j > 1 && s1.charAt(i - 1) == s2.charAt(j - 2) && s1.charAt(i - 2) == s2.charAt(j - 1)) {
+					d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + cost);
+				}
+				rowMin = Math.min(rowMin, d[i][j]);
+			}
+			if (rowMin > max) {
+				return max + 1;
+			}
+		}
+		return d[s1.length()][s2.length()];
+	}
+
+	/**
+	 * Calculates an age in years in the same way as Person.getAge()
+	 * @param birthdate the birthdate
+	 * @param on the date on which to calculate the age
+	 * @return the age
+	 */
+	protected static int ageOn(Date birthdate, Calendar on) {
+		Calendar birth = Calendar.getInstance();
+		birth.setTime(birthdate);
+
+		int age = on.get(Calendar.YEAR) - birth.get(Calendar.YEAR);
+		if (on.get(Calendar.MONTH) < birth.get(Calendar.MONTH)
+				|| (on.get(Calendar.MONTH) == birth.get(Calendar.MONTH) && on.get(Calendar.DAY_OF_MONTH) < birth.get(Calendar.DAY_OF_MONTH))) {
+			age--;
+		}
+		return age;
+	}
+
+	/**
+	 * Gets the entries of a token map whose keys start with the given prefix
+	 * @param tokens the token map
+	 * @param prefix the prefix
+	 * @return the matching entries
+	 */
+	private static ConcurrentNavigableMap<String, Set<Integer>> prefixRange(ConcurrentNavigableMap<String, Set<Integer>> tokens, String prefix) {
+		return tokens.subMap(prefix, true, prefix + Character.MAX_VALUE, true);
+	}
+
+	/**
+	 * Adds a score for each of the given patients, keeping the higher score where a patient already has one
+	 * @param scores the scores by patient id
+	 * @param patientIds the patient ids
+	 * @param score the score
+	 */
+	private static void addScores(Map<Integer, Integer> scores, Set<Integer> patientIds, int score) {
+		for (Integer patientId : patientIds) {
+			Integer existing = scores.get(patientId);
+			if (existing == null || existing < score) {
+				scores.put(patientId, score);
+			}
+		}
+	}
+
+	/**
+	 * Indexed tokens of a single patient
+	 */
+	protected static class Entry {
+
+		private final Integer patientId;
+
+		private final Date birthdate;
+
+		private final Set<String> names = new HashSet<String>();
+
+		private final Set<String> identifiers = new HashSet<String>();
+
+		/**
+		 * Creates an entry
+		 * @param patientId the patient id
+		 * @param birthdate the birthdate (may be null)
+		 */
+		public Entry(Integer patientId, Date birthdate) {
+			this.patientId = patientId;
+			this.birthdate = birthdate;
+		}
+
+		/**
+		 * Adds the tokens of a person name
+		 * @param nameParts the given, middle and family names
+		 */
+		public void addName(String... nameParts) {
+			for (String namePart : nameParts) {
+				if (StringUtils.isNotBlank(namePart)) {
+					names.addAll(tokenizeName(namePart));
+				}
+			}
+		}
+
+		/**
+		 * Adds an identifier
+		 * @param identifier the identifier
+		 */
+		public void addIdentifier(String identifier) {
+			if (StringUtils.isNotBlank(identifier)) {
+				identifiers.add(normalizeIdentifier(identifier));
+			}
+		}
+	}
+
+	/**
+	 * Token maps from name token or identifier to patient ids. Sets of patient ids are replaced rather than modified,
+	 * and all modifications happen while holding the lock of the owning search index.
+	 */
+	protected static class Index {
+
+		private final ConcurrentMap<Integer, Entry> entries = new ConcurrentHashMap<Integer, Entry>();
+
+		private final ConcurrentNavigableMap<String, Set<Integer>> names = new ConcurrentSkipListMap<String, Set<Integer>>();
+
+		private final ConcurrentNavigableMap<String, Set<Integer>> identifiers = new ConcurrentSkipListMap<String, Set<Integer>>();
+
+		/**
+		 * Adds the tokens of a patient entry
+		 * @param entry the entry
+		 */
+		public void add(Entry entry) {
+			entries.put(entry.patientId, entry);
+			for (String name : entry.names) {
+				addToken(names, name, entry.patientId);
+			}
+			for (String identifier : entry.identifiers) {
+				addToken(identifiers, identifier, entry.patientId);
+			}
+		}
+
+		/**
+		 * Adds the tokens of many patient entries, e.g. when building the index. Sets of patient ids are built up
+		 * first and then added to the token maps, rather than being copied for each patient.
+		 * @param entries the entries
+		 */
+		public void addAll(Collection<Entry> entries) {
+			Map<String, Set<Integer>> nameSets = new HashMap<String, Set<Integer>>();
+			Map<String, Set<Integer>> identifierSets = new HashMap<String, Set<Integer>>();
+
+			for (Entry entry : entries) {
+				this.entries.put(entry.patientId, entry);
+				for (String name : entry.names) {
+					collectToken(nameSets, name, entry.patientId);
+				}
+				for (String identifier : entry.identifiers) {
+					collectToken(identifierSets, identifier, entry.patientId);
+				}
+			}
+
+			for (Map.Entry<String, Set<Integer>> token : nameSets.entrySet()) {
+				names.put(token.getKey(), Collections.unmodifiableSet(token.getValue()));
+			}
+			for (Map.Entry<String, Set<Integer>> token : identifierSets.entrySet()) {
+				identifiers.put(token.getKey(), Collections.unmodifiableSet(token.getValue()));
+			}
+		}
+
+		/**
+		 * Removes all tokens of a patient
+		 * @param patientId the patient id
+		 */
+		public void remove(Integer patientId) {
+			Entry entry = entries.remove(patientId);
+			if (entry != null) {
+				for (String name : entry.names) {
+					removeToken(names, name, patientId);
+				}
+				for (String identifier : entry.identifiers) {
+					removeToken(identifiers, identifier, patientId);
+				}
+			}
+		}
+
+		private static void collectToken(Map<String, Set<Integer>> tokens, String token, Integer patientId) {
+			Set<Integer> patientIds = tokens.get(token);
+			if (patientIds == null) {
+				patientIds = new HashSet<Integer>();
+				tokens.put(token, patientIds);
+			}
+			patientIds.add(patientId);
+		}
+
+		private static void addToken(ConcurrentNavigableMap<String, Set<Integer>> tokens, String token, Integer patientId) {
+			Set<Integer> existing = tokens.get(token);
+			if (existing == null) {
+				tokens.put(token, Collections.singleton(patientId));
+			}
+			else if (!existing.contains(patientId)) {
+				Set<Integer> updated = new HashSet<Integer>(existing);
+				updated.add(patientId);
+				tokens.put(token, Collections.unmodifiableSet(updated));
+			}
+		}
+
+		private static void removeToken(ConcurrentNavigableMap<String, Set<Integer>> tokens, String token, Integer patientId) {
+			Set<Integer> existing = tokens.get(token);
+			if (existing != null && existing.contains(patientId)) {
+				if (existing.size() == 1) {
+					tokens.remove(token);
+				}
+				else {
+					Set<Integer> updated = new HashSet<Integer>(existing);
+					updated.remove(patientId);
+					tokens.put(token, Collections.unmodifiableSet(updated));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.kenyaemr.summary;
+
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Lightweight immutable copy of a patient's name, demographics and active identifiers, for listing patients without
+ * loading them as entities
+ */
+public class PatientSummary {
+
+	private final Integer patientId;
+
+	private final String gender;
+
+	private final Date birthdate;
+
+	private final boolean birthdateEstimated;
+
+	private final String givenName;
+
+	private final String middleName;
+
+	private final String familyName;
+
+	private final List<Identifier> identifiers = new ArrayList<Identifier>();
+
+	/**
+	 * Creates a summary without identifiers
+	 */
+	public PatientSummary(Integer patientId, String gender, Date birthdate, boolean birthdateEstimated, String givenName, String middleName, String familyName) {
+		this.patientId = patientId;
+		this.gender = gender;
+		this.birthdate = birthdate != null ? new Date(birthdate.getTime()) : null;
+		this.birthdateEstimated = birthdateEstimated;
+		this.givenName = givenName;
+		this.middleName = middleName;
+		this.familyName = familyName;
+	}
+
+	/**
+	 * Creates a summary of a loaded patient
+	 * @param patient the patient
+	 */
+	public PatientSummary(Patient patient) {
+		this(patient.getPatientId(), patient.getGender(), patient.getBirthdate(), Boolean.TRUE.equals(patient.getBirthdateEstimated()),
+				patient.getGivenName(), patient.getMiddleName(), patient.getFamilyName());
+
+		for (PatientIdentifier identifier : patient.getActiveIdentifiers()) {
+			addIdentifier(identifier.getIdentifierType().getName(), identifier.getIdentifier());
+		}
+	}
+
+	/**
+	 * Adds an identifier. Only used while the summary is being built.
+	 * @param identifierType the identifier type name
+	 * @param identifier the identifier value
+	 */
+	void addIdentifier(String identifierType, String identifier) {
+		identifiers.add(new Identifier(identifierType, identifier));
+	}
+
+	public Integer getPatientId() {
+		return patientId;
+	}
+
+	public String getGender() {
+		return gender;
+	}
+
+	public Date getBirthdate() {
+		return birthdate != null ? new Date(birthdate.getTime()) : null;
+	}
+
+	public boolean isBirthdateEstimated() {
+		return birthdateEstimated;
+	}
+
+	public String getGivenName() {
+		return givenName;
+	}
+
+	public String getMiddleName() {
+		return middleName;
+	}
+
+	public String getFamilyName() {
+		return familyName;
+	}
+
+	/**
+	 * Gets the name as a transient person name, e.g. for formatting
+	 * @return the person name
+	 */
+	public PersonName getPersonName() {
+		return new PersonName(givenName, middleName, familyName);
+	}
+
+	/**
+	 * Gets the current age in years
+	 * @return the age
+	 */
+	public Integer getAge() {
+		Person person = new Person();
+		person.setBirthdate(birthdate);
+		return person.getAge();
+	}
+
+	/**
+	 * Gets the active identifiers, with the preferred identifier first
+	 * @return the identifiers
+	 */
+	public List<Identifier> getIdentifiers() {
+		return Collections.unmodifiableList(identifiers);
+	}
+
+	/**
+	 * Identifier type name and value
+	 */
+	public static class Identifier {
+
+		private final String identifierType;
+
+		private final String identifier;
+
+		public Identifier(String identifierType, String identifier) {
+			this.identifierType = identifierType;
+			this.identifier = identifier;
+		}
+
+		public String getIdentifierType() {
+			return identifierType;
+		}
+
+		public String getIdentifier() {
+			return identifier;
+		}
+	}
+}
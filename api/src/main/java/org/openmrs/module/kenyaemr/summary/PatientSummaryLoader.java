@@ -0,0 +1,72 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.kenyaemr.summary;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads patient summaries in batches, using one query for names and demographics and one for identifiers
+ */
+@Component
+public class PatientSummaryLoader {
+
+	/**
+	 * Loads the summaries of the given patients
+	 * @param patientIds the patient ids
+	 * @return the summaries in the same order as the patient ids. Patients which don't exist are skipped
+	 */
+	public List<PatientSummary> load(Collection<Integer> patientIds) {
+		if (patientIds.isEmpty()) {
+			return new ArrayList<PatientSummary>();
+		}
+
+		KenyaEmrService service = Context.getService(KenyaEmrService.class);
+
+		// Rows are ordered with preferred names first, so take the first name of each patient
+		Map<Integer, PatientSummary> summaries = new HashMap<Integer, PatientSummary>();
+		for (Object[] row : service.getPatientDemographics(patientIds)) {
+			Integer patientId = (Integer) row[0];
+			if (!summaries.containsKey(patientId)) {
+				summaries.put(patientId, new PatientSummary(patientId, (String) row[1], (Date) row[2], Boolean.TRUE.equals(row[3]), (String) row[4], (String) row[5], (String) row[6]));
+			}
+		}
+
+		for (Object[] row : service.getPatientIdentifiers(patientIds)) {
+			PatientSummary summary = summaries.get((Integer) row[0]);
+			if (summary != null) {
+				summary.addIdentifier((String) row[1], (String) row[2]);
+			}
+		}
+
+		List<PatientSummary> ordered = new ArrayList<PatientSummary>();
+		for (Integer patientId : patientIds) {
+			PatientSummary summary = summaries.get(patientId);
+			if (summary != null) {
+				ordered.add(summary);
+			}
+		}
+		return ordered;
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.task;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.VisitType;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Scheduled task to close all active visits at the end of the day. The optional task property "visitTypeUuids" is a
+ * comma separated list of the visit types to close. If it isn't specified then visits of all types are closed.
+ */
+public class CloseActiveVisitsTask extends AbstractTask {
+
+	protected static final Log log = LogFactory.getLog(CloseActiveVisitsTask.class);
+
+	public static final String PROPERTY_VISIT_TYPE_UUIDS = "visitTypeUuids";
+
+	/**
+	 * @see org.openmrs.scheduler.tasks.AbstractTask#execute()
+	 */
+	@Override
+	public void execute() {
+		if (isExecuting) {
+			return;
+		}
+
+		isExecuting = true;
+		Context.openSession();
+
+		try {
+			if (!Context.isAuthenticated()) {
+				authenticate();
+			}
+
+			List<VisitType> visitTypes = getVisitTypes();
+			int closed = Context.getService(KenyaEmrService.class).closeActiveVisits(visitTypes, new Date());
+
+			log.info("Closed " + closed + " active visits");
+		}
+		catch (Exception ex) {
+			log.error("Unable to close active visits", ex);
+		}
+		finally {
+			Context.closeSession();
+			isExecuting = false;
+		}
+	}
+
+	/**
+	 * Gets the visit types to close from the task properties
+	 * @return the visit types or null for all types
+	 */
+	protected List<VisitType> getVisitTypes() {
+		String uuids = getTaskDefinition() != null ? getTaskDefinition().getProperty(PROPERTY_VISIT_TYPE_UUIDS) : null;
+		if (StringUtils.isBlank(uuids)) {
+			return null;
+		}
+
+		List<VisitType> visitTypes = new ArrayList<VisitType>();
+		for (String uuid : uuids.split(",")) {
+			VisitType visitType = Context.getVisitService().getVisitTypeByUuid(uuid.trim());
+			if (visitType == null) {
+				throw new IllegalArgumentException("No such visit type: " + uuid);
+			}
+			visitTypes.add(visitType);
+		}
+		return visitTypes;
+	}
+}
@@ -19,6 +19,7 @@ import org.openmrs.*;
 import org.openmrs.api.ProgramWorkflowService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.util.OpenmrsUtil;
 
@@ -129,20 +130,7 @@ public class KenyaEmrUtils {
 	 * @return true if new visit will overlap
 	 */
 	public static boolean visitWillOverlap(Visit visit) {
-		Patient patient = visit.getPatient();
-
-		for (Visit existingVisit : Context.getVisitService().getVisitsByPatient(patient)) {
-			// If visit exists in database, don't compare to itself
-			if (existingVisit.getVisitId().equals(visit.getVisitId())) {
-				continue;
-			}
-
-			if (OpenmrsUtil.compareWithNullAsLatest(visit.getStartDatetime(), existingVisit.getStopDatetime()) <= 0 &&
-					OpenmrsUtil.compareWithNullAsLatest(visit.getStopDatetime(), existingVisit.getStartDatetime()) >= 0) {
-				return true;
-			}
-		}
-		return false;
+		return !Context.getService(KenyaEmrService.class).getOverlappingVisits(visit).isEmpty();
 	}
 
 	/**
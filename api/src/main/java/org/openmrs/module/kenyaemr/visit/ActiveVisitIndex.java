@@ -0,0 +1,262 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.visit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory index of active visits by patient. This is built from the database on first use and then kept up to date
+ * as visits are saved through the visit service.
+ */
+@Component
+public class ActiveVisitIndex {
+
+	protected static final Log log = LogFactory.getLog(ActiveVisitIndex.class);
+
+	/**
+	 * Active visits by patient id. Lists are replaced rather than modified, and the map is null until built
+	 */
+	private volatile ConcurrentMap<Integer, List<ActiveVisit>> visitsByPatient = null;
+
+	/**
+	 * Discards the index so that it is rebuilt on next use
+	 */
+	public synchronized void refresh() {
+		visitsByPatient = null;
+	}
+
+	/**
+	 * Gets the most recently started active visit of the given patient
+	 * @param patientId the patient id
+	 * @return the active visit or null if patient has none
+	 */
+	public ActiveVisit getActiveVisit(Integer patientId) {
+		List<ActiveVisit> visits = getVisitsByPatient().get(patientId);
+		return visits != null ? visits.get(visits.size() - 1) : null;
+	}
+
+	/**
+	 * Gets the ids of all patients with active visits
+	 * @return the patient ids
+	 */
+	public Set<Integer> getPatientIds() {
+		return Collections.unmodifiableSet(getVisitsByPatient().keySet());
+	}
+
+	/**
+	 * Gets all active visits
+	 * @return the active visits
+	 */
+	public List<ActiveVisit> getActiveVisits() {
+		List<ActiveVisit> all = new ArrayList<ActiveVisit>();
+		for (List<ActiveVisit> visits : getVisitsByPatient().values()) {
+			all.addAll(visits);
+		}
+		return all;
+	}
+
+	/**
+	 * Updates the index after the given visit has been saved, closed or voided
+	 * @param visit the visit
+	 */
+	public synchronized void update(Visit visit) {
+		replace(visit, isActive(visit));
+	}
+
+	/**
+	 * Removes the given visit from the index, e.g. after it has been purged
+	 * @param visit the visit
+	 */
+	public synchronized void remove(Visit visit) {
+		replace(visit, false);
+	}
+
+	/**
+	 * Removes the existing entry of the given visit and optionally adds it again
+	 * @param visit the visit
+	 * @param active whether the visit should be in the index
+	 */
+	protected void replace(Visit visit, boolean active) {
+		ConcurrentMap<Integer, List<ActiveVisit>> current = visitsByPatient;
+		if (current == null || visit.getPatient() == null) {
+			return;
+		}
+
+		Integer patientId = visit.getPatient().getPatientId();
+		List<ActiveVisit> visits = new ArrayList<ActiveVisit>();
+
+		List<ActiveVisit> existing = current.get(patientId);
+		if (existing != null) {
+			for (ActiveVisit activeVisit : existing) {
+				if (!activeVisit.getVisitId().equals(visit.getVisitId())) {
+					visits.add(activeVisit);
+				}
+			}
+		}
+
+		if (active) {
+			addInStartOrder(visits, new ActiveVisit(visit));
+		}
+
+		if (visits.isEmpty()) {
+			current.remove(patientId);
+		}
+		else {
+			current.put(patientId, Collections.unmodifiableList(visits));
+		}
+	}
+
+	/**
+	 * Gets the index, building it if that hasn't yet happened since the last refresh
+	 * @return the active visits by patient id
+	 */
+	protected ConcurrentMap<Integer, List<ActiveVisit>> getVisitsByPatient() {
+		ConcurrentMap<Integer, List<ActiveVisit>> current = visitsByPatient;
+		if (current == null) {
+			synchronized (this) {
+				current = visitsByPatient;
+				if (current == null) {
+					current = build();
+					visitsByPatient = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Builds the index from all active visits in the database
+	 * @return the active visits by patient id
+	 */
+	protected ConcurrentMap<Integer, List<ActiveVisit>> build() {
+		long start = System.currentTimeMillis();
+
+		List<Visit> activeVisits = Context.getVisitService().getVisits(null, null, null, null, null, null, null, null, null, false, false);
+
+		ConcurrentMap<Integer, List<ActiveVisit>> built = new ConcurrentHashMap<Integer, List<ActiveVisit>>();
+		for (Visit visit : activeVisits) {
+			Integer patientId = visit.getPatient().getPatientId();
+			List<ActiveVisit> visits = built.containsKey(patientId) ? new ArrayList<ActiveVisit>(built.get(patientId)) : new ArrayList<ActiveVisit>();
+			addInStartOrder(visits, new ActiveVisit(visit));
+			built.put(patientId, Collections.unmodifiableList(visits));
+		}
+
+		log.info("Indexed " + activeVisits.size() + " active visits in " + (System.currentTimeMillis() - start) + "ms");
+
+		return built;
+	}
+
+	/**
+	 * Checks whether the given visit should be in the index
+	 * @param visit the visit
+	 * @return true if visit is active
+	 */
+	protected static boolean isActive(Visit visit) {
+		return visit.getVisitId() != null && visit.getStopDatetime() == null && !visit.isVoided();
+	}
+
+	/**
+	 * Adds an active visit to a list which is ordered by start date
+	 * @param visits the list of visits
+	 * @param visit the visit to add
+	 */
+	private static void addInStartOrder(List<ActiveVisit> visits, ActiveVisit visit) {
+		int index = visits.size();
+		while (index > 0 && visits.get(index - 1).getStartDatetime().after(visit.getStartDatetime())) {
+			index--;
+		}
+		visits.add(index, visit);
+	}
+
+	/**
+	 * Lightweight immutable copy of an active visit
+	 */
+	public static class ActiveVisit {
+
+		private final Integer visitId;
+
+		private final Integer patientId;
+
+		private final Integer visitTypeId;
+
+		private final String visitTypeName;
+
+		private final Date startDatetime;
+
+		/**
+		 * Creates an active visit from a visit
+		 * @param visit the visit
+		 */
+		public ActiveVisit(Visit visit) {
+			this.visitId = visit.getVisitId();
+			this.patientId = visit.getPatient().getPatientId();
+			this.visitTypeId = visit.getVisitType().getVisitTypeId();
+			this.visitTypeName = visit.getVisitType().getName();
+			this.startDatetime = new Date(visit.getStartDatetime().getTime());
+		}
+
+		/**
+		 * Gets the visit id
+		 * @return the visit id
+		 */
+		public Integer getVisitId() {
+			return visitId;
+		}
+
+		/**
+		 * Gets the patient id
+		 * @return the patient id
+		 */
+		public Integer getPatientId() {
+			return patientId;
+		}
+
+		/**
+		 * Gets the visit type id
+		 * @return the visit type id
+		 */
+		public Integer getVisitTypeId() {
+			return visitTypeId;
+		}
+
+		/**
+		 * Gets the visit type name
+		 * @return the visit type name
+		 */
+		public String getVisitTypeName() {
+			return visitTypeName;
+		}
+
+		/**
+		 * Gets the start date
+		 * @return the start date
+		 */
+		public Date getStartDatetime() {
+			return new Date(startDatetime.getTime());
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.visit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.summary.PatientSummary;
+import org.openmrs.module.kenyaemr.summary.PatientSummaryLoader;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists the patients scheduled for a visit on a given day, i.e. those with an appointment on that day. The list for
+ * each day is cached until a change to return visit dates or patient details is made.
+ */
+@Component
+public class DailySchedule {
+
+	protected static final Log log = LogFactory.getLog(DailySchedule.class);
+
+	/**
+	 * Maximum number of days for which schedules are cached
+	 */
+	private static final int MAX_CACHED_DAYS = 100;
+
+	@Autowired
+	private PatientSummaryLoader summaryLoader;
+
+	private final ConcurrentMap<Date, List<PatientSummary>> scheduledByDay = new ConcurrentHashMap<Date, List<PatientSummary>>();
+
+	/**
+	 * Incremented on each refresh so that schedules fetched during a refresh aren't cached
+	 */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	/**
+	 * Discards all cached schedules
+	 */
+	public void refresh() {
+		generation.incrementAndGet();
+		scheduledByDay.clear();
+	}
+
+	/**
+	 * Discards the cached schedules which include the given patient, e.g. because their name or identifiers have
+	 * changed. Schedules of other days are kept as the patient's appointments haven't changed.
+	 * @param patientId the patient id
+	 */
+	public void update(Integer patientId) {
+		generation.incrementAndGet();
+
+		for (Iterator<Map.Entry<Date, List<PatientSummary>>> i = scheduledByDay.entrySet().iterator(); i.hasNext(); ) {
+			for (PatientSummary summary : i.next().getValue()) {
+				if (summary.getPatientId().equals(patientId)) {
+					i.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether changes to obs of the given question affect schedules
+	 * @param question the question concept
+	 * @return true if schedules depend on that question
+	 */
+	public boolean isScheduleQuestion(Concept question) {
+		return question != null && Dictionary.RETURN_VISIT_DATE.equals(question.getUuid());
+	}
+
+	/**
+	 * Gets the patients scheduled for a visit on the given day
+	 * @param date the day
+	 * @return the patients ordered by name
+	 */
+	public List<PatientSummary> getScheduledPatients(Date date) {
+		Date day = DateUtil.getStartOfDay(date);
+
+		List<PatientSummary> scheduled = scheduledByDay.get(day);
+		if (scheduled == null) {
+			int fetchedGeneration = generation.get();
+			scheduled = fetchScheduledPatients(day);
+
+			if (scheduledByDay.size() >= MAX_CACHED_DAYS) {
+				scheduledByDay.clear();
+			}
+			if (generation.get() == fetchedGeneration) {
+				scheduledByDay.put(day, scheduled);
+			}
+		}
+		return scheduled;
+	}
+
+	/**
+	 * Gets the visits of the given patients which overlap the given day
+	 * @param patientIds the patient ids
+	 * @param date the day
+	 * @return the visits by patient id. Patients without visits have an empty list
+	 */
+	public Map<Integer, List<DayVisit>> getVisitsOnDay(Collection<Integer> patientIds, Date date) {
+		KenyaEmrService service = Context.getService(KenyaEmrService.class);
+
+		Map<Integer, List<DayVisit>> visitsByPatient = new HashMap<Integer, List<DayVisit>>();
+		for (Integer patientId : patientIds) {
+			visitsByPatient.put(patientId, new ArrayList<DayVisit>());
+		}
+
+		Map<Integer, DayVisit> visitsById = new LinkedHashMap<Integer, DayVisit>();
+		for (Object[] row : service.getVisitsBetween(patientIds, DateUtil.getStartOfDay(date), DateUtil.getEndOfDay(date))) {
+			DayVisit visit = new DayVisit((Integer) row[0], (String) row[2]);
+			visitsById.put(visit.getVisitId(), visit);
+			visitsByPatient.get((Integer) row[1]).add(visit);
+		}
+
+		for (Object[] row : service.getVisitEncounters(visitsById.keySet())) {
+			String label = row[1] != null ? (String) row[1] : (String) row[2];
+			visitsById.get((Integer) row[0]).encounters.add(label);
+		}
+
+		return visitsByPatient;
+	}
+
+	/**
+	 * Fetches the patients scheduled for the given day from the database
+	 * @param day the start of the day
+	 * @return the patients ordered by name
+	 */
+	protected List<PatientSummary> fetchScheduledPatients(Date day) {
+		long start = System.currentTimeMillis();
+
+		KenyaEmrService service = Context.getService(KenyaEmrService.class);
+
+		List<Integer> patientIds = service.getPatientIdsWithAppointmentsBetween(day, DateUtil.getEndOfDay(day));
+		List<PatientSummary> sorted = summaryLoader.load(patientIds);
+
+		Collections.sort(sorted, new Comparator<PatientSummary>() {
+			@Override
+			public int compare(PatientSummary p1, PatientSummary p2) {
+				int result = compareNames(p1.getFamilyName(), p2.getFamilyName());
+				if (result == 0) {
+					result = compareNames(p1.getGivenName(), p2.getGivenName());
+				}
+				if (result == 0) {
+					result = compareNames(p1.getMiddleName(), p2.getMiddleName());
+				}
+				return result != 0 ? result : p1.getPatientId().compareTo(p2.getPatientId());
+			}
+		});
+
+		log.debug("Fetched schedule for " + day + " in " + (System.currentTimeMillis() - start) + "ms");
+
+		return Collections.unmodifiableList(sorted);
+	}
+
+	/**
+	 * Compares two name parts ignoring case, with missing parts first
+	 * @param name1 the first name
+	 * @param name2 the second name
+	 * @return the comparison result
+	 */
+	private static int compareNames(String name1, String name2) {
+		if (name1 == null) {
+			return name2 == null ? 0 : -1;
+		}
+		return name2 == null ? 1 : name1.compareToIgnoreCase(name2);
+	}
+
+	/**
+	 * Lightweight copy of a visit on the scheduled day
+	 */
+	public static class DayVisit {
+
+		private final Integer visitId;
+
+		private final String visitType;
+
+		private final List<String> encounters = new ArrayList<String>();
+
+		public DayVisit(Integer visitId, String visitType) {
+			this.visitId = visitId;
+			this.visitType = visitType;
+		}
+
+		public Integer getVisitId() {
+			return visitId;
+		}
+
+		public String getVisitType() {
+			return visitType;
+		}
+
+		/**
+		 * Gets the form names (or encounter type names for encounters without forms) of the visit's encounters
+		 * @return the encounter labels
+		 */
+		public List<String> getEncounters() {
+			return Collections.unmodifiableList(encounters);
+		}
+	}
+}
@@ -0,0 +1,562 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.kenyaemr.visit;
+
+import au.com.bytecode.opencsv.CSVReader;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.Encounter;
+import org.openmrs.Form;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.VisitType;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.MetadataConstants;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.util.OpenmrsUtil;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Imports retrospective visits from paper records, e.g. MOH 257 cards, as CSV with one obs per line:
+ *
+ *   identifier,date,form,concept,value
+ *
+ * where the identifier is any patient identifier, the date is the visit day (yyyy-MM-dd), the form is a form UUID,
+ * and the concept is a concept UUID or mapping. Lines for the same patient, day and form become one encounter. Each
+ * encounter is added to the first visit of the patient on that day, or to a new outpatient visit for that day.
+ *
+ * All lines are validated before anything is saved, with patients and existing visits looked up in bulk. Encounters
+ * are then saved in batches, each in its own transaction. An encounter is skipped if the patient already has an
+ * encounter of the same form on that day, so a file can be imported again after a failure part way through.
+ */
+@Component
+public class RetrospectiveVisitImporter {
+
+	protected static final Log log = LogFactory.getLog(RetrospectiveVisitImporter.class);
+
+	/**
+	 * Approximate number of encounters saved in each transaction. Encounters of the same patient and day are never split
+	 * across batches as they may share a new visit.
+	 */
+	private static final int IMPORT_BATCH_SIZE = 100;
+
+	private static final String DATE_FORMAT = "yyyy-MM-dd";
+
+	private static final int NUM_COLUMNS = 5;
+
+	/**
+	 * Imports retrospective visits from CSV. Nothing is imported if any line is invalid. The hibernate session is
+	 * flushed and cleared after each batch to keep it from growing, so objects loaded by the caller beforehand are
+	 * detached and shouldn't be used again.
+	 * @param reader the CSV reader
+	 * @return the result
+	 * @throws IOException if the CSV can't be read
+	 */
+	public Result importCsv(Reader reader) throws IOException {
+		Result result = new Result();
+		List<Line> lines = parseLines(new CSVReader(reader), result);
+
+		if (result.getErrors().isEmpty()) {
+			resolvePatients(lines, result);
+		}
+		if (!result.getErrors().isEmpty()) {
+			return result;
+		}
+
+		// Group lines into encounters, and encounters by patient and day
+		Map<String, Map<String, List<Line>>> encountersByPatientDay = new LinkedHashMap<String, Map<String, List<Line>>>();
+		for (Line line : lines) {
+			String patientDay = line.patientId + ":" + line.date.getTime();
+			Map<String, List<Line>> encounters = encountersByPatientDay.get(patientDay);
+			if (encounters == null) {
+				encounters = new LinkedHashMap<String, List<Line>>();
+				encountersByPatientDay.put(patientDay, encounters);
+			}
+			List<Line> encounterLines = encounters.get(line.formUuid);
+			if (encounterLines == null) {
+				encounterLines = new ArrayList<Line>();
+				encounters.put(line.formUuid, encounterLines);
+			}
+			encounterLines.add(line);
+		}
+
+		Map<String, Object[]> existingVisits = findExistingVisits(lines);
+		Set<String> existingEncounters = findExistingEncounters(lines);
+
+		List<List<Line>> batch = new ArrayList<List<Line>>();
+		for (Map.Entry<String, Map<String, List<Line>>> entry : encountersByPatientDay.entrySet()) {
+			for (Map.Entry<String, List<Line>> encounter : entry.getValue().entrySet()) {
+				Line first = encounter.getValue().get(0);
+				if (existingEncounters.contains(entry.getKey() + ":" + first.formId)) {
+					result.encountersSkipped++;
+				}
+				else {
+					batch.add(encounter.getValue());
+				}
+			}
+
+			if (batch.size() >= IMPORT_BATCH_SIZE) {
+				saveBatch(batch, existingVisits, result);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			saveBatch(batch, existingVisits, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Parses and validates all lines, resolving forms and concepts once each
+	 * @param reader the CSV reader
+	 * @param result the result to add errors to
+	 * @return the parsed lines
+	 * @throws IOException if the CSV can't be read
+	 */
+	protected List<Line> parseLines(CSVReader reader, Result result) throws IOException {
+		List<Line> lines = new ArrayList<Line>();
+		Map<String, Form> forms = new HashMap<String, Form>();
+		Map<String, Concept> concepts = new HashMap<String, Concept>();
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+		dateFormat.setLenient(false);
+		Date today = OpenmrsUtil.firstSecondOfDay(new Date());
+
+		String[] values;
+		int lineNumber = 0;
+		while ((values = reader.readNext()) != null) {
+			lineNumber++;
+
+			// Skip header and blank lines
+			if ((lineNumber == 1 && "identifier".equalsIgnoreCase(values[0].trim())) || (values.length == 1 && StringUtils.isBlank(values[0]))) {
+				continue;
+			}
+			if (values.length != NUM_COLUMNS) {
+				result.addError(lineNumber, "Expected " + NUM_COLUMNS + " values but found " + values.length);
+				continue;
+			}
+
+			try {
+				Line line = new Line(lineNumber, values[0].trim());
+
+				try {
+					line.date = dateFormat.parse(values[1].trim());
+				}
+				catch (ParseException ex) {
+					throw new IllegalArgumentException("Invalid date '" + values[1] + "'");
+				}
+				if (line.date.after(today)) {
+					throw new IllegalArgumentException("Date cannot be in the future");
+				}
+
+				line.formUuid = values[2].trim();
+				Form form = forms.containsKey(line.formUuid) ? forms.get(line.formUuid) : Context.getFormService().getFormByUuid(line.formUuid);
+				forms.put(line.formUuid, form);
+				if (form == null) {
+					throw new IllegalArgumentException("No form with UUID '" + line.formUuid + "'");
+				}
+				if (form.getEncounterType() == null) {
+					throw new IllegalArgumentException("Form '" + form.getName() + "' has no encounter type");
+				}
+				line.formId = form.getFormId();
+
+				Concept concept = resolveConcept(values[3].trim(), concepts);
+				line.conceptId = concept.getConceptId();
+				line.value = values[4].trim();
+				parseValue(concept, line.value, concepts);
+
+				lines.add(line);
+			}
+			catch (IllegalArgumentException ex) {
+				result.addError(lineNumber, ex.getMessage());
+			}
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Looks up the patients of all lines with a single query
+	 * @param lines the lines
+	 * @param result the result to add errors to
+	 */
+	protected void resolvePatients(List<Line> lines, Result result) {
+		Set<String> identifiers = new HashSet<String>();
+		for (Line line : lines) {
+			identifiers.add(line.identifier);
+		}
+
+		Map<String, Integer> patientIds = new HashMap<String, Integer>();
+		Set<String> ambiguous = new HashSet<String>();
+		for (Object[] row : Context.getService(KenyaEmrService.class).getPatientIdsByIdentifiers(identifiers)) {
+			Integer existing = patientIds.put((String) row[0], (Integer) row[1]);
+			if (existing != null && !existing.equals(row[1])) {
+				ambiguous.add((String) row[0]);
+			}
+		}
+
+		for (Line line : lines) {
+			line.patientId = patientIds.get(line.identifier);
+			if (line.patientId == null) {
+				result.addError(line.number, "No patient with identifier '" + line.identifier + "'");
+			}
+			else if (ambiguous.contains(line.identifier)) {
+				result.addError(line.number, "More than one patient with identifier '" + line.identifier + "'");
+			}
+		}
+	}
+
+	/**
+	 * Finds the first existing visit of each patient on each day, with a single query for all patients
+	 * @param lines the lines
+	 * @return visit rows (visit id, patient id, visit type name, start date and stop date) by patient and day
+	 */
+	protected Map<String, Object[]> findExistingVisits(List<Line> lines) {
+		Set<Integer> patientIds = new HashSet<Integer>();
+		Date from = null, to = null;
+		for (Line line : lines) {
+			patientIds.add(line.patientId);
+			from = (from == null || line.date.before(from)) ? line.date : from;
+			to = (to == null || line.date.after(to)) ? line.date : to;
+		}
+
+		Map<Integer, List<Object[]>> visitsByPatient = new HashMap<Integer, List<Object[]>>();
+		if (from != null) {
+			for (Object[] row : Context.getService(KenyaEmrService.class).getVisitsBetween(patientIds, from, OpenmrsUtil.getLastMomentOfDay(to))) {
+				List<Object[]> visits = visitsByPatient.get(row[1]);
+				if (visits == null) {
+					visits = new ArrayList<Object[]>();
+					visitsByPatient.put((Integer) row[1], visits);
+				}
+				visits.add(row);
+			}
+		}
+
+		Map<String, Object[]> existing = new HashMap<String, Object[]>();
+		for (Line line : lines) {
+			String patientDay = line.patientId + ":" + line.date.getTime();
+			if (existing.containsKey(patientDay) || !visitsByPatient.containsKey(line.patientId)) {
+				continue;
+			}
+
+			Date endOfDay = OpenmrsUtil.getLastMomentOfDay(line.date);
+
+			// Visits are in order of start date, so the first that overlaps the day is the first visit of that day
+			for (Object[] visit : visitsByPatient.get(line.patientId)) {
+				Date start = (Date) visit[3], stop = (Date) visit[4];
+				if (!start.after(endOfDay) && (stop == null || !stop.before(line.date))) {
+					existing.put(patientDay, visit);
+					break;
+				}
+			}
+		}
+		return existing;
+	}
+
+	/**
+	 * Finds the existing form entry encounters of all patients over the imported period, with a single query
+	 * @param lines the lines
+	 * @return keys of patient id, day and form id
+	 */
+	protected Set<String> findExistingEncounters(List<Line> lines) {
+		Set<Integer> patientIds = new HashSet<Integer>();
+		Date from = null, to = null;
+		for (Line line : lines) {
+			patientIds.add(line.patientId);
+			from = (from == null || line.date.before(from)) ? line.date : from;
+			to = (to == null || line.date.after(to)) ? line.date : to;
+		}
+
+		Set<String> existing = new HashSet<String>();
+		if (from != null) {
+			for (Object[] row : Context.getService(KenyaEmrService.class).getFormEncountersBetween(patientIds, from, OpenmrsUtil.getLastMomentOfDay(to))) {
+				Date day = OpenmrsUtil.firstSecondOfDay((Date) row[2]);
+				existing.add(row[0] + ":" + day.getTime() + ":" + row[1]);
+			}
+		}
+		return existing;
+	}
+
+	/**
+	 * Creates and saves the encounters of a batch
+	 * @param batch the lines of each encounter
+	 * @param existingVisits the existing visits by patient and day
+	 * @param result the result to update
+	 */
+	protected void saveBatch(List<List<Line>> batch, Map<String, Object[]> existingVisits, Result result) {
+		// Objects are loaded for each batch as the session is cleared after each one
+		VisitType visitType = Context.getVisitService().getVisitTypeByUuid(MetadataConstants.OUTPATIENT_VISIT_TYPE_UUID);
+		Location location = Context.getService(KenyaEmrService.class).getDefaultLocation();
+		Map<String, Concept> concepts = new HashMap<String, Concept>();
+		Map<String, Visit> visits = new HashMap<String, Visit>();
+
+		List<Encounter> encounters = new ArrayList<Encounter>();
+		int obsCount = 0;
+
+		for (List<Line> encounterLines : batch) {
+			Line first = encounterLines.get(0);
+			Patient patient = Context.getPatientService().getPatient(first.patientId);
+			Form form = Context.getFormService().getForm(first.formId);
+			String patientDay = first.patientId + ":" + first.date.getTime();
+
+			Visit visit = visits.get(patientDay);
+			if (visit == null) {
+				Object[] existing = existingVisits.get(patientDay);
+				if (existing != null) {
+					visit = Context.getVisitService().getVisit((Integer) existing[0]);
+				}
+				else {
+					visit = new Visit();
+					visit.setVisitType(visitType);
+					visit.setLocation(location);
+					visit.setPatient(patient);
+					visit.setStartDatetime(OpenmrsUtil.firstSecondOfDay(first.date));
+					visit.setStopDatetime(OpenmrsUtil.getLastMomentOfDay(first.date));
+				}
+				visits.put(patientDay, visit);
+			}
+
+			// Encounter can't be before the start of the visit
+			Date encounterDatetime = visit.getStartDatetime().after(first.date) ? visit.getStartDatetime() : first.date;
+
+			Encounter encounter = new Encounter();
+			encounter.setPatient(patient);
+			encounter.setForm(form);
+			encounter.setEncounterType(form.getEncounterType());
+			encounter.setEncounterDatetime(encounterDatetime);
+			encounter.setLocation(location);
+			encounter.setVisit(visit);
+
+			for (Line line : encounterLines) {
+				Concept concept = Context.getConceptService().getConcept(line.conceptId);
+
+				Obs obs = new Obs();
+				obs.setPerson(patient);
+				obs.setConcept(concept);
+				obs.setObsDatetime(encounterDatetime);
+				obs.setLocation(location);
+				setObsValue(obs, parseValue(concept, line.value, concepts));
+				encounter.addObs(obs);
+				obsCount++;
+			}
+
+			encounters.add(encounter);
+		}
+
+		result.visitsCreated += Context.getService(KenyaEmrService.class).saveEncounterBatch(encounters);
+		result.encountersCreated += encounters.size();
+		result.obsCreated += obsCount;
+
+		// Release the batch from the session so that it doesn't keep growing
+		Context.flushSession();
+		Context.clearSession();
+
+		log.info("Imported " + result.encountersCreated + " retrospective encounters");
+	}
+
+	/**
+	 * Resolves a concept, remembering it for subsequent lines
+	 * @param identifier the concept UUID or mapping
+	 * @param concepts the concepts resolved so far
+	 * @return the concept
+	 * @throws IllegalArgumentException if no such concept exists
+	 */
+	protected static Concept resolveConcept(String identifier, Map<String, Concept> concepts) {
+		Concept concept = concepts.get(identifier);
+		if (concept == null) {
+			concept = Dictionary.getConcept(identifier);
+			concepts.put(identifier, concept);
+		}
+		return concept;
+	}
+
+	/**
+	 * Parses an obs value according to the datatype of its concept
+	 * @param concept the concept
+	 * @param value the value
+	 * @param concepts the concepts resolved so far, for coded values
+	 * @return the numeric, text, coded, date or boolean value
+	 * @throws IllegalArgumentException if the value isn't valid for the concept
+	 */
+	protected static Object parseValue(Concept concept, String value, Map<String, Concept> concepts) {
+		if (StringUtils.isEmpty(value)) {
+			throw new IllegalArgumentException("Missing value");
+		}
+
+		ConceptDatatype datatype = concept.getDatatype();
+		if (datatype.isNumeric()) {
+			try {
+				return Double.parseDouble(value);
+			}
+			catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("Invalid numeric value '" + value + "'");
+			}
+		}
+		else if (datatype.isText()) {
+			return value;
+		}
+		else if (datatype.isCoded()) {
+			return resolveConcept(value, concepts);
+		}
+		else if (datatype.isDate() || datatype.isDateTime()) {
+			try {
+				SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+				dateFormat.setLenient(false);
+				return dateFormat.parse(value);
+			}
+			catch (ParseException ex) {
+				throw new IllegalArgumentException("Invalid date value '" + value + "'");
+			}
+		}
+		else if (datatype.isBoolean()) {
+			if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+				throw new IllegalArgumentException("Invalid boolean value '" + value + "'");
+			}
+			return Boolean.valueOf(value);
+		}
+		throw new IllegalArgumentException("Concept '" + concept.getName() + "' is not of type numeric|text|coded|date|boolean");
+	}
+
+	/**
+	 * Sets the value of an obs
+	 * @param obs the obs
+	 * @param value the parsed value
+	 */
+	protected static void setObsValue(Obs obs, Object value) {
+		if (value instanceof Double) {
+			obs.setValueNumeric((Double) value);
+		}
+		else if (value instanceof String) {
+			obs.setValueText((String) value);
+		}
+		else if (value instanceof Concept) {
+			obs.setValueCoded((Concept) value);
+		}
+		else if (value instanceof Date) {
+			obs.setValueDatetime((Date) value);
+		}
+		else if (value instanceof Boolean) {
+			obs.setValueBoolean((Boolean) value);
+		}
+	}
+
+	/**
+	 * A single parsed line
+	 */
+	protected static class Line {
+
+		private final int number;
+
+		private final String identifier;
+
+		private Integer patientId;
+
+		private Date date;
+
+		private String formUuid;
+
+		private Integer formId;
+
+		private Integer conceptId;
+
+		private String value;
+
+		public Line(int number, String identifier) {
+			this.number = number;
+			this.identifier = identifier;
+		}
+	}
+
+	/**
+	 * The result of an import
+	 */
+	public static class Result {
+
+		private final List<String> errors = new ArrayList<String>();
+
+		private int visitsCreated, encountersCreated, encountersSkipped, obsCreated;
+
+		/**
+		 * Adds a validation error
+		 * @param lineNumber the line number
+		 * @param message the message
+		 */
+		protected void addError(int lineNumber, String message) {
+			errors.add("Line " + lineNumber + ": " + message);
+		}
+
+		/**
+		 * Gets the validation errors. If there are any then nothing was imported.
+		 * @return the errors
+		 */
+		public List<String> getErrors() {
+			return Collections.unmodifiableList(errors);
+		}
+
+		/**
+		 * Gets the number of visits created
+		 * @return the number of visits
+		 */
+		public int getVisitsCreated() {
+			return visitsCreated;
+		}
+
+		/**
+		 * Gets the number of encounters created
+		 * @return the number of encounters
+		 */
+		public int getEncountersCreated() {
+			return encountersCreated;
+		}
+
+		/**
+		 * Gets the number of encounters which were skipped because they already exist
+		 * @return the number of encounters
+		 */
+		public int getEncountersSkipped() {
+			return encountersSkipped;
+		}
+
+		/**
+		 * Gets the number of obs created
+		 * @return the number of obs
+		 */
+		public int getObsCreated() {
+			return obsCreated;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.kenyaemr;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.LocationAttribute;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.api.ConfigurationRequiredException;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Tests for {@link FacilityConfiguration}
+ */
+public class FacilityConfigurationTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private KenyaEmr emr;
+
+	@Autowired
+	private FacilityConfiguration facilityConfiguration;
+
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("test-data.xml");
+
+		emr.getMetadataManager().setupGlobalProperties();
+		facilityConfiguration.refresh();
+	}
+
+	/**
+	 * @see FacilityConfiguration#getDefaultLocationMflCode()
+	 */
+	@Test
+	public void getDefaultLocationMflCode_shouldGetMflCodeOfDefaultLocation() {
+		Context.getService(KenyaEmrService.class).setDefaultLocation(Context.getLocationService().getLocation(1));
+
+		Assert.assertEquals(new Integer(1), facilityConfiguration.getDefaultLocationId());
+		Assert.assertEquals("15001", facilityConfiguration.getDefaultLocationMflCode());
+	}
+
+	/**
+	 * @see FacilityConfiguration#getDefaultLocationId()
+	 */
+	@Test(expected = ConfigurationRequiredException.class)
+	public void getDefaultLocationId_shouldThrowExceptionIfDefaultLocationNotSet() {
+		facilityConfiguration.getDefaultLocationId();
+	}
+
+	/**
+	 * @see FacilityConfiguration#invalidate()
+	 */
+	@Test
+	public void invalidate_shouldDiscardSnapshot() {
+		Location location = Context.getLocationService().getLocation(1);
+		Context.getService(KenyaEmrService.class).setDefaultLocation(location);
+
+		Assert.assertEquals("15001", facilityConfiguration.getDefaultLocationMflCode());
+
+		for (LocationAttribute attribute : location.getActiveAttributes()) {
+			attribute.setVoided(true);
+		}
+		Context.getLocationService().saveLocation(location);
+
+		// Still cached as advice isn't active in tests
+		Assert.assertEquals("15001", facilityConfiguration.getDefaultLocationMflCode());
+
+		facilityConfiguration.invalidate();
+
+		try {
+			facilityConfiguration.getDefaultLocationMflCode();
+			Assert.fail();
+		}
+		catch (ConfigurationRequiredException ex) {
+			// expected
+		}
+	}
+}
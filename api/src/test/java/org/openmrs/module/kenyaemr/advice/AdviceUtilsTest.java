@@ -0,0 +1,72 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.advice;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Tests for {@link AdviceUtils}
+ */
+public class AdviceUtilsTest {
+
+	/**
+	 * @see AdviceUtils#afterCommit(Runnable)
+	 */
+	@Test
+	public void afterCommit_shouldRunUpdateImmediatelyIfNoTransaction() {
+		final boolean[] ran = { false };
+
+		AdviceUtils.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				ran[0] = true;
+			}
+		});
+
+		Assert.assertTrue(ran[0]);
+	}
+
+	/**
+	 * @see AdviceUtils#afterCommit(Runnable)
+	 */
+	@Test
+	public void afterCommit_shouldDeferUpdateUntilTransactionCommits() {
+		final boolean[] ran = { false };
+
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			AdviceUtils.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					ran[0] = true;
+				}
+			});
+
+			Assert.assertFalse(ran[0]);
+
+			for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+				synchronization.afterCommit();
+			}
+
+			Assert.assertTrue(ran[0]);
+		}
+		finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+}
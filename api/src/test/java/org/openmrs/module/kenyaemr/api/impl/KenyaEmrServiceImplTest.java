@@ -23,10 +23,13 @@ import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.kenyaemr.*;
 import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.appointment.Appointment;
 import org.openmrs.module.kenyaemr.test.TestUtils;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -47,6 +50,8 @@ public class KenyaEmrServiceImplTest extends BaseModuleContextSensitiveTest {
 		executeDataSet("test-data.xml");
 
 		emr.getMetadataManager().setupGlobalProperties();
+		emr.getFacilityConfiguration().refresh();
+		emr.getLocationSearchIndex().refresh();
 	}
 
 	/**
@@ -118,6 +123,29 @@ public class KenyaEmrServiceImplTest extends BaseModuleContextSensitiveTest {
 		Assert.assertTrue(service.isConfigured());
 	}
 
+	/**
+	 * @see KenyaEmrServiceImpl#closeActiveVisits(java.util.Collection, java.util.Date)
+	 * @verifies close active visits of the given types
+	 */
+	@Test
+	public void closeActiveVisits_shouldCloseActiveVisitsOfGivenTypes() {
+		Patient patient = Context.getPatientService().getPatient(7);
+		VisitType outpatientType = Metadata.getVisitType(Metadata.OUTPATIENT_VISIT_TYPE);
+		VisitType otherType = Context.getVisitService().getVisitType(1);
+
+		Visit visit1 = TestUtils.saveVisit(patient, outpatientType, TestUtils.date(2012, 1, 1, 10, 0, 0), null);
+		Visit visit2 = TestUtils.saveVisit(patient, otherType, TestUtils.date(2012, 1, 1, 11, 0, 0), null);
+		Visit visit3 = TestUtils.saveVisit(patient, outpatientType, TestUtils.date(2012, 1, 3, 10, 0, 0), null); // Starts after stop date
+
+		Date stopDate = TestUtils.date(2012, 1, 2);
+		int closed = service.closeActiveVisits(Collections.singleton(outpatientType), stopDate);
+
+		Assert.assertEquals(1, closed);
+		Assert.assertEquals(stopDate, Context.getVisitService().getVisit(visit1.getVisitId()).getStopDatetime());
+		Assert.assertNull(Context.getVisitService().getVisit(visit2.getVisitId()).getStopDatetime());
+		Assert.assertNull(Context.getVisitService().getVisit(visit3.getVisitId()).getStopDatetime());
+	}
+
 	/**
 	 * @see KenyaEmrServiceImpl#getVisitsByPatientAndDay(org.openmrs.Patient, java.util.Date)
 	 */
@@ -146,6 +174,41 @@ public class KenyaEmrServiceImplTest extends BaseModuleContextSensitiveTest {
 		Assert.assertEquals(visit2, visits.get(0));
 	}
 
+	/**
+	 * @see KenyaEmrServiceImpl#getOverlappingVisits(org.openmrs.Visit)
+	 * @verifies get visits which overlap the given visit
+	 */
+	@Test
+	public void getOverlappingVisits_shouldGetVisitsWhichOverlapTheGivenVisit() {
+		Patient patient = Context.getPatientService().getPatient(8);
+		VisitType outpatientType = Metadata.getVisitType(Metadata.OUTPATIENT_VISIT_TYPE);
+
+		Visit visit1 = TestUtils.saveVisit(patient, outpatientType, TestUtils.date(2011, 1, 1), TestUtils.date(2011, 1, 3));
+		Visit visit2 = TestUtils.saveVisit(patient, outpatientType, TestUtils.date(2011, 1, 7), null);
+		Context.flushSession();
+
+		Visit visit = new Visit();
+		visit.setPatient(patient);
+		visit.setStartDatetime(TestUtils.date(2011, 1, 4));
+		visit.setStopDatetime(TestUtils.date(2011, 1, 5));
+		Assert.assertEquals(0, service.getOverlappingVisits(visit).size());
+
+		// Ongoing visit overlaps later visits
+		visit.setStopDatetime(null);
+		List<Visit> overlapping = service.getOverlappingVisits(visit);
+		Assert.assertFalse(overlapping.contains(visit1));
+		Assert.assertTrue(overlapping.contains(visit2));
+
+		// Visit dates are inclusive so touching counts as overlap
+		visit.setStartDatetime(TestUtils.date(2011, 1, 3));
+		overlapping = service.getOverlappingVisits(visit);
+		Assert.assertEquals(visit1, overlapping.get(0));
+		Assert.assertEquals(visit2, overlapping.get(1));
+
+		// Visits don't overlap themselves
+		Assert.assertEquals(0, service.getOverlappingVisits(visit1).size());
+	}
+
 	/**
 	 * @see KenyaEmrServiceImpl#getLocations(String, org.openmrs.Location, java.util.Map, boolean, Integer, Integer)
 	 */
@@ -225,4 +288,63 @@ public class KenyaEmrServiceImplTest extends BaseModuleContextSensitiveTest {
 		List<Location> locations = service.getLocations(null, null, attrValues, true, null, null);
 		Assert.assertEquals(0, locations.size());
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see KenyaEmrServiceImpl#updateAppointments(org.openmrs.Patient)
+	 */
+	@Test
+	public void updateAppointments_shouldMatchAppointmentsToReturnVisitDateObs() {
+		Patient patient = Context.getPatientService().getPatient(6);
+		Concept returnVisitDate = Dictionary.getConcept(Dictionary.RETURN_VISIT_DATE);
+		VisitType outpatient = Metadata.getVisitType(Metadata.OUTPATIENT_VISIT_TYPE);
+
+		Obs obs = new Obs(patient, returnVisitDate, TestUtils.date(2012, 1, 1), null);
+		obs.setValueDatetime(TestUtils.date(2012, 1, 10));
+		Context.getObsService().saveObs(obs, null);
+		Visit visit = TestUtils.saveVisit(patient, outpatient, TestUtils.date(2012, 1, 10, 9, 0, 0), TestUtils.date(2012, 1, 10, 12, 0, 0));
+
+		service.updateAppointments(patient);
+
+		List<Appointment> appointments = service.getAppointments(patient);
+		Assert.assertEquals(1, appointments.size());
+		Assert.assertEquals(obs, appointments.get(0).getObs());
+		Assert.assertEquals(TestUtils.date(2012, 1, 10), appointments.get(0).getScheduledDate());
+		Assert.assertEquals(visit, appointments.get(0).getFulfilledBy());
+
+		Context.getObsService().voidObs(obs, "Testing");
+		service.updateAppointments(patient);
+
+		Assert.assertEquals(0, service.getAppointments(patient).size());
+	}
+
+	/**
+	 * @see KenyaEmrServiceImpl#getAppointmentsInMonth(java.util.Date)
+	 */
+	@Test
+	public void getAppointmentsInMonth_shouldGetAppointmentsScheduledInMonth() {
+		Assert.assertEquals(1, service.getAppointmentsInMonth(TestUtils.date(2012, 7, 31)).size());
+		Assert.assertEquals(1, service.getAppointmentsOnDay(TestUtils.date(2012, 7, 4)).size());
+		Assert.assertEquals(0, service.getAppointmentsInMonth(TestUtils.date(2012, 8, 1)).size());
+		Assert.assertEquals(0, service.getAppointmentsInMonth(TestUtils.date(2012, 6, 30)).size());
+	}
+
+	/**
+	 * @see KenyaEmrServiceImpl#getAccountPersons(String, boolean, boolean, int, int)
+	 */
+	@Test
+	public void getAccountPersons_shouldGetPersonsWithMatchingAccounts() {
+		User admin = Context.getUserService().getUser(1);
+		Integer personId = admin.getPerson().getPersonId();
+
+		List<Object[]> rows = service.getAccountPersons("admin", true, false, 0, 10);
+		Assert.assertEquals(1, rows.size());
+		Assert.assertEquals(personId, rows.get(0)[0]);
+
+		Assert.assertEquals(0, service.getAccountPersons("admin", false, false, 0, 10).size());
+		Assert.assertEquals(0, service.getAccountPersons("daemon", true, false, 0, 10).size());
+
+		List<Object[]> users = service.getAccountUsers(Collections.singleton(personId), "admin");
+		Assert.assertEquals(1, users.size());
+		Assert.assertEquals("admin", users.get(0)[1]);
+	}
+}
@@ -17,12 +17,16 @@ package org.openmrs.module.kenyaemr.calculation;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.calculation.InvalidCalculationException;
 
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class CalculationManagerTest extends BaseModuleContextSensitiveTest {
 
@@ -34,6 +38,49 @@ public class CalculationManagerTest extends BaseModuleContextSensitiveTest {
 		manager.refresh();
 	}
 
+	/**
+	 * @see CalculationManager#refresh()
+	 */
+	@Test
+	public void refresh_shouldRegisterCalculationsFromIndex() throws Exception {
+		InputStream stream = getClass().getClassLoader().getResourceAsStream(CalculationManager.CALCULATION_INDEX_FILENAME);
+		Set<String> indexed = new HashSet<String>(CalculationManager.loadClassNamesFromIndex(stream));
+
+		// Check that the index is up-to-date with the actual calculation classes
+		Assert.assertEquals(CalculationManager.scanForClassNames(), indexed);
+
+		for (String className : indexed) {
+			Assert.assertNotNull(manager.getCalculation(className, null));
+		}
+	}
+
+	/**
+	 * @see CalculationManager#refresh(java.util.Collection)
+	 */
+	@Test
+	public void refresh_shouldSkipCalculationsWhichCantBeInstantiated() throws Exception {
+		String validName = IsPregnantCalculation.class.getName();
+		String invalidName = UninstantiableCalculation.class.getName();
+
+		manager.refresh(Arrays.asList(invalidName, validName));
+
+		try {
+			Assert.assertNotNull(manager.getCalculation(validName, null));
+
+			try {
+				manager.getCalculation(invalidName, null);
+				Assert.fail("Calculation which can't be instantiated shouldn't be registered");
+			}
+			catch (InvalidCalculationException ex) {
+				// expected
+			}
+		}
+		finally {
+			// Manager is shared with other tests so restore all calculations
+			manager.refresh();
+		}
+	}
+
 	/**
 	 * @see CalculationManager#getAlertCalculations()
 	 */
@@ -54,4 +101,28 @@ public class CalculationManagerTest extends BaseModuleContextSensitiveTest {
 			Assert.assertTrue(Arrays.asList(calc.getTags()).contains("hiv"));
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see CalculationManager#getCalculation(String, String)
+	 */
+	@Test
+	public void getCalculation_shouldReturnSharedInstanceOfUnconfiguredCalculation() throws Exception {
+		String className = IsPregnantCalculation.class.getName();
+
+		Assert.assertSame(manager.getCalculation(className, null), manager.getCalculation(className, null));
+	}
+
+	/**
+	 * @see CalculationManager#getCalculation(String, String)
+	 */
+	@Test(expected = InvalidCalculationException.class)
+	public void getCalculation_shouldThrowExceptionForUnknownCalculation() throws Exception {
+		manager.getCalculation("xxx", null);
+	}
+
+	/**
+	 * Calculation which can't be instantiated. It's abstract so it isn't found by the classpath scan.
+	 */
+	public static abstract class UninstantiableCalculation extends BaseEmrCalculation {
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.chart;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Form;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.calculation.result.CalculationResult;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.calculation.LastWHOStageCalculation;
+import org.openmrs.module.kenyaemr.test.TestUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+/**
+ * Tests for {@link PatientChart}
+ */
+public class PatientChartTest extends BaseModuleContextSensitiveTest {
+
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("test-data.xml");
+	}
+
+	/**
+	 * @see PatientChart#getEncounters(org.openmrs.Form)
+	 */
+	@Test
+	public void getEncounters_shouldGetOnlyEncountersOfForm() {
+		Patient patient = Context.getPatientService().getPatient(7);
+		Form form1 = Context.getFormService().getForm(1001);
+		Form form2 = Context.getFormService().getForm(1002);
+		form1.setEncounterType(Context.getEncounterService().getEncounterType(1));
+		form2.setEncounterType(Context.getEncounterService().getEncounterType(1));
+		TestUtils.saveEncounter(patient, form1, TestUtils.date(2012, 1, 1));
+		TestUtils.saveEncounter(patient, form2, TestUtils.date(2012, 2, 1));
+
+		PatientChart chart = new PatientChart(patient);
+
+		Assert.assertEquals(1, chart.getEncounters(form1).size());
+		Assert.assertEquals(form1, chart.getEncounters(form1).get(0).getForm());
+		Assert.assertSame(chart.getEncounters(), chart.getEncounters());
+	}
+
+	/**
+	 * @see PatientChart#evaluate(Class, String)
+	 */
+	@Test
+	public void evaluate_shouldEvaluateEachCalculationOnce() {
+		Patient patient = Context.getPatientService().getPatient(6);
+		Concept whoAdult1 = Dictionary.getConcept(Dictionary.WHO_STAGE_1_ADULT);
+		TestUtils.saveObs(patient, Dictionary.getConcept(Dictionary.CURRENT_WHO_STAGE), whoAdult1, TestUtils.date(2012, 12, 1));
+
+		PatientChart chart = new PatientChart(patient);
+		CalculationResult result = chart.evaluate(LastWHOStageCalculation.class, null);
+
+		Assert.assertEquals(whoAdult1, ((Obs) result.getValue()).getValueCoded());
+		Assert.assertSame(result, chart.evaluate(LastWHOStageCalculation.class, null));
+	}
+}
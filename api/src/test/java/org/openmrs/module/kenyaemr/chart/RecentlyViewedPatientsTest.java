@@ -0,0 +1,84 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.chart;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.summary.PatientSummary;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.util.List;
+
+/**
+ * Tests for {@link RecentlyViewedPatients}
+ */
+public class RecentlyViewedPatientsTest extends BaseModuleContextSensitiveTest {
+
+	private RecentlyViewedPatients recentlyViewed;
+
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("test-data.xml");
+
+		recentlyViewed = new RecentlyViewedPatients();
+	}
+
+	/**
+	 * @see RecentlyViewedPatients#getRecentlyViewed(org.openmrs.User)
+	 */
+	@Test
+	public void getRecentlyViewed_shouldGetPatientsMostRecentlyViewedFirst() {
+		User user = Context.getAuthenticatedUser();
+		Patient patient6 = Context.getPatientService().getPatient(6);
+		Patient patient7 = Context.getPatientService().getPatient(7);
+
+		Assert.assertEquals(0, recentlyViewed.getRecentlyViewed(user).size());
+
+		recentlyViewed.viewed(user, patient6);
+		recentlyViewed.viewed(user, patient7);
+		recentlyViewed.viewed(user, patient6);
+
+		List<PatientSummary> summaries = recentlyViewed.getRecentlyViewed(user);
+		Assert.assertEquals(2, summaries.size());
+		Assert.assertEquals(patient6.getPatientId(), summaries.get(0).getPatientId());
+		Assert.assertEquals(patient7.getPatientId(), summaries.get(1).getPatientId());
+		Assert.assertEquals(patient6.getActiveIdentifiers().size(), summaries.get(0).getIdentifiers().size());
+	}
+
+	/**
+	 * @see RecentlyViewedPatients#update(org.openmrs.Patient)
+	 */
+	@Test
+	public void update_shouldReplaceSummariesOfSavedPatient() {
+		User user = Context.getAuthenticatedUser();
+		Patient patient = Context.getPatientService().getPatient(7);
+
+		recentlyViewed.viewed(user, patient);
+
+		patient.setGender("F".equals(patient.getGender()) ? "M" : "F");
+		recentlyViewed.update(patient);
+
+		Assert.assertEquals(patient.getGender(), recentlyViewed.getRecentlyViewed(user).get(0).getGender());
+
+		patient.setVoided(true);
+		recentlyViewed.update(patient);
+
+		Assert.assertEquals(0, recentlyViewed.getRecentlyViewed(user).size());
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.form;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.Form;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.test.TestUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Tests for {@link FilledFormsCache}
+ */
+public class FilledFormsCacheTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private FilledFormsCache filledFormsCache;
+
+	private Patient patient;
+
+	private Form form1, form2;
+
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("test-data.xml");
+
+		filledFormsCache.refresh();
+
+		patient = Context.getPatientService().getPatient(7);
+		form1 = Context.getFormService().getForm(1001);
+		form2 = Context.getFormService().getForm(1002);
+		form1.setEncounterType(Context.getEncounterService().getEncounterType(1));
+		form2.setEncounterType(Context.getEncounterService().getEncounterType(1));
+	}
+
+	/**
+	 * @see FilledFormsCache#getFormsFilledSince(org.openmrs.Patient, java.util.Date)
+	 */
+	@Test
+	public void getFormsFilledSince_shouldGetFormsFilledOnOrAfterDate() {
+		TestUtils.saveEncounter(patient, form1, TestUtils.date(2012, 1, 1));
+		TestUtils.saveEncounter(patient, form2, TestUtils.date(2012, 2, 1));
+
+		Assert.assertTrue(filledFormsCache.getFormsFilled(patient).contains(form1.getUuid()));
+		Assert.assertTrue(filledFormsCache.getFormsFilled(patient).contains(form2.getUuid()));
+
+		Assert.assertFalse(filledFormsCache.getFormsFilledSince(patient, TestUtils.date(2012, 2, 1)).contains(form1.getUuid()));
+		Assert.assertTrue(filledFormsCache.getFormsFilledSince(patient, TestUtils.date(2012, 2, 1)).contains(form2.getUuid()));
+	}
+
+	/**
+	 * @see FilledFormsCache#getFormsFilledInVisit(org.openmrs.Visit)
+	 */
+	@Test
+	public void getFormsFilledInVisit_shouldGetFormsOfVisitEncounters() {
+		Visit visit = Context.getVisitService().getVisit(5096);
+		Encounter encounter = TestUtils.saveEncounter(patient, form1, TestUtils.date(2012, 7, 4, 10, 0, 0));
+		encounter.setVisit(visit);
+		Context.getEncounterService().saveEncounter(encounter);
+		TestUtils.saveEncounter(patient, form2, TestUtils.date(2012, 7, 4, 11, 0, 0));
+
+		Assert.assertTrue(filledFormsCache.getFormsFilledInVisit(visit).contains(form1.getUuid()));
+		Assert.assertFalse(filledFormsCache.getFormsFilledInVisit(visit).contains(form2.getUuid()));
+	}
+
+	/**
+	 * @see FilledFormsCache#invalidate(org.openmrs.Patient)
+	 */
+	@Test
+	public void invalidate_shouldDiscardCachedFormsOfPatient() {
+		Assert.assertFalse(filledFormsCache.getFormsFilled(patient).contains(form1.getUuid()));
+
+		TestUtils.saveEncounter(patient, form1, TestUtils.date(2012, 1, 1));
+
+		// Still cached as advice isn't active in tests
+		Assert.assertFalse(filledFormsCache.getFormsFilled(patient).contains(form1.getUuid()));
+
+		filledFormsCache.invalidate(patient);
+
+		Assert.assertTrue(filledFormsCache.getFormsFilled(patient).contains(form1.getUuid()));
+	}
+}
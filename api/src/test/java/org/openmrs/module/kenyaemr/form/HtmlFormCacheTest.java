@@ -0,0 +1,87 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.kenyaemr.form;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Form;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.HtmlForm;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.ui.framework.resource.ResourceFactory;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link HtmlFormCache}
+ */
+public class HtmlFormCacheTest extends BaseModuleContextSensitiveTest {
+
+	private HtmlFormCache htmlFormCache;
+
+	private ResourceFactory resourceFactory;
+
+	private Form form;
+
+	@Before
+	public void setup() {
+		htmlFormCache = new HtmlFormCache();
+
+		form = Context.getFormService().getForm(1);
+		FormUtils.setFormXmlPath(form, "kenyaemr:test.xml");
+
+		resourceFactory = mock(ResourceFactory.class);
+	}
+
+	/**
+	 * @see HtmlFormCache#getHtmlForm(org.openmrs.Form, org.openmrs.ui.framework.resource.ResourceFactory)
+	 */
+	@Test
+	public void getHtmlForm_shouldLoadFormXmlOnlyOnce() throws Exception {
+		when(resourceFactory.getResourceAsString("kenyaemr", "test.xml")).thenReturn("<htmlform>Test</htmlform>");
+
+		HtmlForm hf1 = htmlFormCache.getHtmlForm(form, resourceFactory);
+		HtmlForm hf2 = htmlFormCache.getHtmlForm(form, resourceFactory);
+
+		Assert.assertEquals(form, hf1.getForm());
+		Assert.assertEquals("<htmlform>Test</htmlform>", hf1.getXmlData());
+		Assert.assertEquals("<htmlform>Test</htmlform>", hf2.getXmlData());
+		Assert.assertNotSame(hf1, hf2);
+
+		verify(resourceFactory, times(1)).getResourceAsString("kenyaemr", "test.xml");
+	}
+
+	/**
+	 * @see HtmlFormCache#invalidate(org.openmrs.Form)
+	 */
+	@Test
+	public void invalidate_shouldDiscardCachedTemplateOfForm() throws Exception {
+		when(resourceFactory.getResourceAsString("kenyaemr", "test.xml")).thenReturn("<htmlform>Test</htmlform>");
+		when(resourceFactory.getResourceAsString("kenyaemr", "test2.xml")).thenReturn("<htmlform>Test 2</htmlform>");
+
+		htmlFormCache.getHtmlForm(form, resourceFactory);
+
+		FormUtils.setFormXmlPath(form, "kenyaemr:test2.xml");
+
+		// Still cached as advice isn't active in tests
+		Assert.assertEquals("<htmlform>Test</htmlform>", htmlFormCache.getHtmlForm(form, resourceFactory).getXmlData());
+
+		htmlFormCache.invalidate(form);
+
+		Assert.assertEquals("<htmlform>Test 2</htmlform>", htmlFormCache.getHtmlForm(form, resourceFactory).getXmlData());
+	}
+}
@@ -17,13 +17,18 @@ package org.openmrs.module.kenyaemr.form;
 import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.FormEntrySession;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.test.TestUtils;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.mock.web.MockHttpSession;
 
 import javax.servlet.http.HttpSession;
+import java.util.Date;
 
 public class KenyaEmrVelocityFunctionsTest extends BaseModuleContextSensitiveTest {
 
@@ -58,4 +63,33 @@ public class KenyaEmrVelocityFunctionsTest extends BaseModuleContextSensitiveTes
 		// Patient #7 has a UPN
 		Assert.assertTrue(functionsForSession2.hasHivUniquePatientNumber());
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see org.openmrs.module.kenyaemr.form.KenyaEmrVelocityFunctions#latestObs(String)
+	 * @see org.openmrs.module.kenyaemr.form.KenyaEmrVelocityFunctions#earliestObs(String)
+	 * @see org.openmrs.module.kenyaemr.form.KenyaEmrVelocityFunctions#obsToday(String)
+	 */
+	@Test
+	public void obsFunctions_shouldGetObsOfReferencedAndOtherConcepts() throws Exception {
+		Patient patient7 = Context.getPatientService().getPatient(7);
+		Concept returnVisitDate = Dictionary.getConcept(Dictionary.RETURN_VISIT_DATE);
+		Concept cd4Count = Dictionary.getConcept(Dictionary.CD4_COUNT);
+
+		Obs existing = Context.getObsService().getObs(5096);
+		Obs latest = TestUtils.saveObs(patient7, returnVisitDate, TestUtils.date(2012, 8, 1), TestUtils.date(2012, 7, 1));
+		Obs today = TestUtils.saveObs(patient7, cd4Count, 350.0, new Date());
+
+		// Form only references the return visit date concept, so CD4 count obs are fetched on demand
+		String formXml = "<htmlform><lookup expression=\"kenyaemr.latestObs('" + Dictionary.RETURN_VISIT_DATE + "')\" /></htmlform>";
+		KenyaEmrVelocityFunctions functions = new KenyaEmrVelocityFunctions(new FormEntrySession(patient7, formXml, new MockHttpSession()));
+
+		Assert.assertEquals(latest, functions.latestObs(Dictionary.RETURN_VISIT_DATE));
+		Assert.assertEquals(existing, functions.earliestObs(Dictionary.RETURN_VISIT_DATE));
+		Assert.assertEquals(2, functions.allObs(Dictionary.RETURN_VISIT_DATE).size());
+		Assert.assertNull(functions.obsToday(Dictionary.RETURN_VISIT_DATE));
+
+		Assert.assertEquals(today, functions.latestObs(Dictionary.CD4_COUNT));
+		Assert.assertEquals(today, functions.earliestObs(Dictionary.CD4_COUNT));
+		Assert.assertEquals(today, functions.obsToday(Dictionary.CD4_COUNT));
+	}
+}
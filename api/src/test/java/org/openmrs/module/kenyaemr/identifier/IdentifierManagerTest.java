@@ -44,6 +44,7 @@ public class IdentifierManagerTest extends BaseModuleContextSensitiveTest {
 		executeDataSet("test-data.xml");
 
 		emr.getMetadataManager().setupGlobalProperties();
+		emr.getFacilityConfiguration().refresh();
 	}
 
 	/**
@@ -82,6 +83,29 @@ public class IdentifierManagerTest extends BaseModuleContextSensitiveTest {
 		identifierManager.getHivUniqueIdentifierSource();
 	}
 
+	/**
+	 * @see IdentifierManager#isConfigured()
+	 * @see IdentifierManager#invalidateIdentifierSources()
+	 */
+	@Test
+	public void isConfigured_shouldUseCachedSourcesUntilInvalidated() {
+		identifierManager.setupMrnIdentifierSource("4");
+		identifierManager.setupHivUniqueIdentifierSource("00517");
+
+		Assert.assertTrue(identifierManager.isConfigured());
+
+		// Retire source without going through advice
+		IdentifierSource mrnSource = identifierManager.getMrnIdentifierSource();
+		mrnSource.setRetired(true);
+		Context.getService(IdentifierSourceService.class).saveIdentifierSource(mrnSource);
+
+		Assert.assertTrue(identifierManager.isConfigured());
+
+		identifierManager.invalidateIdentifierSources();
+
+		Assert.assertFalse(identifierManager.isConfigured());
+	}
+
 	/**
 	 * @see IdentifierManager#setupMrnIdentifierSource(String)
 	 * @verifies fail if already set up
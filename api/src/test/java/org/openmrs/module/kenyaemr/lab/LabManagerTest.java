@@ -17,6 +17,7 @@ package org.openmrs.module.kenyaemr.lab;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.Concept;
 import org.openmrs.DrugOrder;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.kenyaemr.Dictionary;
@@ -24,8 +25,10 @@ import org.openmrs.module.kenyaemr.Metadata;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 
@@ -90,4 +93,54 @@ public class LabManagerTest extends BaseModuleContextSensitiveTest {
 		Assert.assertFalse(labManager.isLabTest(Dictionary.getConcept(Dictionary.YES)));
 		Assert.assertFalse(labManager.isLabTest(null));
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see LabManager#getTestOptionsHtml(java.util.Set)
+	 */
+	@Test
+	public void getTestOptionsHtml_shouldRenderOptionsForAllTestsExceptExcluded() {
+		Concept cd4Count = Dictionary.getConcept(Dictionary.CD4_COUNT);
+		Concept cd4Percent = Dictionary.getConcept(Dictionary.CD4_PERCENT);
+
+		String all = labManager.getTestOptionsHtml(Collections.<Concept>emptySet());
+		Assert.assertTrue(all.contains("<optgroup label=\"category1\">"));
+		Assert.assertTrue(all.contains("<option value=\"" + cd4Count.getConceptId() + "\">"));
+		Assert.assertTrue(all.contains("<option value=\"" + cd4Percent.getConceptId() + "\">test-name</option>"));
+
+		String filtered = labManager.getTestOptionsHtml(Collections.singleton(cd4Percent));
+		Assert.assertTrue(filtered.contains("<option value=\"" + cd4Count.getConceptId() + "\">"));
+		Assert.assertFalse(filtered.contains("<option value=\"" + cd4Percent.getConceptId() + "\">"));
+	}
+
+	/**
+	 * @see LabManager#getTestOptionsHtml(java.util.Set)
+	 */
+	@Test
+	public void getTestOptionsHtml_shouldReuseFilteredOptionsUntilTestsChange() throws Exception {
+		Concept cd4Percent = Dictionary.getConcept(Dictionary.CD4_PERCENT);
+
+		String filtered = labManager.getTestOptionsHtml(Collections.singleton(cd4Percent));
+		Assert.assertSame(filtered, labManager.getTestOptionsHtml(new HashSet<Concept>(Arrays.asList(cd4Percent))));
+
+		labManager.loadTestsFromXML(getClass().getClassLoader().getResourceAsStream("test-lab.xml"));
+
+		Assert.assertNotSame(filtered, labManager.getTestOptionsHtml(Collections.singleton(cd4Percent)));
+	}
+
+	/**
+	 * @see LabManager#reloadTestsFromXML(java.io.InputStream)
+	 */
+	@Test
+	public void reloadTestsFromXML_shouldReplaceTestsAndIncrementVersion() throws Exception {
+		int version = labManager.getVersion();
+
+		String xml = "<lab><tests><category name=\"category3\">"
+				+ "<test concept=\"5497AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\" /></category></tests></lab>";
+		labManager.reloadTestsFromXML(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+		Assert.assertEquals(version + 1, labManager.getVersion());
+		Assert.assertEquals(Arrays.asList("category3"), labManager.getCategories());
+		Assert.assertTrue(labManager.isLabTest(Dictionary.getConcept(Dictionary.CD4_COUNT)));
+		Assert.assertFalse(labManager.isLabTest(Dictionary.getConcept(Dictionary.CD4_PERCENT)));
+	}
+}
@@ -23,6 +23,7 @@ import org.openmrs.module.kenyaemr.Dictionary;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -142,4 +143,42 @@ public class RegimenManagerTest extends BaseModuleContextSensitiveTest {
 		Assert.assertNull(regimenManager.getDrugs("category1"));
 		Assert.assertNull(regimenManager.getRegimenGroups("category1"));
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see RegimenManager#reloadDefinitionsFromXML(java.io.InputStream)
+	 */
+	@Test
+	public void reloadDefinitionsFromXML_shouldReplaceDefinitionsAndIncrementVersion() throws Exception {
+		int version = regimenManager.getVersion();
+
+		InputStream stream = getClass().getClassLoader().getResourceAsStream("test-regimens.xml");
+		regimenManager.reloadDefinitionsFromXML(stream);
+
+		Assert.assertEquals(version + 1, regimenManager.getVersion());
+		Assert.assertEquals(1, regimenManager.getCategoryCodes().size());
+		Assert.assertEquals(2, regimenManager.getRegimenGroups("category1").size());
+	}
+
+	/**
+	 * @see RegimenManager#reloadDefinitionsFromXML(java.io.InputStream)
+	 */
+	@Test
+	public void reloadDefinitionsFromXML_shouldKeepCurrentDefinitionsIfInvalid() throws Exception {
+		int version = regimenManager.getVersion();
+
+		String xml = "<definitions><category code=\"category2\" masterSetUuid=\"1085AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\">"
+				+ "<drugs><drug code=\"XXX\" conceptUuid=\"invalid-uuid\" /></drugs></category></definitions>";
+
+		try {
+			regimenManager.reloadDefinitionsFromXML(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+			Assert.fail();
+		}
+		catch (RuntimeException ex) {
+			// expected
+		}
+
+		Assert.assertEquals(version, regimenManager.getVersion());
+		Assert.assertNotNull(regimenManager.getRegimenGroups("category1"));
+		Assert.assertNull(regimenManager.getRegimenGroups("category2"));
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.kenyaemr.search;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link LocationSearchIndex}
+ */
+public class LocationSearchIndexTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private LocationSearchIndex locationIndex;
+
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("test-data.xml");
+
+		locationIndex.refresh();
+	}
+
+	/**
+	 * @see LocationSearchIndex#getLocationIdByMflCode(String)
+	 */
+	@Test
+	public void getLocationIdByMflCode_shouldGetNonRetiredLocationWithCode() {
+		Assert.assertEquals(Integer.valueOf(1), locationIndex.getLocationIdByMflCode("15001"));
+		Assert.assertNull(locationIndex.getLocationIdByMflCode("15003")); // Location is retired
+		Assert.assertNull(locationIndex.getLocationIdByMflCode("XXXXX")); // No such MFL code
+	}
+
+	/**
+	 * @see LocationSearchIndex#search(String, int)
+	 */
+	@Test
+	public void search_shouldFindLocationsByNamePrefixIgnoringCase() {
+		Location location = Context.getLocationService().getLocation(2);
+		String prefix = location.getName().substring(0, 3).toUpperCase();
+
+		List<Integer> locationIds = new ArrayList<Integer>();
+		for (LocationSearchIndex.Entry entry : locationIndex.search(prefix, 10)) {
+			Assert.assertTrue(entry.getName().toUpperCase().startsWith(prefix));
+			locationIds.add(entry.getLocationId());
+		}
+
+		Assert.assertTrue(locationIds.contains(2));
+		Assert.assertEquals("15002", locationIndex.getEntry(2).getMflCode());
+		Assert.assertEquals(0, locationIndex.search("xxxxxxxxxx", 10).size());
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.search;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+
+/**
+ * Tests for {@link PatientSearchIndex}
+ */
+public class PatientSearchIndexTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private PatientSearchIndex searchIndex;
+
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("test-data.xml");
+
+		searchIndex.refresh();
+	}
+
+	/**
+	 * @see PatientSearchIndex#search(String, Integer, int, int)
+	 */
+	@Test
+	public void search_shouldFindPatientsByIdentifier() {
+		List<Integer> results = searchIndex.search("1321200001", null, 0, 10);
+		Assert.assertEquals(Integer.valueOf(7), results.get(0));
+	}
+
+	/**
+	 * @see PatientSearchIndex#search(String, Integer, int, int)
+	 */
+	@Test
+	public void search_shouldFindPatientsByNamePrefix() {
+		Patient patient = Context.getPatientService().getPatient(7);
+		String givenName = patient.getGivenName();
+		String familyName = patient.getFamilyName();
+
+		Assert.assertTrue(searchIndex.search(givenName.substring(0, 3), null, 0, 100).contains(7));
+		Assert.assertTrue(searchIndex.search(givenName + " " + familyName, null, 0, 100).contains(7));
+		Assert.assertFalse(searchIndex.search(givenName + " xxxxxxxxxx", null, 0, 100).contains(7));
+	}
+
+	/**
+	 * @see PatientSearchIndex#search(String, Integer, int, int)
+	 */
+	@Test
+	public void search_shouldFilterPatientsByAge() {
+		Patient patient = Context.getPatientService().getPatient(7);
+
+		Assert.assertTrue(searchIndex.search("1321200001", patient.getAge(), 0, 10).contains(7));
+		Assert.assertFalse(searchIndex.search("1321200001", patient.getAge() + 10, 5, 10).contains(7));
+	}
+
+	/**
+	 * @see PatientSearchIndex#update(org.openmrs.Patient)
+	 */
+	@Test
+	public void update_shouldReindexPatient() {
+		Patient patient = Context.getPatientService().getPatient(7);
+		patient.addName(new PersonName("Wanjiku", null, "Kamau"));
+		Context.getPatientService().savePatient(patient);
+
+		Assert.assertFalse(searchIndex.search("wanjiku", null, 0, 10).contains(7));
+
+		searchIndex.update(patient);
+
+		Assert.assertTrue(searchIndex.search("wanjiku", null, 0, 10).contains(7));
+		Assert.assertTrue(searchIndex.search("wanjku kamau", null, 0, 10).contains(7)); // Misspelt
+	}
+
+	/**
+	 * @see PatientSearchIndex#search(String, Integer, int, int)
+	 */
+	@Test
+	public void search_shouldMatchNamesWithApostrophesAndHyphens() {
+		Patient patient = Context.getPatientService().getPatient(7);
+		patient.addName(new PersonName("Mary-Jane", null, "O'Brien"));
+		Context.getPatientService().savePatient(patient);
+		searchIndex.update(patient);
+
+		Assert.assertTrue(searchIndex.search("o'brien", null, 0, 10).contains(7));
+		Assert.assertTrue(searchIndex.search("O'Bri", null, 0, 10).contains(7)); // Prefix
+		Assert.assertTrue(searchIndex.search("o'brian", null, 0, 10).contains(7)); // Misspelt
+		Assert.assertTrue(searchIndex.search("mary-jane", null, 0, 10).contains(7));
+		Assert.assertTrue(searchIndex.search("mary-jane o'brien", null, 0, 10).contains(7));
+		Assert.assertTrue(searchIndex.search("mary jane", null, 0, 10).contains(7));
+		Assert.assertFalse(searchIndex.search("mary-xxxxxxxxxx", null, 0, 10).contains(7));
+	}
+
+	/**
+	 * @see PatientSearchIndex#editDistance(String, String, int)
+	 */
+	@Test
+	public void editDistance_shouldCountTranspositionsAsSingleEdit() {
+		Assert.assertEquals(0, PatientSearchIndex.editDistance("john", "john", 2));
+		Assert.assertEquals(1, PatientSearchIndex.editDistance("jonh", "john", 2));
+		Assert.assertEquals(1, PatientSearchIndex.editDistance("jon", "john", 2));
+		Assert.assertEquals(3, PatientSearchIndex.editDistance("abcdef", "uvwxyz", 2));
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.kenyaemr.summary;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link PatientSummaryLoader}
+ */
+public class PatientSummaryLoaderTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private PatientSummaryLoader summaryLoader;
+
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("test-data.xml");
+	}
+
+	/**
+	 * @see PatientSummaryLoader#load(java.util.Collection)
+	 */
+	@Test
+	public void load_shouldLoadSummariesInOrderOfPatientIds() {
+		List<PatientSummary> summaries = summaryLoader.load(Arrays.asList(7, 6));
+
+		Assert.assertEquals(2, summaries.size());
+		Assert.assertEquals(new Integer(7), summaries.get(0).getPatientId());
+		Assert.assertEquals(new Integer(6), summaries.get(1).getPatientId());
+
+		// Summary matches one made from the loaded patient
+		Patient patient = Context.getPatientService().getPatient(7);
+		PatientSummary expected = new PatientSummary(patient);
+		PatientSummary loaded = summaries.get(0);
+		Assert.assertEquals(expected.getGender(), loaded.getGender());
+		Assert.assertEquals(expected.getBirthdate(), loaded.getBirthdate());
+		Assert.assertEquals(expected.getFamilyName(), loaded.getFamilyName());
+		Assert.assertEquals(expected.getIdentifiers().size(), loaded.getIdentifiers().size());
+		Assert.assertEquals(expected.getIdentifiers().get(0).getIdentifier(), loaded.getIdentifiers().get(0).getIdentifier());
+	}
+}
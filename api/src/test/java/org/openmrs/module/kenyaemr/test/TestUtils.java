@@ -30,6 +30,7 @@ import org.openmrs.Program;
 import org.openmrs.api.context.Context;
 import org.openmrs.customdatatype.CustomDatatype;
 import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.regimen.RegimenOrder;
 import org.openmrs.module.reporting.dataset.DataSet;
 import org.openmrs.module.reporting.dataset.DataSetRow;
@@ -180,7 +181,13 @@ public class TestUtils {
 	public static Obs saveObs(Patient patient, Concept concept, Date val, Date date) {
 		Obs obs = new Obs(patient, concept, date, null);
 		obs.setValueDatetime(val);
-		return Context.getObsService().saveObs(obs, null);
+		obs = Context.getObsService().saveObs(obs, null);
+
+		// Obs service advice isn't applied in tests, so update appointments as it would
+		if (Dictionary.RETURN_VISIT_DATE.equals(concept.getUuid())) {
+			Context.getService(KenyaEmrService.class).updateAppointments(patient);
+		}
+		return obs;
 	}
 
 	/**
@@ -0,0 +1,103 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.visit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.test.TestUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+
+/**
+ * Tests for {@link ActiveVisitIndex}
+ */
+public class ActiveVisitIndexTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private ActiveVisitIndex activeVisitIndex;
+
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("test-data.xml");
+
+		activeVisitIndex.refresh();
+	}
+
+	/**
+	 * @see ActiveVisitIndex#getActiveVisits()
+	 */
+	@Test
+	public void getActiveVisits_shouldIndexAllActiveVisits() {
+		List<Visit> activeVisits = Context.getVisitService().getVisits(null, null, null, null, null, null, null, null, null, false, false);
+
+		Assert.assertEquals(activeVisits.size(), activeVisitIndex.getActiveVisits().size());
+
+		for (Visit visit : activeVisits) {
+			Assert.assertTrue(activeVisitIndex.getPatientIds().contains(visit.getPatient().getPatientId()));
+		}
+	}
+
+	/**
+	 * @see ActiveVisitIndex#update(org.openmrs.Visit)
+	 */
+	@Test
+	public void update_shouldAddNewActiveVisitsAndRemoveClosedOnes() {
+		Patient patient = Context.getPatientService().getPatient(7);
+		int count = activeVisitIndex.getActiveVisits().size();
+
+		Visit visit = TestUtils.saveVisit(patient, Context.getVisitService().getVisitType(1), TestUtils.date(2050, 1, 1), null);
+		activeVisitIndex.update(visit);
+
+		Assert.assertEquals(count + 1, activeVisitIndex.getActiveVisits().size());
+
+		ActiveVisitIndex.ActiveVisit activeVisit = activeVisitIndex.getActiveVisit(7);
+		Assert.assertEquals(visit.getVisitId(), activeVisit.getVisitId());
+		Assert.assertEquals(visit.getVisitType().getName(), activeVisit.getVisitTypeName());
+
+		visit.setStopDatetime(TestUtils.date(2050, 1, 2));
+		Context.getVisitService().saveVisit(visit);
+		activeVisitIndex.update(visit);
+
+		Assert.assertEquals(count, activeVisitIndex.getActiveVisits().size());
+		for (ActiveVisitIndex.ActiveVisit v : activeVisitIndex.getActiveVisits()) {
+			Assert.assertFalse(v.getVisitId().equals(visit.getVisitId()));
+		}
+	}
+
+	/**
+	 * @see ActiveVisitIndex#remove(org.openmrs.Visit)
+	 */
+	@Test
+	public void remove_shouldRemovePurgedActiveVisit() {
+		Patient patient = Context.getPatientService().getPatient(7);
+		int count = activeVisitIndex.getActiveVisits().size();
+
+		Visit visit = TestUtils.saveVisit(patient, Context.getVisitService().getVisitType(1), TestUtils.date(2050, 1, 1), null);
+		activeVisitIndex.update(visit);
+
+		Assert.assertEquals(count + 1, activeVisitIndex.getActiveVisits().size());
+
+		Context.getVisitService().purgeVisit(visit);
+		activeVisitIndex.remove(visit);
+
+		Assert.assertEquals(count, activeVisitIndex.getActiveVisits().size());
+	}
+}
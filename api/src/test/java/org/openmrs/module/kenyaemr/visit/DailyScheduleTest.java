@@ -0,0 +1,115 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.visit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.summary.PatientSummary;
+import org.openmrs.module.kenyaemr.test.TestUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link DailySchedule}
+ */
+public class DailyScheduleTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private DailySchedule dailySchedule;
+
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("test-data.xml");
+
+		dailySchedule.refresh();
+	}
+
+	/**
+	 * @see DailySchedule#getScheduledPatients(java.util.Date)
+	 */
+	@Test
+	public void getScheduledPatients_shouldGetPatientsWithReturnVisitDateOnDay() {
+		List<PatientSummary> scheduled = dailySchedule.getScheduledPatients(TestUtils.date(2012, 7, 4, 10, 30, 0));
+
+		Assert.assertEquals(1, scheduled.size());
+		Assert.assertEquals(new Integer(7), scheduled.get(0).getPatientId());
+		Assert.assertEquals(Context.getPatientService().getPatient(7).getFamilyName(), scheduled.get(0).getFamilyName());
+		Assert.assertTrue(scheduled.get(0).getIdentifiers().size() > 0);
+
+		Assert.assertEquals(0, dailySchedule.getScheduledPatients(TestUtils.date(2012, 7, 5)).size());
+	}
+
+	/**
+	 * @see DailySchedule#refresh()
+	 */
+	@Test
+	public void refresh_shouldDiscardCachedSchedules() {
+		Patient patient = Context.getPatientService().getPatient(6);
+		Assert.assertEquals(0, dailySchedule.getScheduledPatients(TestUtils.date(2012, 7, 5)).size());
+
+		TestUtils.saveObs(patient, Dictionary.getConcept(Dictionary.RETURN_VISIT_DATE), TestUtils.date(2012, 7, 5), TestUtils.date(2012, 7, 1));
+
+		// Cached schedule is still used until refreshed
+		Assert.assertEquals(0, dailySchedule.getScheduledPatients(TestUtils.date(2012, 7, 5)).size());
+
+		dailySchedule.refresh();
+
+		Assert.assertEquals(1, dailySchedule.getScheduledPatients(TestUtils.date(2012, 7, 5)).size());
+	}
+
+	/**
+	 * @see DailySchedule#update(Integer)
+	 */
+	@Test
+	public void update_shouldDiscardOnlySchedulesIncludingPatient() {
+		// Patient #7 is scheduled on the first day only
+		List<PatientSummary> firstDay = dailySchedule.getScheduledPatients(TestUtils.date(2012, 7, 4));
+		List<PatientSummary> secondDay = dailySchedule.getScheduledPatients(TestUtils.date(2012, 7, 5));
+
+		dailySchedule.update(6);
+
+		Assert.assertSame(firstDay, dailySchedule.getScheduledPatients(TestUtils.date(2012, 7, 4)));
+		Assert.assertSame(secondDay, dailySchedule.getScheduledPatients(TestUtils.date(2012, 7, 5)));
+
+		dailySchedule.update(7);
+
+		Assert.assertNotSame(firstDay, dailySchedule.getScheduledPatients(TestUtils.date(2012, 7, 4)));
+		Assert.assertSame(secondDay, dailySchedule.getScheduledPatients(TestUtils.date(2012, 7, 5)));
+	}
+
+	/**
+	 * @see DailySchedule#getVisitsOnDay(java.util.Collection, java.util.Date)
+	 */
+	@Test
+	public void getVisitsOnDay_shouldGetVisitsOverlappingDay() {
+		Visit visit = Context.getVisitService().getVisit(5096);
+
+		Map<Integer, List<DailySchedule.DayVisit>> visits = dailySchedule.getVisitsOnDay(Arrays.asList(6, 7), TestUtils.date(2012, 7, 4));
+
+		Assert.assertEquals(0, visits.get(6).size());
+		Assert.assertEquals(1, visits.get(7).size());
+		Assert.assertEquals(visit.getVisitId(), visits.get(7).get(0).getVisitId());
+		Assert.assertEquals(visit.getVisitType().getName(), visits.get(7).get(0).getVisitType());
+	}
+}
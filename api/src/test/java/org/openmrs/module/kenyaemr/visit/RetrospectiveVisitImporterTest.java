@@ -0,0 +1,132 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.kenyaemr.visit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.Form;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.test.TestUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Tests for {@link RetrospectiveVisitImporter}
+ */
+public class RetrospectiveVisitImporterTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private RetrospectiveVisitImporter importer;
+
+	private Form form;
+
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("test-data.xml");
+
+		Context.getService(KenyaEmrService.class).setDefaultLocation(Context.getLocationService().getLocation(1));
+
+		form = Context.getFormService().getForm(1001);
+		form.setEncounterType(Context.getEncounterService().getEncounterType(1));
+		Context.getFormService().saveForm(form);
+	}
+
+	/**
+	 * @see RetrospectiveVisitImporter#importCsv(java.io.Reader)
+	 */
+	@Test
+	public void importCsv_shouldAddEncountersToExistingOrNewVisits() throws Exception {
+		String csv = "identifier,date,form,concept,value\n"
+				+ "1321200001,2012-07-04," + form.getUuid() + "," + Dictionary.CD4_COUNT + ",350\n"
+				+ "1321200001,2012-07-10," + form.getUuid() + "," + Dictionary.CD4_COUNT + ",400\n"
+				+ "1321200001,2012-07-10," + form.getUuid() + "," + Dictionary.RETURN_VISIT_DATE + ",2012-08-10\n";
+
+		RetrospectiveVisitImporter.Result result = importer.importCsv(new StringReader(csv));
+
+		Assert.assertEquals(0, result.getErrors().size());
+		Assert.assertEquals(1, result.getVisitsCreated());
+		Assert.assertEquals(2, result.getEncountersCreated());
+		Assert.assertEquals(3, result.getObsCreated());
+
+		Patient patient = Context.getPatientService().getPatient(7);
+
+		// First encounter is added to the existing visit that day, from the start of that visit
+		Visit existingVisit = Context.getVisitService().getVisit(5096);
+		List<Encounter> encounters = Context.getEncounterService().getEncountersByVisit(existingVisit, false);
+		Assert.assertEquals(1, encounters.size());
+		Assert.assertEquals(existingVisit.getStartDatetime(), encounters.get(0).getEncounterDatetime());
+
+		// Second encounter is added to a new visit
+		List<Visit> newVisits = Context.getService(KenyaEmrService.class).getVisitsByPatientAndDay(patient, TestUtils.date(2012, 7, 10));
+		Assert.assertEquals(1, newVisits.size());
+		encounters = Context.getEncounterService().getEncountersByVisit(newVisits.get(0), false);
+		Assert.assertEquals(1, encounters.size());
+		Assert.assertEquals(2, encounters.get(0).getAllObs().size());
+		for (Obs obs : encounters.get(0).getAllObs()) {
+			Assert.assertEquals(TestUtils.date(2012, 7, 10), obs.getObsDatetime());
+		}
+	}
+
+	/**
+	 * @see RetrospectiveVisitImporter#importCsv(java.io.Reader)
+	 */
+	@Test
+	public void importCsv_shouldSkipEncountersWhichAlreadyExist() throws Exception {
+		String csv = "1321200001,2012-07-04," + form.getUuid() + "," + Dictionary.CD4_COUNT + ",350\n"
+				+ "1321200001,2012-07-10," + form.getUuid() + "," + Dictionary.CD4_COUNT + ",400\n";
+
+		importer.importCsv(new StringReader(csv));
+		RetrospectiveVisitImporter.Result result = importer.importCsv(new StringReader(csv));
+
+		Assert.assertEquals(0, result.getErrors().size());
+		Assert.assertEquals(0, result.getVisitsCreated());
+		Assert.assertEquals(0, result.getEncountersCreated());
+		Assert.assertEquals(2, result.getEncountersSkipped());
+
+		Patient patient = Context.getPatientService().getPatient(7);
+		List<Visit> visits = Context.getService(KenyaEmrService.class).getVisitsByPatientAndDay(patient, TestUtils.date(2012, 7, 10));
+		Assert.assertEquals(1, visits.size());
+		Assert.assertEquals(1, Context.getEncounterService().getEncountersByVisit(visits.get(0), false).size());
+	}
+
+	/**
+	 * @see RetrospectiveVisitImporter#importCsv(java.io.Reader)
+	 */
+	@Test
+	public void importCsv_shouldImportNothingIfAnyLineIsInvalid() throws Exception {
+		String csv = "1321200001,2012-07-10," + form.getUuid() + "," + Dictionary.CD4_COUNT + ",400\n"
+				+ "1321200001,2012-07-10," + form.getUuid() + "," + Dictionary.CD4_COUNT + ",xxx\n"
+				+ "unknown,2012-07-10," + form.getUuid() + "," + Dictionary.CD4_COUNT + ",400\n"
+				+ "1321200001,2012-13-10," + form.getUuid() + "," + Dictionary.CD4_COUNT + ",400\n";
+
+		RetrospectiveVisitImporter.Result result = importer.importCsv(new StringReader(csv));
+
+		Assert.assertEquals(2, result.getErrors().size());
+		Assert.assertTrue(result.getErrors().get(0).startsWith("Line 2:"));
+		Assert.assertTrue(result.getErrors().get(1).startsWith("Line 4:"));
+		Assert.assertEquals(0, result.getEncountersCreated());
+	}
+}
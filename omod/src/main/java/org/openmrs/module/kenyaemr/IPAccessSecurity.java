@@ -15,21 +15,30 @@ package org.openmrs.module.kenyaemr;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
 import org.openmrs.api.context.Context;
 
-import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.openmrs.web.WebConstants.GP_ALLOWED_LOGIN_ATTEMPTS_PER_IP;
 
 /**
- * Manages IP-level security
+ * Manages IP-level security. Each IP address is tracked separately, so that attempts from different addresses don't
+ * contend for a single lock. An address is forgotten once its failed attempts or lock out are older than the lock out
+ * time, and the number of addresses tracked at once is bounded.
  */
 public class IPAccessSecurity {
 
 	protected static final Log log = LogFactory.getLog(IPAccessSecurity.class);
 
+	/**
+	 * Maximum number of IP addresses tracked at once
+	 */
+	private static final int MAX_TRACKED_IPS = 10000;
+
 	/**
 	 * Exception class for illegal access from a locked out IP
 	 */
@@ -40,37 +49,87 @@ public class IPAccessSecurity {
 	}
 
 	/**
-	 * The mapping from user's IP address to the number of failed access attempts
+	 * Refreshes the allowed number of failed accesses when its global property changes
 	 */
-	private static Map<String, Integer> failedAccessesByIP = new HashMap<String, Integer>();
+	public static class GlobalPropertyChangeListener implements GlobalPropertyListener {
+
+		/**
+		 * @see GlobalPropertyListener#supportsPropertyName(String)
+		 */
+		@Override
+		public boolean supportsPropertyName(String propertyName) {
+			return GP_ALLOWED_LOGIN_ATTEMPTS_PER_IP.equals(propertyName);
+		}
+
+		/**
+		 * @see GlobalPropertyListener#globalPropertyChanged(org.openmrs.GlobalProperty)
+		 */
+		@Override
+		public void globalPropertyChanged(GlobalProperty newValue) {
+			maxAllowedFailedAccesses = null;
+		}
+
+		/**
+		 * @see GlobalPropertyListener#globalPropertyDeleted(String)
+		 */
+		@Override
+		public void globalPropertyDeleted(String propertyName) {
+			maxAllowedFailedAccesses = null;
+		}
+	}
 
 	/**
-	 * The mapping from user's IP address to the time that they were locked out
+	 * The failed access attempts and lock out of each IP address
 	 */
-	private static Map<String, Date> lockoutTimeByIP = new HashMap<String, Date>();
+	private static final ConcurrentMap<String, IPRecord> recordsByIP = new ConcurrentHashMap<String, IPRecord>();
+
+	/**
+	 * The allowed number of failed accesses, read from its global property when null
+	 */
+	private static volatile Integer maxAllowedFailedAccesses = null;
 
 	/**
 	 * Registers a failed access attempt
 	 * @param ipAddress the IP address
 	 */
-	public synchronized static void registerFailedAccess(String ipAddress) {
-		int attempts = getFailedAccessesByIP(ipAddress) + 1;
-		failedAccessesByIP.put(ipAddress, attempts);
-
+	public static void registerFailedAccess(String ipAddress) {
 		final int maxAllowed = getMaxAllowedFailedAccesses();
+		long now = System.currentTimeMillis();
 
-		if (attempts > maxAllowed) {
+		while (true) {
+			IPRecord record = getOrCreateRecord(ipAddress);
 
-			// Has lockout time expired?
-			Date lockedOutTime = lockoutTimeByIP.get(ipAddress);
-			if (lockedOutTime != null && System.currentTimeMillis() - lockedOutTime.getTime() > KenyaEmrWebConstants.FAILED_LOGIN_LOCKOUT_TIME) {
+			synchronized (record) {
+				// Record may have been removed while this thread was waiting for it
+				if (record.removed) {
+					continue;
+				}
 
-				// End lock out, but register a failed attempt
-				endLockOut(ipAddress);
-				failedAccessesByIP.put(ipAddress, 1);
-			}
-			else {
-				lockOut(ipAddress);
+				// Forget failed attempts which are older than the lock out time
+				if (record.lockoutTime == 0 && now - record.lastFailedTime > KenyaEmrWebConstants.FAILED_LOGIN_LOCKOUT_TIME) {
+					record.failedAccesses = 0;
+				}
+
+				record.failedAccesses++;
+				record.lastFailedTime = now;
+
+				if (record.failedAccesses > maxAllowed) {
+
+					// Has lockout time expired?
+					if (record.lockoutTime != 0 && now - record.lockoutTime > KenyaEmrWebConstants.FAILED_LOGIN_LOCKOUT_TIME) {
+
+						// End lock out, but register a failed attempt
+						record.lockoutTime = 0;
+						record.failedAccesses = 1;
+					}
+					else {
+						if (record.lockoutTime == 0) {
+							log.warn("Locking out IP address " + ipAddress + " after " + record.failedAccesses + " failed attempts");
+						}
+						record.lockoutTime = now;
+					}
+				}
+				return;
 			}
 		}
 	}
@@ -80,37 +139,57 @@ public class IPAccessSecurity {
 	 * @param ipAddress the IP address
 	 * @throws IPAccessSecurity.AccessFromLockedOutIPException if account is currently locked out
 	 */
-	public synchronized static void registerSuccessfulAccess(String ipAddress) throws AccessFromLockedOutIPException {
-		if (isLockedOut(ipAddress)) {
-			throw new AccessFromLockedOutIPException();
+	public static void registerSuccessfulAccess(String ipAddress) throws AccessFromLockedOutIPException {
+		IPRecord record = recordsByIP.get(ipAddress);
+		if (record == null) {
+			return;
 		}
 
-		endLockOut(ipAddress);
+		synchronized (record) {
+			if (record.isLockedOut(System.currentTimeMillis())) {
+				throw new AccessFromLockedOutIPException();
+			}
+
+			removeRecord(ipAddress, record);
+		}
 	}
 
 	/**
 	 * Locks out an IP address from now
 	 * @param ipAddress the IP address
 	 */
-	public synchronized static void lockOut(String ipAddress) {
-		lockoutTimeByIP.put(ipAddress, new Date());
+	public static void lockOut(String ipAddress) {
+		while (true) {
+			IPRecord record = getOrCreateRecord(ipAddress);
+
+			synchronized (record) {
+				if (!record.removed) {
+					record.lockoutTime = System.currentTimeMillis();
+					return;
+				}
+			}
+		}
 	}
 
 	/**
 	 * Ends the locked out period for an IP address
 	 * @param ipAddress the IP address
 	 */
-	public synchronized static void endLockOut(String ipAddress) {
-		lockoutTimeByIP.remove(ipAddress);
-		failedAccessesByIP.remove(ipAddress);
+	public static void endLockOut(String ipAddress) {
+		IPRecord record = recordsByIP.get(ipAddress);
+		if (record != null) {
+			synchronized (record) {
+				removeRecord(ipAddress, record);
+			}
+		}
 	}
 
 	/**
 	 * Clears all lock outs for all IPs
 	 */
-	public synchronized static void reset() {
-		failedAccessesByIP.clear();
-		lockoutTimeByIP.clear();
+	public static void reset() {
+		recordsByIP.clear();
+		maxAllowedFailedAccesses = null;
 	}
 
 	/**
@@ -119,18 +198,103 @@ public class IPAccessSecurity {
 	 * @return true if IP is locked out
 	 */
 	public static boolean isLockedOut(String ipAddress) {
-		Date lockedOutTime = lockoutTimeByIP.get(ipAddress);
-		return (lockedOutTime != null && (System.currentTimeMillis() - lockedOutTime.getTime()) < KenyaEmrWebConstants.FAILED_LOGIN_LOCKOUT_TIME);
+		IPRecord record = recordsByIP.get(ipAddress);
+		if (record == null) {
+			return false;
+		}
+
+		synchronized (record) {
+			return record.isLockedOut(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Gets the number of IP addresses which are currently locked out
+	 * @return the number of IP addresses
+	 */
+	public static int getLockedOutIPCount() {
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (IPRecord record : recordsByIP.values()) {
+			synchronized (record) {
+				if (record.isLockedOut(now)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of IP addresses for which failed attempts or lock outs are being tracked
+	 * @return the number of IP addresses
+	 */
+	public static int getTrackedIPCount() {
+		return recordsByIP.size();
+	}
+
+	/**
+	 * Gets the record of an IP address, creating it if necessary
+	 * @param ipAddress the IP address
+	 * @return the record
+	 */
+	private static IPRecord getOrCreateRecord(String ipAddress) {
+		IPRecord record = recordsByIP.get(ipAddress);
+		if (record == null) {
+			if (recordsByIP.size() >= MAX_TRACKED_IPS) {
+				removeExpiredRecords();
+			}
+
+			IPRecord created = new IPRecord();
+			record = recordsByIP.putIfAbsent(ipAddress, created);
+			if (record == null) {
+				record = created;
+			}
+		}
+		return record;
+	}
+
+	/**
+	 * Removes the records of IP addresses which are no longer of interest. If too many addresses are still being
+	 * tracked, those that aren't locked out are removed as well.
+	 */
+	private static synchronized void removeExpiredRecords() {
+		// Another thread may have just removed records
+		if (recordsByIP.size() < MAX_TRACKED_IPS) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+
+		for (Map.Entry<String, IPRecord> entry : recordsByIP.entrySet()) {
+			synchronized (entry.getValue()) {
+				if (entry.getValue().isExpired(now)) {
+					removeRecord(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+
+		if (recordsByIP.size() >= MAX_TRACKED_IPS) {
+			for (Map.Entry<String, IPRecord> entry : recordsByIP.entrySet()) {
+				synchronized (entry.getValue()) {
+					if (!entry.getValue().isLockedOut(now)) {
+						removeRecord(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+
+			log.warn("Too many IP addresses with failed access attempts. Keeping only " + recordsByIP.size() + " locked out addresses");
+		}
 	}
 
 	/**
-	 * Gets number of failed attempts by IP address
+	 * Removes the record of an IP address. The caller must hold the record's lock.
 	 * @param ipAddress the IP address
-	 * @return the number of failed attempts
+	 * @param record the record
 	 */
-	private static int getFailedAccessesByIP(String ipAddress) {
-		Integer attempts = failedAccessesByIP.get(ipAddress);
-		return (attempts == null) ? 0 : attempts;
+	private static void removeRecord(String ipAddress, IPRecord record) {
+		record.removed = true;
+		recordsByIP.remove(ipAddress, record);
 	}
 
 	/**
@@ -138,6 +302,11 @@ public class IPAccessSecurity {
 	 * @return the number of accesses
 	 */
 	private static int getMaxAllowedFailedAccesses() {
+		Integer cached = maxAllowedFailedAccesses;
+		if (cached != null) {
+			return cached;
+		}
+
 		// look up the allowed # of attempts per IP
 		Integer allowedLockoutAttempts = 100;
 
@@ -149,6 +318,45 @@ public class IPAccessSecurity {
 			log.error("Unable to format '" + allowedLockoutAttemptsGP + "' from global property " + GP_ALLOWED_LOGIN_ATTEMPTS_PER_IP + " as an integer");
 		}
 
+		maxAllowedFailedAccesses = allowedLockoutAttempts;
 		return allowedLockoutAttempts;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Failed access attempts and lock out of a single IP address, guarded by its own lock
+	 */
+	private static class IPRecord {
+
+		private int failedAccesses = 0;
+
+		private long lastFailedTime = 0;
+
+		/**
+		 * The time that the IP address was locked out, or zero if it isn't
+		 */
+		private long lockoutTime = 0;
+
+		/**
+		 * Whether this record has been removed from the map, in which case it mustn't be updated
+		 */
+		private boolean removed = false;
+
+		/**
+		 * Checks whether the IP address is locked out at the given time
+		 * @param now the time
+		 * @return true if locked out
+		 */
+		private boolean isLockedOut(long now) {
+			return lockoutTime != 0 && (now - lockoutTime) < KenyaEmrWebConstants.FAILED_LOGIN_LOCKOUT_TIME;
+		}
+
+		/**
+		 * Checks whether both the failed attempts and the lock out are older than the lock out time
+		 * @param now the time
+		 * @return true if expired
+		 */
+		private boolean isExpired(long now) {
+			return !isLockedOut(now) && now - lastFailedTime > KenyaEmrWebConstants.FAILED_LOGIN_LOCKOUT_TIME;
+		}
+	}
+}
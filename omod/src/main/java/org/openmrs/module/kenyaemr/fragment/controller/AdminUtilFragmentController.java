@@ -14,69 +14,96 @@
 package org.openmrs.module.kenyaemr.fragment.controller;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
 
-import org.openmrs.Person;
-import org.openmrs.Provider;
-import org.openmrs.User;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.PersonName;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.ui.framework.SimpleObject;
+import org.openmrs.module.kenyaemr.KenyaEmr;
 import org.openmrs.ui.framework.UiUtils;
-import org.openmrs.util.PersonByNameComparator;
+import org.openmrs.ui.framework.annotation.SpringBean;
+import org.openmrs.ui.framework.fragment.action.FailureResult;
+import org.openmrs.ui.framework.fragment.action.SuccessResult;
 import org.springframework.web.bind.annotation.RequestParam;
 
 /**
  * Various actions for the admin app
  */
 public class AdminUtilFragmentController {
+
+	protected static final Log log = LogFactory.getLog(AdminUtilFragmentController.class);
+
+	private static final int MAX_PAGE_SIZE = 500;
+
+	/**
+	 * Privilege of the admin app, which is required for admin actions that change server state
+	 */
+	private static final String ADMIN_APP_PRIVILEGE = "App: kenyaemr.admin";
 	
 	public List<SimpleObject> accountSearch(@RequestParam(value = "q", required = false) String query,
 											@RequestParam(value="which", required=false) String which,
+											@RequestParam(value = "start", defaultValue = "0") int start,
+											@RequestParam(value = "length", required = false) Integer length,
 	                                        UiUtils ui) {
 
-		Map<Person, User> userAccounts = new HashMap<Person, User>();
-		Map<Person, Provider> providerAccounts = new HashMap<Person, Provider>();
-		
-		if ("both".equals(which) || "users".equals(which)) {
-			List<User> users = Context.getUserService().getUsers(query, null, true);
-			for (User u : users) {
-				if (!"daemon".equals(u.getUsername())) {
-					userAccounts.put(u.getPerson(), u);
+		KenyaEmrService service = Context.getService(KenyaEmrService.class);
+		boolean includeUsers = "both".equals(which) || "users".equals(which);
+		boolean includeProviders = "both".equals(which) || "providers".equals(which);
+
+		// The manage accounts page has no paging, so it gets all accounts unless a page size is given
+		int pageSize = length != null ? Math.min(length, MAX_PAGE_SIZE) : 0;
+
+		// Fetch persons sorted by name, then only the accounts of those persons
+		Map<Integer, SimpleObject> accounts = new LinkedHashMap<Integer, SimpleObject>();
+		for (Object[] row : service.getAccountPersons(query, includeUsers, includeProviders, start, pageSize)) {
+			PersonName name = new PersonName((String) row[1], (String) row[2], (String) row[3]);
+			accounts.put((Integer) row[0], SimpleObject.create("personId", row[0], "personName", ui.format(name)));
+		}
+
+		if (includeUsers) {
+			for (Object[] row : service.getAccountUsers(accounts.keySet(), query)) {
+				SimpleObject account = accounts.get((Integer) row[0]);
+				if (!account.containsKey("user")) {
+					account.put("user", SimpleObject.create("username", ui.format(row[1])));
 				}
 			}
 		}
 
-		if ("both".equals(which) || "providers".equals(which)) {
-			List<Provider> providers = Context.getProviderService().getProviders(query, null, null, null);
-			for (Provider p : providers) {
-				if (p.getPerson() != null) {
-					providerAccounts.put(p.getPerson(), p);
+		if (includeProviders) {
+			for (Object[] row : service.getAccountProviders(accounts.keySet(), query)) {
+				SimpleObject account = accounts.get((Integer) row[0]);
+				if (!account.containsKey("provider")) {
+					account.put("provider", SimpleObject.create("identifier", ui.format(row[1])));
 				}
 			}
 		}
 		
-		Set<Person> persons = new TreeSet<Person>(new PersonByNameComparator());
-		persons.addAll(userAccounts.keySet());
-		persons.addAll(providerAccounts.keySet());
-		
-		List<SimpleObject> ret = new ArrayList<SimpleObject>();
-		for (Person p : persons) {
-			SimpleObject account = SimpleObject.fromObject(p, ui, "personId", "personName");
-			User user = userAccounts.get(p);
-			if (user != null) {
-				account.put("user", SimpleObject.fromObject(user, ui, "username"));
-			}
-			Provider provider = providerAccounts.get(p);
-			if (provider != null) {
-				account.put("provider", SimpleObject.fromObject(provider, ui, "identifier"));
-			}
-			ret.add(account);
+		return new ArrayList<SimpleObject>(accounts.values());
+	}
+
+	/**
+	 * Reloads the regimen and lab test definitions
+	 * @param emr the KenyaEMR
+	 * @return success or failure message
+	 */
+	public Object reloadRegimensAndLabTests(@SpringBean KenyaEmr emr) {
+		if (!Context.hasPrivilege(ADMIN_APP_PRIVILEGE)) {
+			return new FailureResult("Only administrators can reload regimens and lab tests");
 		}
-		
-		return ret;
+
+		try {
+			emr.reloadRegimensAndLabTests();
+		}
+		catch (Exception ex) {
+			log.error("Unable to reload regimens and lab tests", ex);
+			return new FailureResult("Unable to reload: " + ex.getMessage());
+		}
+
+		return new SuccessResult("Reloaded regimens and lab tests");
 	}
-}
\ No newline at end of file
+}
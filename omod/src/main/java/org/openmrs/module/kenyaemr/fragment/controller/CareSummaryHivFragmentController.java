@@ -18,16 +18,18 @@ import org.openmrs.Concept;
 import org.openmrs.Patient;
 import org.openmrs.calculation.result.CalculationResult;
 import org.openmrs.module.kenyaemr.KenyaEmr;
-import org.openmrs.module.kenyaemr.calculation.CalculationUtils;
+import org.openmrs.module.kenyaemr.KenyaEmrUiUtils;
 import org.openmrs.module.kenyaemr.calculation.LastWHOStageCalculation;
 import org.openmrs.module.kenyaemr.calculation.art.InitialArtRegimenCalculation;
 import org.openmrs.module.kenyaemr.calculation.art.InitialArtStartDateCalculation;
 import org.openmrs.module.kenyaemr.calculation.cd4.LastCD4CountCalculation;
 import org.openmrs.module.kenyaemr.calculation.cd4.LastCD4PercentageCalculation;
+import org.openmrs.module.kenyaemr.chart.PatientChart;
 import org.openmrs.module.kenyaemr.regimen.RegimenChangeHistory;
 import org.openmrs.ui.framework.annotation.FragmentParam;
 import org.openmrs.ui.framework.annotation.SpringBean;
 import org.openmrs.ui.framework.fragment.FragmentModel;
+import org.openmrs.ui.framework.page.PageModel;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -40,23 +42,26 @@ public class CareSummaryHivFragmentController {
 	public void controller(@FragmentParam("patient") Patient patient,
 						   @FragmentParam("complete") Boolean complete,
 						   FragmentModel model,
-						   @SpringBean KenyaEmr emr) {
+						   PageModel sharedPageModel,
+						   @SpringBean KenyaEmr emr,
+						   @SpringBean KenyaEmrUiUtils kenyaUi) {
 
+		PatientChart chart = kenyaUi.getPatientChart(sharedPageModel, patient);
 		Map<String, CalculationResult> calculationResults = new HashMap<String, CalculationResult>();
 
 		if (complete != null && complete.booleanValue()) {
-			calculationResults.put("initialArtRegimen", CalculationUtils.evaluateForPatient(InitialArtRegimenCalculation.class, null, patient.getPatientId()));
-			calculationResults.put("initialArtStartDate", CalculationUtils.evaluateForPatient(InitialArtStartDateCalculation.class, null, patient.getPatientId()));
+			calculationResults.put("initialArtRegimen", chart.evaluate(InitialArtRegimenCalculation.class, null));
+			calculationResults.put("initialArtStartDate", chart.evaluate(InitialArtStartDateCalculation.class, null));
 		}
 
-		calculationResults.put("lastWHOStage", CalculationUtils.evaluateForPatient(LastWHOStageCalculation.class, null, patient.getPatientId()));
-		calculationResults.put("lastCD4Count", CalculationUtils.evaluateForPatient(LastCD4CountCalculation.class, null, patient.getPatientId()));
-		calculationResults.put("lastCD4Percent", CalculationUtils.evaluateForPatient(LastCD4PercentageCalculation.class, null, patient.getPatientId()));
+		calculationResults.put("lastWHOStage", chart.evaluate(LastWHOStageCalculation.class, null));
+		calculationResults.put("lastCD4Count", chart.evaluate(LastCD4CountCalculation.class, null));
+		calculationResults.put("lastCD4Percent", chart.evaluate(LastCD4PercentageCalculation.class, null));
 
 		model.addAttribute("calculations", calculationResults);
 
 		Concept medSet = emr.getRegimenManager().getMasterSetConcept("ARV");
-		RegimenChangeHistory history = RegimenChangeHistory.forPatient(patient, medSet);
+		RegimenChangeHistory history = chart.getRegimenHistory(medSet);
 		model.addAttribute("regimenHistory", history);
 	}
 }
\ No newline at end of file
@@ -18,14 +18,16 @@ import org.openmrs.Concept;
 import org.openmrs.Patient;
 import org.openmrs.calculation.result.CalculationResult;
 import org.openmrs.module.kenyaemr.KenyaEmr;
-import org.openmrs.module.kenyaemr.calculation.CalculationUtils;
+import org.openmrs.module.kenyaemr.KenyaEmrUiUtils;
 import org.openmrs.module.kenyaemr.calculation.tb.TbDiseaseClassificationCalculation;
 import org.openmrs.module.kenyaemr.calculation.tb.TbPatientClassificationCalculation;
 import org.openmrs.module.kenyaemr.calculation.tb.TbTreatmentNumberCalculation;
+import org.openmrs.module.kenyaemr.chart.PatientChart;
 import org.openmrs.module.kenyaemr.regimen.RegimenChangeHistory;
 import org.openmrs.ui.framework.annotation.FragmentParam;
 import org.openmrs.ui.framework.annotation.SpringBean;
 import org.openmrs.ui.framework.fragment.FragmentModel;
+import org.openmrs.ui.framework.page.PageModel;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -38,23 +40,26 @@ public class CareSummaryTbFragmentController {
 	public void controller(@FragmentParam("patient") Patient patient,
 						   @FragmentParam("complete") Boolean complete,
 						   FragmentModel model,
-						   @SpringBean KenyaEmr emr) {
+						   PageModel sharedPageModel,
+						   @SpringBean KenyaEmr emr,
+						   @SpringBean KenyaEmrUiUtils kenyaUi) {
 
+		PatientChart chart = kenyaUi.getPatientChart(sharedPageModel, patient);
 		Map<String, Object> calculationResults = new HashMap<String, Object>();
 
-		CalculationResult result = CalculationUtils.evaluateForPatient(TbDiseaseClassificationCalculation.class, null, patient.getPatientId());
+		CalculationResult result = chart.evaluate(TbDiseaseClassificationCalculation.class, null);
 		calculationResults.put("tbDiseaseClassification", result != null ? result.getValue() : null);
 
-		result = CalculationUtils.evaluateForPatient(TbPatientClassificationCalculation.class, null, patient.getPatientId());
+		result = chart.evaluate(TbPatientClassificationCalculation.class, null);
 		calculationResults.put("tbPatientClassification", result != null ? result.getValue() : null);
 
-		result = CalculationUtils.evaluateForPatient(TbTreatmentNumberCalculation.class, null, patient.getPatientId());
+		result = chart.evaluate(TbTreatmentNumberCalculation.class, null);
 		calculationResults.put("tbTreatmentNumber", result != null ? result.getValue() : null);
 
 		model.addAttribute("calculations", calculationResults);
 
 		Concept medSet = emr.getRegimenManager().getMasterSetConcept("TB");
-		RegimenChangeHistory history = RegimenChangeHistory.forPatient(patient, medSet);
+		RegimenChangeHistory history = chart.getRegimenHistory(medSet);
 		model.addAttribute("regimenHistory", history);
 	}
 }
\ No newline at end of file
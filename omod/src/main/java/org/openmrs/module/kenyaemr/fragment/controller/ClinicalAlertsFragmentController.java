@@ -21,10 +21,10 @@ import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
-import org.openmrs.calculation.patient.PatientCalculationService;
 import org.openmrs.calculation.result.CalculationResult;
 import org.openmrs.module.kenyaemr.KenyaEmr;
 import org.openmrs.module.kenyaemr.calculation.BaseAlertCalculation;
+import org.openmrs.module.kenyaemr.chart.PatientChart;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.UiUtils;
 import org.openmrs.ui.framework.annotation.SpringBean;
@@ -54,10 +54,13 @@ public class ClinicalAlertsFragmentController {
 
 		List<SimpleObject> alerts = new ArrayList<SimpleObject>();
 
+		// Alert calculations share a chart so they also share a calculation context
+		PatientChart chart = new PatientChart(Context.getPatientService().getPatient(patientId));
+
 		// Gather all alert calculations that evaluate to true
 		for (BaseAlertCalculation calc : emr.getCalculationManager().getAlertCalculations()) {
 			try {
-				CalculationResult result = Context.getService(PatientCalculationService.class).evaluate(patientId, calc);
+				CalculationResult result = chart.evaluate(calc);
 				if (result != null && (Boolean) result.getValue()) {
 						alerts.add(SimpleObject.create("message", calc.getAlertMessage()));
 				}
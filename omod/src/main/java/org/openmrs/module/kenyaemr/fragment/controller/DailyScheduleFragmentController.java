@@ -14,28 +14,19 @@
 package org.openmrs.module.kenyaemr.fragment.controller;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import org.openmrs.Patient;
-import org.openmrs.api.context.Context;
-import org.openmrs.calculation.patient.PatientCalculationContext;
-import org.openmrs.calculation.patient.PatientCalculationService;
-import org.openmrs.calculation.result.CalculationResultMap;
-import org.openmrs.calculation.result.ListResult;
-import org.openmrs.module.kenyaemr.calculation.CalculationUtils;
-import org.openmrs.module.kenyaemr.calculation.ScheduledVisitOnDayCalculation;
-import org.openmrs.module.kenyaemr.calculation.VisitsOnDayCalculation;
+import org.openmrs.Person;
+import org.openmrs.module.kenyaemr.summary.PatientSummary;
 import org.openmrs.module.kenyaemr.util.KenyaEmrUtils;
+import org.openmrs.module.kenyaemr.visit.DailySchedule;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.annotation.FragmentParam;
+import org.openmrs.ui.framework.annotation.SpringBean;
 import org.openmrs.ui.framework.fragment.FragmentModel;
 import org.openmrs.util.OpenmrsUtil;
-import org.openmrs.util.PersonByNameComparator;
 
 /**
  * Controller for daily schedule fragment
@@ -44,7 +35,8 @@ public class DailyScheduleFragmentController {
 	
 	public void controller(FragmentModel model,
 	                       @FragmentParam("page") String pageWhenClicked,
-	                       @FragmentParam(value = "date", required = false) Date date) {
+	                       @FragmentParam(value = "date", required = false) Date date,
+	                       @SpringBean DailySchedule dailySchedule) {
 
 		Date today = OpenmrsUtil.firstSecondOfDay(new Date());
 		Date tomorrow = KenyaEmrUtils.dateAddDays(today, 1);
@@ -59,26 +51,30 @@ public class DailyScheduleFragmentController {
 			date = OpenmrsUtil.firstSecondOfDay(date);
 		}
 
-		// Run the calculations to get patients with scheduled visits
-		PatientCalculationService cs = Context.getService(PatientCalculationService.class);
-		Set<Integer> allPatients = Context.getPatientSetService().getAllPatients().getMemberIds();
-		Map<String, Object> params = new HashMap<String, Object>();
-		params.put("date", date);
-		PatientCalculationContext calcContext = cs.createCalculationContext();
-		Set<Integer> scheduled = CalculationUtils.patientsThatPass(cs.evaluate(allPatients, new ScheduledVisitOnDayCalculation(), params, calcContext));
-		CalculationResultMap actual = cs.evaluate(scheduled, new VisitsOnDayCalculation(), params, calcContext);
+		// Scheduled patients are already sorted by name
+		List<PatientSummary> scheduled = dailySchedule.getScheduledPatients(date);
+
+		List<Integer> patientIds = new ArrayList<Integer>();
+		for (PatientSummary patient : scheduled) {
+			patientIds.add(patient.getPatientId());
+		}
+		Map<Integer, List<DailySchedule.DayVisit>> visits = dailySchedule.getVisitsOnDay(patientIds, date);
 
-		// Sort patients and convert to simple objects
-		List<Patient> scheduledPatients = Context.getPatientSetService().getPatients(scheduled);
-		Collections.sort(scheduledPatients, new PersonByNameComparator());
 		List<SimpleObject> list = new ArrayList<SimpleObject>();
-		for (Patient p : scheduledPatients) {
+		for (PatientSummary patient : scheduled) {
+			// Transient person for the age fragments, which don't need a persisted patient
+			Person person = new Person(patient.getPatientId());
+			person.setGender(patient.getGender());
+			person.setBirthdate(patient.getBirthdate());
+			person.setBirthdateEstimated(patient.isBirthdateEstimated());
+
 			SimpleObject so = new SimpleObject();
-			so.put("patient", p);
-			so.put("visits", ((ListResult) actual.get(p.getPatientId())).getValues());
+			so.put("patient", patient);
+			so.put("person", person);
+			so.put("visits", visits.get(patient.getPatientId()));
 			list.add(so);
 		}
-		
+
 		model.addAttribute("date", date);
 		model.addAttribute("isToday", date.equals(today));
 		model.addAttribute("isTomorrow", date.equals(tomorrow));
@@ -34,7 +34,7 @@ import org.openmrs.module.htmlformentry.HtmlForm;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
 import org.openmrs.module.kenyaemr.KenyaEmr;
 import org.openmrs.module.kenyaemr.form.FormDescriptor;
-import org.openmrs.module.kenyaemr.form.FormUtils;
+import org.openmrs.module.kenyaemr.form.HtmlFormCache;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.annotation.FragmentParam;
 import org.openmrs.ui.framework.annotation.SpringBean;
@@ -72,7 +72,7 @@ public class EnterHtmlFormFragmentController {
 		}
 
 		// Get html form from database or UI resource
-		HtmlForm hf = FormUtils.getHtmlForm(form, resourceFactory);
+		HtmlForm hf = emr.getHtmlFormCache().getHtmlForm(form, resourceFactory);
 
 		if (hf == null)
 			throw new RuntimeException("Could not find HTML Form");
@@ -80,7 +80,7 @@ public class EnterHtmlFormFragmentController {
 		// Check if form XML can be fetched from a resource
 		FormDescriptor descriptor = emr.getFormManager().getFormDescriptor(form.getUuid());
 		if (descriptor != null && descriptor.getResourceProvider() != null && descriptor.getResource() != null) {
-			String xml = resourceFactory.getResourceAsString(descriptor.getResourceProvider(), descriptor.getResource());
+			String xml = emr.getHtmlFormCache().getResourceXml(descriptor.getResourceProvider(), descriptor.getResource(), resourceFactory);
 			hf.setXmlData(xml);
 		}
 
@@ -141,12 +141,13 @@ public class EnterHtmlFormFragmentController {
 						 @RequestParam(value="visitId", required=false) Visit visit,
 						 @RequestParam(value="returnUrl", required=false) String returnUrl,
 						 @SpringBean ResourceFactory resourceFactory,
+						 @SpringBean HtmlFormCache htmlFormCache,
 						 HttpServletRequest request) throws Exception {
 
 		// TODO formModifiedTimestamp and encounterModifiedTimestamp
 
 		// Get html form from database or UI resource
-		HtmlForm hf = FormUtils.getHtmlForm(form, resourceFactory);
+		HtmlForm hf = htmlFormCache.getHtmlForm(form, resourceFactory);
 
 		FormEntrySession fes;
 		if (encounter != null) {
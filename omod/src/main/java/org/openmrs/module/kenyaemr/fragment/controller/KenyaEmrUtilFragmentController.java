@@ -20,21 +20,18 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Concept;
-import org.openmrs.Location;
-import org.openmrs.LocationAttributeType;
 import org.openmrs.Patient;
-import org.openmrs.api.LocationService;
 import org.openmrs.api.context.Context;
 import org.openmrs.calculation.result.CalculationResult;
+import org.openmrs.module.kenyaemr.FacilityConfiguration;
 import org.openmrs.module.kenyaemr.KenyaEmr;
 import org.openmrs.module.kenyaemr.KenyaEmrUiUtils;
-import org.openmrs.module.kenyaemr.MetadataConstants;
 import org.openmrs.module.kenyaemr.api.ConfigurationRequiredException;
-import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.calculation.CalculationUtils;
 import org.openmrs.module.kenyaemr.calculation.art.InitialArtStartDateCalculation;
 import org.openmrs.module.kenyaemr.regimen.RegimenChange;
 import org.openmrs.module.kenyaemr.regimen.RegimenChangeHistory;
+import org.openmrs.module.kenyaemr.search.LocationSearchIndex;
 import org.openmrs.module.kenyaui.KenyaUiUtils;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.UiUtils;
@@ -53,44 +50,49 @@ public class KenyaEmrUtilFragmentController {
 	 * @param term the search term
 	 * @return the list of locations as simple objects
 	 */
-	public List<SimpleObject> locationSearch(@RequestParam(required = false, value = "term") String term, UiUtils ui, @SpringBean KenyaEmrUiUtils kenyaUi) {
-		LocationService svc = Context.getLocationService();
-		LocationAttributeType mflCodeAttrType = svc.getLocationAttributeTypeByUuid(MetadataConstants.MASTER_FACILITY_CODE_LOCATION_ATTRIBUTE_TYPE_UUID);
-
+	public List<SimpleObject> locationSearch(@RequestParam(required = false, value = "term") String term,
+											 UiUtils ui,
+											 @SpringBean KenyaEmrUiUtils kenyaUi,
+											 @SpringBean FacilityConfiguration facilityConfiguration,
+											 @SpringBean LocationSearchIndex locationIndex) {
 		// Results will be sorted by name
-		Set<Location> results = new TreeSet<Location>(new Comparator<Location>() {
+		Set<LocationSearchIndex.Entry> results = new TreeSet<LocationSearchIndex.Entry>(new Comparator<LocationSearchIndex.Entry>() {
 			@Override
-			public int compare(Location location1, Location location2) {
-				return location1.getName().compareTo(location2.getName());
+			public int compare(LocationSearchIndex.Entry entry1, LocationSearchIndex.Entry entry2) {
+				int byName = entry1.getName().compareTo(entry2.getName());
+				return byName != 0 ? byName : entry1.getLocationId().compareTo(entry2.getLocationId());
 			}
 		});
 
 		// Add default location and its sub-locations
 		try {
-			Location defaultLocation = Context.getService(KenyaEmrService.class).getDefaultLocation();
-			results.add(defaultLocation);
-			results.addAll(defaultLocation.getChildLocations(false));
+			Integer defaultLocationId = facilityConfiguration.getDefaultLocationId();
+			LocationSearchIndex.Entry defaultLocation = locationIndex.getEntry(defaultLocationId);
+			if (defaultLocation != null) {
+				results.add(defaultLocation);
+			}
+			results.addAll(locationIndex.getChildren(defaultLocationId));
 		} catch (ConfigurationRequiredException ex) {
 			// pass
 		}
 
 		// If term looks like an MFL code, add location with that code
 		if (StringUtils.isNumeric(term) && term.length() >= 5) {
-			Location locationByMflCode = Context.getService(KenyaEmrService.class).getLocationByMflCode(term);
-			if (locationByMflCode != null) {
-				results.add(locationByMflCode);
+			Integer locationIdByMflCode = locationIndex.getLocationIdByMflCode(term);
+			if (locationIdByMflCode != null) {
+				results.add(locationIndex.getEntry(locationIdByMflCode));
 			}
 		}
 
 		// Add first 20 results of search by name
 		if (StringUtils.isNotBlank(term)) {
-			results.addAll(svc.getLocations(term, true, 0, 20));
+			results.addAll(locationIndex.search(term, 20));
 		}
 
 		// Convert to simple objects
 		List<SimpleObject> ret = new ArrayList<SimpleObject>();
-		for (Location l : results) {
-			ret.add(kenyaUi.simpleLocation(l, mflCodeAttrType, ui));
+		for (LocationSearchIndex.Entry entry : results) {
+			ret.add(kenyaUi.simpleLocation(entry, ui));
 		}
 		return ret;
 	}
@@ -13,14 +13,14 @@
  */
 package org.openmrs.module.kenyaemr.fragment.controller;
 
-import java.util.ArrayList;
 import java.util.List;
 
-import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.KenyaEmrUiUtils;
+import org.openmrs.module.kenyaemr.chart.RecentlyViewedPatients;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.UiUtils;
-import org.openmrs.ui.framework.session.Session;
+import org.openmrs.ui.framework.annotation.SpringBean;
 
 
 /**
@@ -28,18 +28,9 @@ import org.openmrs.ui.framework.session.Session;
  */
 public class MedicalChartUtilFragmentController {
 	
-	public List<SimpleObject> recentlyViewed(UiUtils ui,Session session) {
-		List<Integer> recent = session.getAttribute("kenyaemr.medicalChart.recentlyViewedPatients", List.class);
-		List<Patient> pats = new ArrayList<Patient>();
-		if (recent != null) {
-			for (Integer ptId : recent) {
-				pats.add(Context.getPatientService().getPatient(ptId));
-			}
-		}
-		return simplePatientList(ui, pats);
+	public List<SimpleObject> recentlyViewed(UiUtils ui,
+											 @SpringBean KenyaEmrUiUtils kenyaUi,
+											 @SpringBean RecentlyViewedPatients recentlyViewed) {
+		return kenyaUi.simplePatientSummaries(recentlyViewed.getRecentlyViewed(Context.getAuthenticatedUser()), ui);
 	}
-	
-	private List<SimpleObject> simplePatientList(UiUtils ui, List<Patient> pts) {
-    	return SimpleObject.fromCollection(pts, ui, "patientId", "personName", "age", "birthdate", "gender", "activeIdentifiers.identifierType", "activeIdentifiers.identifier");
-    }
 }
@@ -21,6 +21,7 @@ import org.openmrs.module.kenyaemr.KenyaEmrUiUtils;
 import org.openmrs.module.kenyaemr.MetadataConstants;
 import org.openmrs.module.kenyaemr.ValidatingCommandObject;
 import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.chart.PatientChart;
 import org.openmrs.module.kenyaemr.regimen.RegimenChangeHistory;
 import org.openmrs.module.kenyaemr.util.KenyaEmrUtils;
 import org.openmrs.ui.framework.SimpleObject;
@@ -30,13 +31,13 @@ import org.openmrs.ui.framework.annotation.FragmentParam;
 import org.openmrs.ui.framework.annotation.MethodParam;
 import org.openmrs.ui.framework.annotation.SpringBean;
 import org.openmrs.ui.framework.fragment.FragmentModel;
+import org.openmrs.ui.framework.page.PageModel;
 import org.openmrs.ui.framework.session.Session;
 import org.openmrs.util.OpenmrsUtil;
 import org.springframework.validation.Errors;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -48,11 +49,14 @@ public class Moh257FragmentController {
 	public void controller(@FragmentParam("patient")
 						   Patient patient,
 						   FragmentModel model,
+						   PageModel sharedPageModel,
 						   UiUtils ui,
 						   Session session,
 						   @SpringBean KenyaEmr emr,
 						   @SpringBean KenyaEmrUiUtils kenyaUi) {
 
+		PatientChart chart = kenyaUi.getPatientChart(sharedPageModel, patient);
+
 		model.addAttribute("newREVisit", newRetrospectiveVisitCommandObject(patient));
 
 		String[] page1FormUuids = {
@@ -64,7 +68,7 @@ public class Moh257FragmentController {
 		List<Encounter> page1Encounters = new ArrayList<Encounter>();
 
 		for (String page1FormUuid : page1FormUuids) {
-			List<Encounter> formEncounters = getPatientEncounterByForm(patient, Context.getFormService().getFormByUuid(page1FormUuid));
+			List<Encounter> formEncounters = chart.getEncounters(Context.getFormService().getFormByUuid(page1FormUuid));
 
 			if (formEncounters.size() == 0) {
 				page1AvailableForms.add(kenyaUi.simpleForm(emr.getFormManager().getFormDescriptor(page1FormUuid), ui));
@@ -74,27 +78,17 @@ public class Moh257FragmentController {
 			}
 		}
 
-		List<Encounter> moh257VisitSummaryEncounters = getPatientEncounterByForm(patient, Context.getFormService().getFormByUuid(MetadataConstants.MOH_257_VISIT_SUMMARY_FORM_UUID));
+		List<Encounter> moh257VisitSummaryEncounters = chart.getEncounters(Context.getFormService().getFormByUuid(MetadataConstants.MOH_257_VISIT_SUMMARY_FORM_UUID));
 
 		model.addAttribute("page1AvailableForms", page1AvailableForms);
 		model.addAttribute("page1Encounters", page1Encounters);
 		model.addAttribute("page2Encounters", moh257VisitSummaryEncounters);
 
 		Concept masterSet = emr.getRegimenManager().getMasterSetConcept("ARV");
-		RegimenChangeHistory arvHistory = RegimenChangeHistory.forPatient(patient, masterSet);
+		RegimenChangeHistory arvHistory = chart.getRegimenHistory(masterSet);
 		model.addAttribute("arvHistory", arvHistory);
 	}
 
-	/**
-	 * Convenience method to get encounters from the given form
-	 * @param patient the patient
-	 * @param form the form
-	 * @return the encounters
-	 */
-	private static List<Encounter> getPatientEncounterByForm(Patient patient, Form form) {
-		return Context.getEncounterService().getEncounters(patient, null, null, null, Collections.singleton(form), null, null, null, null, false);
-	}
-
 	/**
 	 * Helper method to create a new form object
 	 * @return the form object
@@ -16,16 +16,14 @@ package org.openmrs.module.kenyaemr.fragment.controller;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
-import org.openmrs.Patient;
-import org.openmrs.Visit;
-import org.openmrs.api.context.Context;
 import org.openmrs.module.kenyaemr.KenyaEmrUiUtils;
+import org.openmrs.module.kenyaemr.search.PatientSearchIndex;
+import org.openmrs.module.kenyaemr.summary.PatientSummaryLoader;
+import org.openmrs.module.kenyaemr.visit.ActiveVisitIndex;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.UiUtils;
 import org.openmrs.ui.framework.annotation.SpringBean;
@@ -35,6 +33,8 @@ import org.springframework.web.bind.annotation.RequestParam;
  * Handles AJAX patient searches
  */
 public class PatientSearchFragmentController {
+
+	private static final int MAX_RESULTS = 100;
 	
 	public void controller() {
 	}
@@ -44,37 +44,25 @@ public class PatientSearchFragmentController {
 									 @RequestParam(value="age", required=false) Integer age,
 									 @RequestParam(value="ageWindow", defaultValue="5") int ageWindow,
 									 UiUtils ui,
-									 @SpringBean KenyaEmrUiUtils kenyaUi) {
+									 @SpringBean KenyaEmrUiUtils kenyaUi,
+									 @SpringBean ActiveVisitIndex activeVisitIndex,
+									 @SpringBean PatientSearchIndex searchIndex,
+									 @SpringBean PatientSummaryLoader summaryLoader) {
 
 		if ("checked-in".equals(which)) {
-			return withActiveVisits(query, age, ageWindow, ui, kenyaUi);
+			return withActiveVisits(query, age, ageWindow, ui, kenyaUi, activeVisitIndex, searchIndex, summaryLoader);
 		}
 		if (StringUtils.isBlank(query)) {
 			return Collections.emptyList();
 		}
 		
-		List<Patient> ret = Context.getPatientService().getPatients(query);
-		if (age != null) {
-			List<Patient> similar = new ArrayList<Patient>();
-			for (Patient p : ret) {
-				if (Math.abs(p.getAge() - age) <= ageWindow)
-					similar.add(p);
-			}
-			ret = similar;
-		}
-		
-		List<Visit> activeVisits = Context.getVisitService().getVisits(null, null, null, null, null, null, null, null, null, false, false);
-		final Map<Integer, Visit> patientActiveVisits = new HashMap<Integer, Visit>();
-		for (Visit v : activeVisits) {
-			patientActiveVisits.put(v.getPatient().getPatientId(), v);
-		}
-		
-		List<SimpleObject> matching = kenyaUi.simplePatients(ret, ui);
+		List<Integer> patientIds = searchIndex.search(query, age, ageWindow, MAX_RESULTS);
+		List<SimpleObject> matching = kenyaUi.simplePatientSummaries(summaryLoader.load(patientIds), ui);
 
 		for (SimpleObject so : matching) {
-			Visit v = patientActiveVisits.get(so.get("patientId"));
+			ActiveVisitIndex.ActiveVisit v = activeVisitIndex.getActiveVisit((Integer) so.get("patientId"));
 			if (v != null) {
-				so.put("extra", "<div class='ke-tag ke-visittag'>" + ui.format(v.getVisitType()) + "<br/><small>" + ui.format(v.getStartDatetime()) + "</small></div>");
+				so.put("extra", formatActiveVisit(v, ui));
 			}
 		}
 		
@@ -85,38 +73,52 @@ public class PatientSearchFragmentController {
 	                                           @RequestParam(value = "age", required = false) Integer age,
 	                                           @RequestParam(value = "ageWindow", defaultValue = "5") int ageWindow,
 	                                           UiUtils ui,
-											   @SpringBean KenyaEmrUiUtils kenyaUi) {
-		
-		// TODO refactor so it performs faster
-		
-		List<SimpleObject> matching = search(query, null, age, ageWindow, ui, kenyaUi);
+											   @SpringBean KenyaEmrUiUtils kenyaUi,
+											   @SpringBean ActiveVisitIndex activeVisitIndex,
+											   @SpringBean PatientSearchIndex searchIndex,
+											   @SpringBean PatientSummaryLoader summaryLoader) {
 
-		List<Visit> activeVisits = Context.getVisitService().getVisits(null, null, null, null, null, null, null, null, null, false, false);
+		List<Integer> patientIds = new ArrayList<Integer>();
+		List<Integer> searchIds = StringUtils.isBlank(query) ? null : searchIndex.search(query, age, ageWindow, Integer.MAX_VALUE);
 
-		// no query, so we start with all patients with active visits
-		if (matching == null || matching.size() == 0) {
-			List<Patient> ret = new ArrayList<Patient>();
-			for (Visit v : activeVisits) {
-				if (!ret.contains(v.getPatient()))
-					ret.add(v.getPatient());
-			}
-			matching = kenyaUi.simplePatients(ret, ui);
+		if (searchIds == null || searchIds.size() == 0) {
+			// no query, so we start with all patients with active visits
+			patientIds.addAll(activeVisitIndex.getPatientIds());
 		}
-		
-		// intersect query with active visits
-		Map<Integer, Visit> patientActiveVisits = new HashMap<Integer, Visit>();
-		for (Visit v : activeVisits) {
-			patientActiveVisits.put(v.getPatient().getPatientId(), v);
+		else {
+			// intersect query with active visits before limiting the results
+			for (Integer patientId : searchIds) {
+				if (activeVisitIndex.getActiveVisit(patientId) != null) {
+					patientIds.add(patientId);
+
+					if (patientIds.size() >= MAX_RESULTS) {
+						break;
+					}
+				}
+			}
 		}
+
+		List<SimpleObject> matching = kenyaUi.simplePatientSummaries(summaryLoader.load(patientIds), ui);
+
 		for (Iterator<SimpleObject> i = matching.iterator(); i.hasNext(); ) {
 			SimpleObject candidate = i.next();
-			Visit v = patientActiveVisits.get(candidate.get("patientId"));
+			ActiveVisitIndex.ActiveVisit v = activeVisitIndex.getActiveVisit((Integer) candidate.get("patientId"));
 			if (v == null) {
 				i.remove();
 			} else {
-				candidate.put("extra", "<div class='ke-tag ke-visittag'>" + ui.format(v.getVisitType()) + "<br/><small>" + ui.format(v.getStartDatetime()) + "</small></div>");
+				candidate.put("extra", formatActiveVisit(v, ui));
 			}
 		}
 		return matching;
 	}
+
+	/**
+	 * Formats an active visit as a tag to be displayed alongside a patient
+	 * @param visit the active visit
+	 * @param ui the UI utils
+	 * @return the tag HTML
+	 */
+	protected String formatActiveVisit(ActiveVisitIndex.ActiveVisit visit, UiUtils ui) {
+		return "<div class='ke-tag ke-visittag'>" + ui.format(visit.getVisitTypeName()) + "<br/><small>" + ui.format(visit.getStartDatetime()) + "</small></div>";
+	}
 }
@@ -17,10 +17,13 @@ package org.openmrs.module.kenyaemr.fragment.controller;
 import java.util.*;
 
 import org.openmrs.*;
-import org.openmrs.api.ProgramWorkflowService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.KenyaEmrUiUtils;
+import org.openmrs.module.kenyaemr.chart.PatientChart;
 import org.openmrs.ui.framework.annotation.FragmentParam;
+import org.openmrs.ui.framework.annotation.SpringBean;
 import org.openmrs.ui.framework.fragment.FragmentModel;
+import org.openmrs.ui.framework.page.PageModel;
 
 /**
  * Program history fragment
@@ -28,11 +31,13 @@ import org.openmrs.ui.framework.fragment.FragmentModel;
 public class ProgramHistoryFragmentController {
 
 	public void controller(FragmentModel model,
+						   PageModel sharedPageModel,
 						   @FragmentParam("patient") Patient patient,
 						   @FragmentParam("program") Program program,
 						   @FragmentParam("showClinicalData") boolean showClinicalData,
 						   @FragmentParam("enrollmentFormUuid") String enrollmentFormUuid,
-						   @FragmentParam("discontinuationFormUuid") String discontinuationFormUuid) {
+						   @FragmentParam("discontinuationFormUuid") String discontinuationFormUuid,
+						   @SpringBean KenyaEmrUiUtils kenyaUi) {
 
 		model.addAttribute("patient", patient);
 		model.addAttribute("program", program);
@@ -40,12 +45,12 @@ public class ProgramHistoryFragmentController {
 		model.addAttribute("enrollmentForm", Context.getFormService().getFormByUuid(enrollmentFormUuid));
 		model.addAttribute("discontinuationForm", Context.getFormService().getFormByUuid(discontinuationFormUuid));
 
-		ProgramWorkflowService pws = Context.getProgramWorkflowService();
+		PatientChart chart = kenyaUi.getPatientChart(sharedPageModel, patient);
 		PatientProgram currentEnrollment = null;
 
 		// Gather all program enrollments for this patient and program
 		List<PatientProgram> enrollments = new ArrayList<PatientProgram>();
-		for (PatientProgram pp : pws.getPatientPrograms(patient, program, null, null, null, null, false)) {
+		for (PatientProgram pp : chart.getPatientPrograms(program)) {
 			enrollments.add(pp);
 
 			if (pp.getActive()) {
@@ -15,7 +15,7 @@ package org.openmrs.module.kenyaemr.fragment.controller;
 
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -32,10 +32,11 @@ import org.openmrs.PersonName;
 import org.openmrs.Program;
 import org.openmrs.Visit;
 import org.openmrs.VisitType;
-import org.openmrs.api.VisitService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.kenyaemr.KenyaEmrUiUtils;
 import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.util.KenyaEmrUtils;
+import org.openmrs.module.kenyaemr.visit.ActiveVisitIndex;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.UiUtils;
 import org.openmrs.ui.framework.annotation.BindParams;
@@ -63,23 +64,19 @@ public class RegistrationUtilFragmentController {
 	 * @param ui the UI utils
 	 * @return the visit types as simple objects
 	 */
-	public List<SimpleObject> activeVisitTypes(UiUtils ui) {
-		Map<VisitType, Integer> activeVisitTypes = new HashMap<VisitType, Integer>();
-		
-		List<Visit> activeVisits = Context.getVisitService().getVisits(null, null, null, null, null, null, null, null, null, false, false);
-		for (Visit v : activeVisits) {
-			Integer count = activeVisitTypes.get(v.getVisitType());
-			count = count == null ? 1 : count + 1;
-			activeVisitTypes.put(v.getVisitType(), count);
-		}
-		
-		List<SimpleObject> ret = new ArrayList<SimpleObject>();
-		for (Map.Entry<VisitType, Integer> e : activeVisitTypes.entrySet()) {
-			SimpleObject so = SimpleObject.fromObject(e.getKey(), ui, "visitTypeId", "name");
-			so.put("count", e.getValue());
-			ret.add(so);
+	public List<SimpleObject> activeVisitTypes(UiUtils ui, @SpringBean ActiveVisitIndex activeVisitIndex) {
+		Map<Integer, SimpleObject> activeVisitTypes = new LinkedHashMap<Integer, SimpleObject>();
+
+		for (ActiveVisitIndex.ActiveVisit v : activeVisitIndex.getActiveVisits()) {
+			SimpleObject so = activeVisitTypes.get(v.getVisitTypeId());
+			if (so == null) {
+				so = SimpleObject.create("visitTypeId", v.getVisitTypeId(), "name", ui.format(v.getVisitTypeName()), "count", 0);
+				activeVisitTypes.put(v.getVisitTypeId(), so);
+			}
+			so.put("count", (Integer) so.get("count") + 1);
 		}
-		return ret;
+
+		return new ArrayList<SimpleObject>(activeVisitTypes.values());
 	}
 
 	/**
@@ -92,32 +89,12 @@ public class RegistrationUtilFragmentController {
 			return new FailureResult("You didn't choose any types");
 		}
 
-		Date toStop = new Date();
-		VisitService vs = Context.getVisitService();
-		List<Visit> activeVisits = vs.getVisits(null, null, null, null, null, null, null, null, null, false, false);
-		int numClosed = 0;
-		int numFailed = 0;
-		for (Visit v : activeVisits) {
-			if (visitTypesToClose.contains(v.getVisitType())) {
-				try {
-					v.setStopDatetime(toStop);
-					vs.saveVisit(v);
-					numClosed += 1;
-				} catch (Exception ex) {
-					numFailed += 1;
-				}
-			}
-		}
+		int numClosed = Context.getService(KenyaEmrService.class).closeActiveVisits(visitTypesToClose, new Date());
+
 		String msg = "Closed " + numClosed + " visit";
 		if (numClosed > 1) {
 			msg += "s";
 		}
-		if (numFailed > 0) {
-			msg += ". Failed to close " + numFailed + " visit";
-			if (numFailed > 1) {
-				msg += "s";
-			}
-		}
 		return new SuccessResult(msg);
 	}
 
@@ -271,6 +248,9 @@ public class RegistrationUtilFragmentController {
 				if (Context.getVisitService().getActiveVisitsByPatient(visit.getPatient()).size() > 0) {
 					errors.reject("Patient already has an active visit");
 				}
+				else if (KenyaEmrUtils.visitWillOverlap(visit)) {
+					errors.reject("Visit overlaps with another visit of the patient");
+				}
 			}
 
 			if (visit.getStartDatetime().after(new Date())) {
@@ -30,7 +30,7 @@ import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
 import org.openmrs.module.htmlformentry.FormEntrySession;
 import org.openmrs.module.htmlformentry.HtmlForm;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
-import org.openmrs.module.kenyaemr.form.FormUtils;
+import org.openmrs.module.kenyaemr.form.HtmlFormCache;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.UiUtils;
 import org.openmrs.ui.framework.annotation.SpringBean;
@@ -48,11 +48,11 @@ public class ShowHtmlFormFragmentController {
 		// do nothing
 	}
 	
-	public SimpleObject viewFormHtml(@RequestParam("encounterId") Encounter enc, UiUtils ui, @SpringBean ResourceFactory resourceFactory, HttpSession httpSession) throws Exception {
+	public SimpleObject viewFormHtml(@RequestParam("encounterId") Encounter enc, UiUtils ui, @SpringBean ResourceFactory resourceFactory, @SpringBean HtmlFormCache htmlFormCache, HttpSession httpSession) throws Exception {
 		Form form = enc.getForm();
 
 		// Get html form from database or UI resource
-		HtmlForm hf = FormUtils.getHtmlForm(form, resourceFactory);
+		HtmlForm hf = htmlFormCache.getHtmlForm(form, resourceFactory);
 
 		if (hf == null)
 			throw new RuntimeException("Could not find HTML Form");
@@ -16,14 +16,14 @@ package org.openmrs.module.kenyaemr.fragment.controller;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.openmrs.Encounter;
+import org.openmrs.Patient;
 import org.openmrs.PatientProgram;
-import org.openmrs.Program;
 import org.openmrs.Visit;
-import org.openmrs.api.context.Context;
 import org.openmrs.module.appframework.AppUiUtil;
 import org.openmrs.module.kenyaemr.KenyaEmr;
 import org.openmrs.module.kenyaemr.KenyaEmrUiUtils;
+import org.openmrs.module.kenyaemr.chart.PatientChart;
+import org.openmrs.module.kenyaemr.form.FilledFormsCache;
 import org.openmrs.module.kenyaemr.form.FormDescriptor;
 import org.openmrs.module.kenyaemr.form.FormDescriptor.Frequency;
 import org.openmrs.ui.framework.SimpleObject;
@@ -31,6 +31,7 @@ import org.openmrs.ui.framework.UiUtils;
 import org.openmrs.ui.framework.annotation.FragmentParam;
 import org.openmrs.ui.framework.annotation.SpringBean;
 import org.openmrs.ui.framework.fragment.FragmentModel;
+import org.openmrs.ui.framework.page.PageModel;
 import org.openmrs.ui.framework.session.Session;
 
 import java.util.*;
@@ -43,6 +44,7 @@ public class VisitAvailableFormsFragmentController {
 	protected static final Log log = LogFactory.getLog(VisitAvailableFormsFragmentController.class);
 
 	public void controller(FragmentModel model,
+						   PageModel sharedPageModel,
 						   @FragmentParam("visit") Visit visit,
 						   UiUtils ui,
 						   Session session,
@@ -52,7 +54,8 @@ public class VisitAvailableFormsFragmentController {
 		String currentApp = AppUiUtil.getCurrentApp(session).getApp().getId();
 
 		List<FormDescriptor> availableFormDescriptors = emr.getFormManager().getFormsForPatient(currentApp, visit.getPatient(), null);
-		List<SimpleObject> availableForms = getAvailableForms(visit, availableFormDescriptors, ui, kenyaUi);
+		PatientChart chart = kenyaUi.getPatientChart(sharedPageModel, visit.getPatient());
+		List<SimpleObject> availableForms = getAvailableForms(visit, chart, availableFormDescriptors, emr.getFilledFormsCache(), ui, kenyaUi);
 
 		model.addAttribute("availableForms", availableForms);
 	}
@@ -60,60 +63,39 @@ public class VisitAvailableFormsFragmentController {
 	/**
      * Gets the list of forms that are actually allowed for the given visit, and converts them to simple objects
 	 * @param visit the visit
+	 * @param chart the chart of the visit's patient
      * @param forms the list of possible forms for the visit type
+	 * @param filledForms the filled forms cache
      * @return
      */
-    private List<SimpleObject> getAvailableForms(Visit visit, List<FormDescriptor> forms, UiUtils ui, KenyaEmrUiUtils kenyaUi) {
-    	Set<String> formUuidsThisVisit = new HashSet<String>();
-    	for (Encounter e : visit.getEncounters()) {
-    		if (!e.getVoided()) {
-    			formUuidsThisVisit.add(e.getForm().getUuid());
-    		}
-    	}
-    	
-    	List<Encounter> encs = Context.getEncounterService().getEncountersByPatient(visit.getPatient());
-    	Set<String> allFormUuids = new HashSet<String>();
-    	for (Encounter e : encs) {
-    		allFormUuids.add(e.getForm().getUuid());
-    	}
-    	
-    	Map<Program, Date> dateOfActiveEnrollment = new HashMap<Program, Date>();
-    	for (PatientProgram pp : Context.getProgramWorkflowService().getPatientPrograms(visit.getPatient(), null, null, null, null, null, false)) {
+    private List<SimpleObject> getAvailableForms(Visit visit, PatientChart chart, List<FormDescriptor> forms, FilledFormsCache filledForms, UiUtils ui, KenyaEmrUiUtils kenyaUi) {
+		Patient patient = visit.getPatient();
+
+		// Active enrollments keyed by program UUID, so form programs don't need to be loaded
+    	Map<String, Date> dateOfActiveEnrollment = new HashMap<String, Date>();
+    	for (PatientProgram pp : chart.getPatientPrograms()) {
     		if (pp.getDateCompleted() == null) {
-    			dateOfActiveEnrollment.put(pp.getProgram(), pp.getDateEnrolled());
+    			dateOfActiveEnrollment.put(pp.getProgram().getUuid(), pp.getDateEnrolled());
     		}
     	}
-    	Map<Program, Set<String>> formUuidsByProgram = new HashMap<Program, Set<String>>();
-		for (Map.Entry<Program, Date> e : dateOfActiveEnrollment.entrySet()) {
-			Date started = e.getValue();
-			Set<String> formUuids = new HashSet<String>();
-			for (Encounter enc : encs) {
-				if (enc.getEncounterDatetime().compareTo(started) >= 0) {
-					formUuids.add(enc.getForm().getUuid());
-				}
-			}
-			formUuidsByProgram.put(e.getKey(), formUuids);
-		}
-		
+
     	List<SimpleObject> ret = new ArrayList<SimpleObject>();
 		
 		for (FormDescriptor config : forms) {
-			// Get program for form
-			Program formProgram = config.getProgramUuid() != null ? Context.getProgramWorkflowService().getProgramByUuid(config.getProgramUuid()) : null;
+			String programUuid = config.getProgramUuid();
 
-			if (formProgram != null && !dateOfActiveEnrollment.keySet().contains(formProgram)) {
+			if (programUuid != null && !dateOfActiveEnrollment.containsKey(programUuid)) {
 				continue;
 			}
 			boolean allowed = false;
 			if (config.getFrequency().equals(Frequency.UNLIMITED)) {
 				allowed = true;
 			} else if (config.getFrequency().equals(Frequency.VISIT)) {
-				allowed = !formUuidsThisVisit.contains(config.getFormUuid());
+				allowed = !filledForms.getFormsFilledInVisit(visit).contains(config.getFormUuid());
 			} else if (config.getFrequency().equals(Frequency.PROGRAM)) {
-				Set<String> formsForProgram = formUuidsByProgram.get(formProgram);
-				allowed = formsForProgram == null || !formsForProgram.contains(config.getFormUuid());
+				allowed = programUuid == null || !filledForms.getFormsFilledSince(patient, dateOfActiveEnrollment.get(programUuid)).contains(config.getFormUuid());
 			} else if (config.getFrequency().equals(Frequency.ONCE_EVER)) {
-				allowed = !allFormUuids.contains(config.getFormUuid());
+				allowed = !filledForms.getFormsFilled(patient).contains(config.getFormUuid());
 			} else {
 				throw new RuntimeException("Unknown Frequency");
 			}
@@ -95,6 +95,10 @@ public class AdminHomePageController {
 			String conceptsVersion = emr.getMetadataManager().getConceptsVersion();
 			metadataPackages.add(SimpleObject.create("name", "Kenya EMR Concepts", "version", conceptsVersion, "status", (conceptsVersion != null)));
 
+			List<SimpleObject> catalogues = new ArrayList<SimpleObject>();
+			catalogues.add(SimpleObject.create("name", "Regimens", "version", emr.getRegimenManager().getVersion(), "status", Boolean.TRUE));
+			catalogues.add(SimpleObject.create("name", "Lab tests", "version", emr.getLabManager().getVersion(), "status", Boolean.TRUE));
+
 
 			List<SimpleObject> forms = new ArrayList<SimpleObject>();
 			for (FormDescriptor descriptor : emr.getFormManager().getAllFormDescriptors()) {
@@ -110,6 +114,7 @@ public class AdminHomePageController {
 			}
 
 			infoCategories.put("Metadata Packages", metadataPackages);
+			infoCategories.put("Definitions", catalogues);
 			infoCategories.put("Forms", forms);
 		}
 
@@ -0,0 +1,69 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.kenyaemr.page.controller;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.appframework.AppUiUtil;
+import org.openmrs.module.kenyaemr.visit.RetrospectiveVisitImporter;
+import org.openmrs.ui.framework.annotation.SpringBean;
+import org.openmrs.ui.framework.page.PageModel;
+import org.openmrs.ui.framework.session.Session;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+
+/**
+ * Uploads retrospective visits from paper records as CSV
+ */
+public class AdminImportVisitsPageController {
+
+	protected static final Log log = LogFactory.getLog(AdminImportVisitsPageController.class);
+
+	public void controller(Session session,
+						   PageModel model,
+						   HttpServletRequest request,
+						   @SpringBean RetrospectiveVisitImporter importer) {
+
+		AppUiUtil.startApp("kenyaemr.admin", session);
+
+		model.addAttribute("result", null);
+		model.addAttribute("error", null);
+
+		if (request instanceof MultipartHttpServletRequest) {
+			MultipartFile uploaded = ((MultipartHttpServletRequest) request).getFile("visitsCsv");
+			if (uploaded != null && !uploaded.isEmpty()) {
+				Reader reader = null;
+				try {
+					reader = new InputStreamReader(uploaded.getInputStream(), "UTF-8");
+					model.addAttribute("result", importer.importCsv(reader));
+				}
+				catch (Exception ex) {
+					// Batches saved before the failure are kept, and are skipped if the file is imported again
+					log.error("Unable to import retrospective visits", ex);
+					model.addAttribute("error", ex.getMessage());
+				}
+				finally {
+					IOUtils.closeQuietly(reader);
+				}
+			}
+		}
+	}
+}
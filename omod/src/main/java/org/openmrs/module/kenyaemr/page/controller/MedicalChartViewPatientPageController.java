@@ -15,7 +15,6 @@ package org.openmrs.module.kenyaemr.page.controller;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
@@ -27,6 +26,9 @@ import org.openmrs.Visit;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.appframework.AppUiUtil;
 import org.openmrs.module.kenyaemr.KenyaEmr;
+import org.openmrs.module.kenyaemr.KenyaEmrUiUtils;
+import org.openmrs.module.kenyaemr.chart.PatientChart;
+import org.openmrs.module.kenyaemr.chart.RecentlyViewedPatients;
 import org.openmrs.module.kenyaemr.form.FormDescriptor;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.UiUtils;
@@ -48,7 +50,9 @@ public class MedicalChartViewPatientPageController {
 	                       PageModel model,
 	                       UiUtils ui,
 	                       Session session,
-						   @SpringBean KenyaEmr emr) {
+						   @SpringBean KenyaEmr emr,
+						   @SpringBean KenyaEmrUiUtils kenyaUi,
+						   @SpringBean RecentlyViewedPatients recentlyViewed) {
 
 		if ("".equals(formUuid)) {
 			formUuid = null;
@@ -56,7 +60,7 @@ public class MedicalChartViewPatientPageController {
 
 		AppUiUtil.startApp("kenyaemr.medicalChart", session);
 		
-		recentlyViewed(patient, session);
+		recentlyViewed.viewed(Context.getAuthenticatedUser(), patient);
 		
 		model.addAttribute("patient", patient);
 		model.addAttribute("person", patient);
@@ -69,8 +73,10 @@ public class MedicalChartViewPatientPageController {
 		}
 		model.addAttribute("oneTimeForms", oneTimeForms);
 
-		model.addAttribute("programs", Context.getProgramWorkflowService().getPatientPrograms(patient, null, null, null, null, null, false));
-		model.addAttribute("visits", Context.getVisitService().getVisitsByPatient(patient));
+		PatientChart chart = kenyaUi.getPatientChart(model, patient);
+
+		model.addAttribute("programs", chart.getPatientPrograms());
+		model.addAttribute("visits", chart.getVisits());
 		
 		Form form = null;
 		String selection = null;
@@ -82,7 +88,7 @@ public class MedicalChartViewPatientPageController {
 			selection = "form-" + formUuid;
 			
 			form = Context.getFormService().getFormByUuid(formUuid);
-			List<Encounter> encounters = Context.getEncounterService().getEncounters(patient, null, null, null, Collections.singleton(form), null, null, null, null, false);
+			List<Encounter> encounters = chart.getEncounters(form);
 			Encounter encounter = encounters.size() > 0 ? encounters.get(0) : null;
 			model.addAttribute("encounter", encounter);
 		}
@@ -102,20 +108,4 @@ public class MedicalChartViewPatientPageController {
 		model.addAttribute("section", section);
 		model.addAttribute("selection", selection);
 	}
-
-	/**
-     * Remember that this patient was just viewed
-     */
-    private void recentlyViewed(Patient patient, Session session) {
-	    LinkedList<Integer> recent = session.getAttribute("kenyaemr.medicalChart.recentlyViewedPatients", LinkedList.class);
-	    if (recent == null) {
-	    	recent = new LinkedList<Integer>();
-	    	session.setAttribute("kenyaemr.medicalChart.recentlyViewedPatients", recent);
-	    }
-	    recent.removeFirstOccurrence(patient.getPatientId());
-	    recent.add(0, patient.getPatientId());
-	    while (recent.size() > 10)
-	    	recent.removeLast();
-    }
-	
 }
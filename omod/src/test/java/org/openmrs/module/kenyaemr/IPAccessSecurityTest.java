@@ -70,4 +70,27 @@ public class IPAccessSecurityTest extends BaseModuleWebContextSensitiveTest {
 		IPAccessSecurity.endLockOut(ipAddress1);
 		Assert.assertFalse(IPAccessSecurity.isLockedOut(ipAddress1));
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see IPAccessSecurity#getLockedOutIPCount()
+	 * @see IPAccessSecurity#getTrackedIPCount()
+	 */
+	@Test
+	public void getLockedOutIPCount_shouldCountOnlyLockedOutAddresses() throws Exception {
+		IPAccessSecurity.reset();
+
+		IPAccessSecurity.registerFailedAccess("127.0.0.1");
+		for (int i = 0; i < 11; ++i) {
+			IPAccessSecurity.registerFailedAccess("127.0.1.1");
+		}
+
+		Assert.assertEquals(2, IPAccessSecurity.getTrackedIPCount());
+		Assert.assertEquals(1, IPAccessSecurity.getLockedOutIPCount());
+
+		// Successful access forgets the failed attempts
+		IPAccessSecurity.registerSuccessfulAccess("127.0.0.1");
+
+		Assert.assertEquals(1, IPAccessSecurity.getTrackedIPCount());
+		Assert.assertEquals(1, IPAccessSecurity.getLockedOutIPCount());
+	}
+}
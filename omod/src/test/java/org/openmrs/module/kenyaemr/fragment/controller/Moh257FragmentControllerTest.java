@@ -57,6 +57,7 @@ public class Moh257FragmentControllerTest extends BaseModuleWebContextSensitiveT
 		controller = new Moh257FragmentController();
 
 		emr.getMetadataManager().setupGlobalProperties();
+		emr.getFacilityConfiguration().refresh();
 
 		location = Context.getLocationService().getLocation(1);
 		Context.getService(KenyaEmrService.class).setDefaultLocation(location);